@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+import com.streamdataio.android.stockmarket.quote.FrameClock;
+
+/**
+ * A {@link FrameClock} following the vsync of the display, on a thread of its own so that the frame tasks do not
+ * take time from the UI thread.
+ *
+ * @author Streamdata.io
+ */
+class ChoreographerFrameClock implements FrameClock {
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    ChoreographerFrameClock(String name) {
+        thread = new HandlerThread(name);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public void postFrame(final Runnable task) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // the choreographer of the clock thread, which signals the same vsync as the one of the UI thread
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        task.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the clock thread; the tasks not run yet are dropped.
+     */
+    void release() {
+        thread.quit();
+    }
+}
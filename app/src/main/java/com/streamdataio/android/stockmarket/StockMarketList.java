@@ -30,19 +30,35 @@ import android.widget.TextView;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
-
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.PatchPointerCache;
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+import com.streamdataio.android.stockmarket.quote.PatchCoalescer;
+import com.streamdataio.android.stockmarket.quote.QuoteModel;
+import com.streamdataio.android.stockmarket.quote.QuoteSnapshotDecoder;
+import com.streamdataio.android.stockmarket.quote.QuoteSnapshotFile;
+import com.streamdataio.android.stockmarket.quote.QuoteStore;
+
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
+import tylerjroach.com.eventsource_android.BatchEventSourceHandler;
+import tylerjroach.com.eventsource_android.DecorrelatedJitterReconnectPolicy;
 import tylerjroach.com.eventsource_android.EventSource;
-import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.EventSourceOptions;
+import tylerjroach.com.eventsource_android.EventTrace;
+import tylerjroach.com.eventsource_android.EventTracer;
+import tylerjroach.com.eventsource_android.InMemoryLastEventIdStore;
+import tylerjroach.com.eventsource_android.LastEventIdStore;
+import tylerjroach.com.eventsource_android.MessageBatch;
 import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.ReconnectGovernor;
+import tylerjroach.com.eventsource_android.StreamMetrics;
 
 
 /**
@@ -61,10 +77,27 @@ public class StockMarketList extends StockMarketActivity {
 
     private final ObjectMapper mapper = new ObjectMapper();
 
-    private JsonNode data;
+    // the quotes, updated on the frame thread and displayed on the UI thread
+    private final QuoteModel quotes = new QuoteModel();
+    // ticks at each vsync, off the UI thread
+    private ChoreographerFrameClock frameClock;
+    // applies the updates received during a frame at once, and refreshes the UI once per frame
+    private PatchCoalescer patchCoalescer;
+    // decodes snapshots on the callback thread
+    private final QuoteSnapshotDecoder snapshotDecoder = new QuoteSnapshotDecoder(mapper.getFactory());
+    // paths of the patches, compiled once: the feed patches the same few paths over and over
+    private final PatchPointerCache pointerCache = new PatchPointerCache();
     private ListView listView;
     private MyListAdapter listAdapter;
     private EventSource eventSource;
+    // receives the events of eventSource
+    private SSEHandler sseHandler;
+    // the quotes shown when the application was last paused, and the id of the last event applied to them
+    private QuoteSnapshotFile snapshotFile;
+    // measurements of the stream across connections, logged when the application is paused
+    private final StreamMetrics streamMetrics = new StreamMetrics();
+    // where the time from the socket to the screen goes, for one event out of a hundred
+    private final EventTracer eventTracer = new EventTracer(100).setCompletionStage(EventTrace.Stage.RENDERED);
 
     /**
      * Android application creation callback.
@@ -82,16 +115,43 @@ public class StockMarketList extends StockMarketActivity {
         // Set the Activity layout
         setContentView(R.layout.main);
 
+        // Show the quotes saved on the last pause right away, and resume the stream from them
+        snapshotFile = new QuoteSnapshotFile(new File(getCacheDir(), "quotes.snapshot"));
         try {
-            data = mapper.readTree("[]");
+            snapshotFile.load(quotes, new RowChanges());
         } catch (IOException e) {
-            e.printStackTrace();
+            if (Log.isLoggable(TAG, Log.WARN)) {
+                Log.w(TAG, "Cannot load the saved quotes", e);
+            }
+            snapshotFile.delete();
         }
+
         // Configure the list view
         listView = (ListView) findViewById(R.id.listView);
-        listAdapter = new MyListAdapter(this, (ArrayNode) data);
+        listAdapter = new MyListAdapter(this, quotes.get());
         listView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
         listView.setAdapter(listAdapter);
+
+        frameClock = new ChoreographerFrameClock("quote-frames");
+        patchCoalescer = new PatchCoalescer(quotes, frameClock, new PatchCoalescer.Listener() {
+            @Override
+            public void onRender(final QuoteStore version, final RowChanges changes) {
+                // the UI thread only reads immutable versions of the quotes, so it neither waits for the updates
+                // nor copies the quotes
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        listAdapter.show(version, changes);
+                    }
+                });
+            }
+
+            @Override
+            public void onPatchFailed(InPlaceJsonPatch patch, JsonPatchException e) {
+                // the quotes are left as they were before the patch
+                e.printStackTrace();
+            }
+        });
     }
 
     @Override
@@ -108,6 +168,30 @@ public class StockMarketList extends StockMarketActivity {
 
         // Disconnection from EventSource
         disconnect();
+
+        // Save the quotes displayed, consistent with the id of the last event applied to them, which is where the
+        // next connection resumes
+        try {
+            snapshotFile.save(quotes);
+        } catch (IOException e) {
+            if (Log.isLoggable(TAG, Log.ERROR)) {
+                Log.e(TAG, "Cannot save the quotes", e);
+            }
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Patch paths: " + pointerCache + ", hit rate " + pointerCache.getHitRate());
+            Log.d(TAG, "Updates: " + patchCoalescer);
+            Log.d(TAG, "Stream: " + streamMetrics.snapshot());
+            Log.d(TAG, "Latency: " + eventTracer);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        frameClock.release();
     }
 
     /**
@@ -121,7 +205,26 @@ public class StockMarketList extends StockMarketActivity {
         // Create the EventSource with API URL & Streamdata.io authentication token
         try {
             String targetUrl = streamdataioProxyPrefix + myApi;
-            eventSource = new EventSource(new URI(targetUrl), new URI(myApi), new SSEHandler(), headers);
+            // resume from the last event applied to the quotes, not the last one parsed: the events still queued
+            // when the previous source was closed were dropped, so the stream must send them again
+            LastEventIdStore lastEventIdStore = new InMemoryLastEventIdStore(quotes.getLastEventId());
+            sseHandler = new SSEHandler();
+            // attach to the process-wide transport: reconnecting on every onResume does not add threads
+            eventSource = new EventSource(new URI(targetUrl), new URI(myApi), sseHandler, headers, new EventSourceOptions()
+                    .setLastEventIdStore(lastEventIdStore)
+                    .setSnapshotEventName("data")
+                    // the snapshot is the whole quote list on a single data line
+                    .setMaxLineLength(1 << 20)
+                    .setMetrics(streamMetrics)
+                    .setTracer(eventTracer)
+                    // the data goes straight from UTF-8 bytes to the JSON parser, never through a String
+                    .setByteData(true)
+                    // other events, e.g. from a newer proxy, are dropped by the parser rather than reaching submit()
+                    .setEventNames("data", "patch")
+                    // back off while the proxy is unreachable instead of retrying every 2 seconds
+                    .setReconnectPolicy(new DecorrelatedJitterReconnectPolicy(60000))
+                    // and share the pace of reconnects with the other streams of the process
+                    .setReconnectGovernor(ReconnectGovernor.getDefault()));
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
@@ -134,8 +237,8 @@ public class StockMarketList extends StockMarketActivity {
      * Closes the event source connection and dereference the EventSource object
      */
     private void disconnect() {
-        // Disconnect the eventSource Handler
-        if (eventSource!= null && eventSource.isConnected()) {
+        // Disconnect the eventSource Handler, also while it is reconnecting
+        if (eventSource != null) {
             try {
                 eventSource.close();
             } catch (Exception e) {
@@ -145,17 +248,35 @@ public class StockMarketList extends StockMarketActivity {
             }
         }
 
+        // The events queued when the source was closed are dropped, and the next connection resumes from the last
+        // event applied: so must the updates not applied yet, or they would be applied twice. Afterwards the quotes
+        // and their id no longer change until the next connection
+        if (sseHandler != null) {
+            sseHandler.close();
+        }
+        patchCoalescer.discardPending();
+
         // Dereferencing variable
         eventSource = null;
+        sseHandler = null;
     }
 
 
     /* ********************************** Class SSEHandler ********************************** */
-    private class SSEHandler implements EventSourceHandler {
+    private class SSEHandler implements BatchEventSourceHandler {
+        // set once the event source is closed: a batch being delivered then is dropped
+        private boolean closed;
 
         public SSEHandler() {
         }
 
+        /**
+         * Drops the messages still coming, and waits for the one being submitted, if any
+         */
+        public synchronized void close() {
+            closed = true;
+        }
+
         /**
          * SSE handler for connection starting
          */
@@ -174,36 +295,40 @@ public class StockMarketList extends StockMarketActivity {
          */
         @Override
         public void onMessage(String event, MessageEvent message) throws IOException {
-            if ("data".equals(event)) {
-                // SSE message is a snapshot
-                data = mapper.readTree(message.data);
+            submit(event, message);
+        }
 
-                // Refresh UI
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        listAdapter.getData().removeAll();
-                        listAdapter.getData().addAll((ArrayNode) data);
-                        listAdapter.notifyDataSetChanged();
-                    }
-                });
+        /**
+         * SSE incoming messages handler
+         * @param batch messages in stream order
+         * @throws IOException if JSON syntax is not valid
+         */
+        @Override
+        public void onMessages(MessageBatch batch) throws IOException {
+            for (int i = 0; i < batch.size(); i++) {
+                submit(batch.getEvent(i), batch.getMessage(i));
+            }
+        }
+
+        /**
+         * Parses a snapshot or a patch, off the UI thread, and queues it for the next frame
+         */
+        private synchronized void submit(String event, MessageEvent message) throws IOException {
+            if (closed) {
+                return;
+            }
+            if ("data".equals(event)) {
+                // SSE message is a snapshot: at the next frame, only the rows that differ from the quotes are
+                // replaced
+                patchCoalescer.submitSnapshot(snapshotDecoder.decode(message.getDataBytes()), message.lastEventId,
+                        message.trace);
 
             } else if ("patch".equals(event)) {
                 // SSE message is a patch
                 try {
-                    JsonNode patchNode = mapper.readTree(message.data);
-                    JsonPatch patch = JsonPatch.fromJson(patchNode);
-                    data = patch.apply(data);
-
-                    // Refresh UI
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            listAdapter.getData().removeAll();
-                            listAdapter.getData().addAll((ArrayNode) data);
-                            listAdapter.notifyDataSetChanged();
-                        }
-                    });
+                    JsonNode patchNode = mapper.readTree(message.getDataBytes());
+                    patchCoalescer.submit(InPlaceJsonPatch.fromJson(patchNode, pointerCache), message.lastEventId,
+                            message.trace);
                 } catch (JsonPatchException e) {
                     e.printStackTrace();
                 }
@@ -242,7 +367,7 @@ public class StockMarketList extends StockMarketActivity {
          * as long as we get the abstract methods implemented using this data
          * and work on this data (see getter) you should be fine
          */
-        private final ArrayNode mData;
+        private QuoteStore mData;
 
         /**
          * some context can be useful for getting colors and other resources for
@@ -255,15 +380,52 @@ public class StockMarketList extends StockMarketActivity {
          *
          * @param mData
          */
-        public MyListAdapter(final Context context, final ArrayNode mData) {
+        public MyListAdapter(final Context context, final QuoteStore mData) {
             this.mData = mData;
             this.mContext = context;
         }
 
-        public ArrayNode getData() {
+        public QuoteStore getData() {
             return mData;
         }
 
+        /**
+         * Displays a new version of the quotes
+         *
+         * @param data    immutable quotes
+         * @param changes rows that differ from the quotes displayed so far
+         */
+        public void show(QuoteStore data, RowChanges changes) {
+            mData = data;
+            refreshRows(changes);
+        }
+
+        /**
+         * Rebinds the visible rows that changed. Rows inserted or removed move the others, so the whole list is
+         * refreshed then
+         *
+         * @param changes rows changed since the last refresh
+         */
+        public void refreshRows(RowChanges changes) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            if (changes.isStructural()) {
+                notifyDataSetChanged();
+                return;
+            }
+            int first = listView.getFirstVisiblePosition();
+            int last = listView.getLastVisiblePosition();
+            for (int i = 0; i < changes.size(); i++) {
+                int row = changes.getRow(i);
+                View rowView = row >= first && row <= last ? listView.getChildAt(row - first) : null;
+                if (rowView != null) {
+                    // rebinding the row view in place does not invalidate the other rows
+                    getView(row, rowView, listView);
+                }
+            }
+        }
+
         @Override
         public int getCount() {
             return mData != null ? mData.size() : 0;
@@ -271,7 +433,7 @@ public class StockMarketList extends StockMarketActivity {
 
         @Override
         public Object getItem(int i) {
-            return mData != null ? mData.get(i) : null;
+            return mData != null ? mData.getTitle(i) : null;
         }
 
         @Override
@@ -296,6 +458,7 @@ public class StockMarketList extends StockMarketActivity {
                 viewWrapper = new ViewWrapper();
                 viewWrapper.titleTextView = (TextView) convertView.findViewById(R.id.title);
                 viewWrapper.priceLayout = (TextView) convertView.findViewById(R.id.price);
+                viewWrapper.priceText = new char[QuoteStore.PRICE_TEXT_CAPACITY];
                 convertView.setTag(viewWrapper);
 
             } else {
@@ -303,15 +466,14 @@ public class StockMarketList extends StockMarketActivity {
                 viewWrapper = (ViewWrapper) convertView.getTag();
             }
 
-            // object item based on the position
-            JsonNode obj = mData.get(position);
-
             // assign values if the object is not null
             if (mData != null) {
                 // get the TextView from the ViewHolder and then set the text
-                // (item name) and other values
-                viewWrapper.titleTextView.setText(obj.get("title").asText());
-                viewWrapper.priceLayout.setText(obj.get("price").asText());
+                // (item name) and other values: titles are shared Strings and prices are
+                // written into the chars of the row, so binding a row allocates nothing
+                viewWrapper.titleTextView.setText(mData.getTitle(position));
+                int priceLength = mData.formatPrice(position, viewWrapper.priceText);
+                viewWrapper.priceLayout.setText(viewWrapper.priceText, 0, priceLength);
             }
             return convertView;
         }
@@ -324,5 +486,6 @@ public class StockMarketList extends StockMarketActivity {
     private static class ViewWrapper {
         TextView titleTextView;
         TextView priceLayout;
+        char[] priceText;
     }
 }
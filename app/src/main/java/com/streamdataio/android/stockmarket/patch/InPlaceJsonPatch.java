@@ -0,0 +1,495 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.patch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jsonpatch.JsonPatchException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A <a href="https://tools.ietf.org/html/rfc6902">JSON Patch</a> applied to the document itself rather than to a
+ * copy of it.
+ * <p/>
+ * {@link com.github.fge.jsonpatch.JsonPatch#apply(JsonNode)} deep-copies the document before each operation, so
+ * changing one field of a large document costs as much as copying it. Here each operation only walks its path and
+ * records how to undo itself: if an operation fails, those already applied are undone in reverse order and the
+ * document is left as it was.
+ */
+public final class InPlaceJsonPatch {
+    private final List<Operation> operations;
+
+    public InPlaceJsonPatch(List<Operation> operations) {
+        this.operations = Collections.unmodifiableList(new ArrayList<Operation>(operations));
+    }
+
+    /**
+     * @param node the array of operations of a patch
+     * @throws JsonPatchException if an operation is malformed
+     */
+    public static InPlaceJsonPatch fromJson(JsonNode node) throws JsonPatchException {
+        return fromJson(node, null);
+    }
+
+    /**
+     * @param node         the array of operations of a patch
+     * @param pointerCache where the paths of the operations are looked up instead of being compiled, null to
+     *                     compile them
+     * @throws JsonPatchException if an operation is malformed
+     */
+    public static InPlaceJsonPatch fromJson(JsonNode node, PatchPointerCache pointerCache) throws JsonPatchException {
+        if (!node.isArray()) {
+            throw new JsonPatchException("a patch must be an array of operations: " + node);
+        }
+        List<Operation> operations = new ArrayList<Operation>(node.size());
+        for (JsonNode operation : node) {
+            operations.add(Operation.fromJson(operation, pointerCache));
+        }
+        return new InPlaceJsonPatch(operations);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Applies the operations to the document, in order.
+     *
+     * @param document the document to modify; the whole document can only be replaced by a value of the same type
+     * @return the paths of the values added, removed or replaced, in the order the operations touched them
+     * @throws JsonPatchException if an operation does not apply, in which case the document is left unchanged
+     */
+    public List<PatchPointer> apply(JsonNode document) throws JsonPatchException {
+        return apply(document, null);
+    }
+
+    /**
+     * Applies the operations to a list, in order, and records the rows they changed.
+     *
+     * @param changes receives the rows of the list changed, inserted or removed, unless the patch fails
+     * @see #apply(JsonNode)
+     */
+    public List<PatchPointer> apply(JsonNode document, RowChanges changes) throws JsonPatchException {
+        List<PatchPointer> touched = new ArrayList<PatchPointer>(operations.size() + 1);
+        List<Integer> kinds = new ArrayList<Integer>(operations.size() + 1);
+        List<Undo> undoLog = new ArrayList<Undo>(operations.size());
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                apply(document, operations.get(i), undoLog, touched, kinds);
+            }
+        } catch (JsonPatchException e) {
+            for (int i = undoLog.size() - 1; i >= 0; i--) {
+                undoLog.get(i).undo();
+            }
+            throw e;
+        }
+        if (changes != null) {
+            for (int i = 0; i < touched.size(); i++) {
+                changes.record(kinds.get(i), touched.get(i));
+            }
+        }
+        return touched;
+    }
+
+    private static void apply(JsonNode document, Operation operation, List<Undo> undoLog, List<PatchPointer> touched,
+                              List<Integer> kinds) throws JsonPatchException {
+        PatchPointer path = operation.getPath();
+        PatchPointer from = operation.getFrom();
+        switch (operation.getType()) {
+            case ADD:
+                touched.add(add(document, path, operation.getValue().deepCopy(), undoLog));
+                kinds.add(RowChanges.INSERTED);
+                break;
+            case REMOVE:
+                remove(document, path, undoLog);
+                touched.add(path);
+                kinds.add(RowChanges.REMOVED);
+                break;
+            case REPLACE:
+                replace(document, path, operation.getValue().deepCopy(), undoLog);
+                touched.add(path);
+                kinds.add(RowChanges.CHANGED);
+                break;
+            case MOVE:
+                if (from.isProperPrefixOf(path)) {
+                    throw new JsonPatchException("cannot move " + from + " into one of its children: " + path);
+                }
+                if (from.equals(path)) {
+                    resolve(document, from, from.size());
+                    break;
+                }
+                touched.add(from);
+                kinds.add(RowChanges.REMOVED);
+                touched.add(add(document, path, remove(document, from, undoLog), undoLog));
+                kinds.add(RowChanges.INSERTED);
+                break;
+            case COPY:
+                touched.add(add(document, path, resolve(document, from, from.size()).deepCopy(), undoLog));
+                kinds.add(RowChanges.INSERTED);
+                break;
+            case TEST:
+                JsonNode actual = resolve(document, path, path.size());
+                if (!jsonEquals(actual, operation.getValue())) {
+                    throw new JsonPatchException("value at " + path + " differs from " + operation.getValue()
+                            + ": " + actual);
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return the path of the added value, with the index it was given if the path ends with {@code -}
+     */
+    private static PatchPointer add(JsonNode document, PatchPointer path, JsonNode value, List<Undo> undoLog)
+            throws JsonPatchException {
+        if (path.isRoot()) {
+            replaceDocument(document, value, undoLog);
+            return path;
+        }
+        JsonNode parent = resolveParent(document, path);
+        int last = path.size() - 1;
+        if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            int index = path.getIndex(last);
+            if (index == PatchPointer.END_OF_ARRAY) {
+                index = array.size();
+                path = path.withLastIndex(index);
+            }
+            if (index == PatchPointer.NOT_AN_INDEX || index > array.size()) {
+                throw new JsonPatchException("no such array index: " + path);
+            }
+            array.insert(index, value);
+            undoLog.add(Undo.arrayInsert(array, index));
+        } else {
+            ObjectNode object = (ObjectNode) parent;
+            String field = path.getToken(last);
+            undoLog.add(Undo.objectSet(object, field, object.replace(field, value)));
+        }
+        return path;
+    }
+
+    private static JsonNode remove(JsonNode document, PatchPointer path, List<Undo> undoLog)
+            throws JsonPatchException {
+        if (path.isRoot()) {
+            throw new JsonPatchException("cannot remove the whole document");
+        }
+        JsonNode parent = resolveParent(document, path);
+        int last = path.size() - 1;
+        if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            int index = existingIndex(array, path, last);
+            JsonNode removed = array.remove(index);
+            undoLog.add(Undo.arrayRemove(array, index, removed));
+            return removed;
+        } else {
+            ObjectNode object = (ObjectNode) parent;
+            String field = path.getToken(last);
+            JsonNode removed = object.remove(field);
+            if (removed == null) {
+                throw new JsonPatchException("no such path: " + path);
+            }
+            undoLog.add(Undo.objectSet(object, field, removed));
+            return removed;
+        }
+    }
+
+    private static void replace(JsonNode document, PatchPointer path, JsonNode value, List<Undo> undoLog)
+            throws JsonPatchException {
+        if (path.isRoot()) {
+            replaceDocument(document, value, undoLog);
+            return;
+        }
+        JsonNode parent = resolveParent(document, path);
+        int last = path.size() - 1;
+        if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            int index = existingIndex(array, path, last);
+            undoLog.add(Undo.arraySet(array, index, array.set(index, value)));
+        } else {
+            ObjectNode object = (ObjectNode) parent;
+            String field = path.getToken(last);
+            if (!object.has(field)) {
+                throw new JsonPatchException("no such path: " + path);
+            }
+            undoLog.add(Undo.objectSet(object, field, object.replace(field, value)));
+        }
+    }
+
+    /**
+     * The document node is kept, so it can only take the content of a value of the same type.
+     */
+    private static void replaceDocument(JsonNode document, JsonNode value, List<Undo> undoLog)
+            throws JsonPatchException {
+        if (document.isArray() && value.isArray()) {
+            ArrayNode array = (ArrayNode) document;
+            ArrayNode previous = JsonNodeFactory.instance.arrayNode().addAll(array);
+            array.removeAll();
+            array.addAll((ArrayNode) value);
+            undoLog.add(Undo.documentReplace(array, previous));
+        } else if (document.isObject() && value.isObject()) {
+            ObjectNode object = (ObjectNode) document;
+            ObjectNode previous = JsonNodeFactory.instance.objectNode();
+            previous.setAll(object);
+            object.removeAll();
+            object.setAll((ObjectNode) value);
+            undoLog.add(Undo.documentReplace(object, previous));
+        } else {
+            throw new JsonPatchException("cannot replace a " + document.getNodeType() + " document with a "
+                    + value.getNodeType() + " in place");
+        }
+    }
+
+    private static JsonNode resolveParent(JsonNode document, PatchPointer path) throws JsonPatchException {
+        JsonNode parent = resolve(document, path, path.size() - 1);
+        if (!parent.isContainerNode()) {
+            throw new JsonPatchException("parent of " + path + " is not a container");
+        }
+        return parent;
+    }
+
+    /**
+     * @return the value referred to by the first {@code count} tokens of the path
+     */
+    private static JsonNode resolve(JsonNode document, PatchPointer path, int count) throws JsonPatchException {
+        JsonNode node = document;
+        for (int i = 0; i < count; i++) {
+            if (node.isArray()) {
+                node = node.get(existingIndex((ArrayNode) node, path, i));
+            } else {
+                node = node.get(path.getToken(i));
+                if (node == null) {
+                    throw new JsonPatchException("no such path: " + path);
+                }
+            }
+        }
+        return node;
+    }
+
+    private static int existingIndex(ArrayNode array, PatchPointer path, int token) throws JsonPatchException {
+        int index = path.getIndex(token);
+        if (index < 0 || index >= array.size()) {
+            throw new JsonPatchException("no such array index: " + path);
+        }
+        return index;
+    }
+
+    /**
+     * Equality as defined for the test operation: numbers are equal if they have the same value, whatever their
+     * representation.
+     */
+    private static boolean jsonEquals(JsonNode a, JsonNode b) {
+        if (a.isNumber() && b.isNumber()) {
+            return a.decimalValue().compareTo(b.decimalValue()) == 0;
+        }
+        if (a.isArray() && b.isArray()) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                if (!jsonEquals(a.get(i), b.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a.isObject() && b.isObject()) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = a.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode other = b.get(field.getKey());
+                if (other == null || !jsonEquals(field.getValue(), other)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * One operation of a patch.
+     */
+    public static final class Operation {
+        public enum Type {
+            ADD, REMOVE, REPLACE, MOVE, COPY, TEST
+        }
+
+        private final Type type;
+        private final PatchPointer path;
+        private final PatchPointer from;
+        private final JsonNode value;
+
+        /**
+         * @param from  source of a move or copy, null otherwise
+         * @param value value of an add, replace or test, null otherwise
+         */
+        public Operation(Type type, PatchPointer path, PatchPointer from, JsonNode value) {
+            this.type = type;
+            this.path = path;
+            this.from = from;
+            this.value = value;
+        }
+
+        static Operation fromJson(JsonNode node, PatchPointerCache pointerCache) throws JsonPatchException {
+            String op = requiredText(node, "op");
+            Type type = null;
+            for (Type candidate : Type.values()) {
+                if (candidate.name().toLowerCase(Locale.ENGLISH).equals(op)) {
+                    type = candidate;
+                }
+            }
+            if (type == null) {
+                throw new JsonPatchException("unknown operation: " + node);
+            }
+            PatchPointer path = pointer(requiredText(node, "path"), pointerCache);
+            PatchPointer from = null;
+            JsonNode value = null;
+            switch (type) {
+                case ADD:
+                case REPLACE:
+                case TEST:
+                    value = node.get("value");
+                    if (value == null) {
+                        throw new JsonPatchException("missing value: " + node);
+                    }
+                    break;
+                case MOVE:
+                case COPY:
+                    from = pointer(requiredText(node, "from"), pointerCache);
+                    break;
+            }
+            return new Operation(type, path, from, value);
+        }
+
+        private static PatchPointer pointer(String path, PatchPointerCache pointerCache) throws JsonPatchException {
+            return pointerCache != null ? pointerCache.get(path) : PatchPointer.compile(path);
+        }
+
+        private static String requiredText(JsonNode node, String field) throws JsonPatchException {
+            JsonNode text = node.get(field);
+            if (text == null || !text.isTextual()) {
+                throw new JsonPatchException("missing " + field + ": " + node);
+            }
+            return text.textValue();
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public PatchPointer getPath() {
+            return path;
+        }
+
+        public PatchPointer getFrom() {
+            return from;
+        }
+
+        public JsonNode getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Restores what one step of an operation changed.
+     */
+    private static final class Undo {
+        private static final int ARRAY_INSERT = 0;
+        private static final int ARRAY_REMOVE = 1;
+        private static final int ARRAY_SET = 2;
+        private static final int OBJECT_SET = 3;
+        private static final int DOCUMENT_REPLACE = 4;
+
+        private final int kind;
+        private final JsonNode container;
+        private final String field;
+        private final int index;
+        private final JsonNode previous;
+
+        private Undo(int kind, JsonNode container, String field, int index, JsonNode previous) {
+            this.kind = kind;
+            this.container = container;
+            this.field = field;
+            this.index = index;
+            this.previous = previous;
+        }
+
+        static Undo arrayInsert(ArrayNode array, int index) {
+            return new Undo(ARRAY_INSERT, array, null, index, null);
+        }
+
+        static Undo arrayRemove(ArrayNode array, int index, JsonNode removed) {
+            return new Undo(ARRAY_REMOVE, array, null, index, removed);
+        }
+
+        static Undo arraySet(ArrayNode array, int index, JsonNode previous) {
+            return new Undo(ARRAY_SET, array, null, index, previous);
+        }
+
+        /**
+         * @param previous the value the field had, null if it was absent
+         */
+        static Undo objectSet(ObjectNode object, String field, JsonNode previous) {
+            return new Undo(OBJECT_SET, object, field, -1, previous);
+        }
+
+        static Undo documentReplace(JsonNode document, JsonNode previous) {
+            return new Undo(DOCUMENT_REPLACE, document, null, -1, previous);
+        }
+
+        void undo() {
+            switch (kind) {
+                case ARRAY_INSERT:
+                    ((ArrayNode) container).remove(index);
+                    break;
+                case ARRAY_REMOVE:
+                    ((ArrayNode) container).insert(index, previous);
+                    break;
+                case ARRAY_SET:
+                    ((ArrayNode) container).set(index, previous);
+                    break;
+                case OBJECT_SET:
+                    if (previous == null) {
+                        ((ObjectNode) container).remove(field);
+                    } else {
+                        ((ObjectNode) container).set(field, previous);
+                    }
+                    break;
+                case DOCUMENT_REPLACE:
+                    if (container.isArray()) {
+                        ((ArrayNode) container).removeAll();
+                        ((ArrayNode) container).addAll((ArrayNode) previous);
+                    } else {
+                        ((ObjectNode) container).removeAll();
+                        ((ObjectNode) container).setAll((ObjectNode) previous);
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.patch;
+
+import com.github.fge.jsonpatch.JsonPatchException;
+
+/**
+ * A <a href="https://tools.ietf.org/html/rfc6901">JSON Pointer</a> split into its unescaped reference tokens, with
+ * the tokens that can index an array already converted to integers.
+ */
+public final class PatchPointer {
+    /**
+     * Index of a token that is not an array index.
+     */
+    public static final int NOT_AN_INDEX = -1;
+
+    /**
+     * Index of the {@code -} token, which refers to the position after the last element of an array.
+     */
+    public static final int END_OF_ARRAY = -2;
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    private final String path;
+    private final String[] tokens;
+    private final int[] indices;
+
+    private PatchPointer(String path, String[] tokens, int[] indices) {
+        this.path = path;
+        this.tokens = tokens;
+        this.indices = indices;
+    }
+
+    /**
+     * @param path a pointer, {@code ""} for the whole document
+     * @throws JsonPatchException if the pointer is not empty and does not start with {@code /}, or has an invalid
+     *                            escape sequence
+     */
+    public static PatchPointer compile(String path) throws JsonPatchException {
+        if (path.isEmpty()) {
+            return new PatchPointer(path, NO_TOKENS, new int[0]);
+        }
+        if (path.charAt(0) != '/') {
+            throw new JsonPatchException("invalid JSON pointer: " + path);
+        }
+        int count = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                count++;
+            }
+        }
+        String[] tokens = new String[count];
+        int[] indices = new int[count];
+        int start = 1;
+        for (int i = 0; i < count; i++) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            String token = unescape(path, start, end);
+            tokens[i] = token;
+            indices[i] = toIndex(token);
+            start = end + 1;
+        }
+        return new PatchPointer(path, tokens, indices);
+    }
+
+    public boolean isRoot() {
+        return tokens.length == 0;
+    }
+
+    /**
+     * @return the number of reference tokens
+     */
+    public int size() {
+        return tokens.length;
+    }
+
+    public String getToken(int i) {
+        return tokens[i];
+    }
+
+    /**
+     * @return the array index of a token, {@link #NOT_AN_INDEX} or {@link #END_OF_ARRAY}
+     */
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /**
+     * @return whether the value this pointer refers to contains the value of the other pointer
+     */
+    public boolean isProperPrefixOf(PatchPointer other) {
+        if (tokens.length >= other.tokens.length) {
+            return false;
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            if (!tokens[i].equals(other.tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return this pointer with its last token replaced by an array index
+     */
+    PatchPointer withLastIndex(int index) {
+        int last = tokens.length - 1;
+        String[] newTokens = tokens.clone();
+        int[] newIndices = indices.clone();
+        newTokens[last] = Integer.toString(index);
+        newIndices[last] = index;
+        return new PatchPointer(path.substring(0, path.lastIndexOf('/') + 1) + index, newTokens, newIndices);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PatchPointer && path.equals(((PatchPointer) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    /**
+     * @return the pointer as it was compiled
+     */
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private static String unescape(String path, int start, int end) throws JsonPatchException {
+        int tilde = path.indexOf('~', start);
+        if (tilde == -1 || tilde >= end) {
+            return path.substring(start, end);
+        }
+        StringBuilder token = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c != '~') {
+                token.append(c);
+            } else if (i + 1 < end && path.charAt(i + 1) == '0') {
+                token.append('~');
+                i++;
+            } else if (i + 1 < end && path.charAt(i + 1) == '1') {
+                token.append('/');
+                i++;
+            } else {
+                throw new JsonPatchException("invalid escape sequence in JSON pointer: " + path);
+            }
+        }
+        return token.toString();
+    }
+
+    private static int toIndex(String token) {
+        if (token.equals("-")) {
+            return END_OF_ARRAY;
+        }
+        int length = token.length();
+        // no sign, no leading zero, and small enough to be an int
+        if (length == 0 || length > 9 || (length > 1 && token.charAt(0) == '0')) {
+            return NOT_AN_INDEX;
+        }
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INDEX;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+}
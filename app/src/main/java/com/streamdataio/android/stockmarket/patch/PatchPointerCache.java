@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.patch;
+
+import com.github.fge.jsonpatch.JsonPatchException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled {@link PatchPointer}s, evicting the least recently used one when full.
+ * <p/>
+ * A feed of patches addresses the same few paths over and over ({@code /12/price}, {@code /3/price}), so most
+ * pointers are compiled once and then looked up. Thread safe.
+ */
+public final class PatchPointerCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<String, PatchPointer> pointers;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public PatchPointerCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of pointers kept
+     */
+    public PatchPointerCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.pointers = new LinkedHashMap<String, PatchPointer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PatchPointer> eldest) {
+                if (size() > capacity) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the compiled pointer, from the cache if it was compiled before
+     * @throws JsonPatchException if the pointer is invalid
+     */
+    public synchronized PatchPointer get(String path) throws JsonPatchException {
+        PatchPointer pointer = pointers.get(path);
+        if (pointer != null) {
+            hitCount++;
+            return pointer;
+        }
+        missCount++;
+        pointer = PatchPointer.compile(path);
+        pointers.put(path, pointer);
+        return pointer;
+    }
+
+    public synchronized int size() {
+        return pointers.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of pointers compiled
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of pointers dropped to make room for others
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the share of lookups served from the cache, 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PatchPointerCache{size=" + pointers.size() + ", hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + '}';
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.patch;
+
+import java.util.Arrays;
+
+/**
+ * The rows of a list changed, inserted or removed by a sequence of patches and snapshots.
+ * <p/>
+ * Changes are kept in the order they were made, each row index being relative to the list as it was at that moment,
+ * so that they can be replayed on a copy of the list or on a view of it. Changing the same row twice between two
+ * insertions or removals is recorded once. Recording a change costs time in the size of the change, not of the list.
+ */
+public final class RowChanges {
+    public static final int CHANGED = 0;
+    public static final int INSERTED = 1;
+    public static final int REMOVED = 2;
+
+    private int[] kinds = new int[16];
+    private int[] rows = new int[16];
+    private int size;
+    // number of changes since the last insertion or removal
+    private int changedRun;
+    private boolean structural;
+
+    /**
+     * @param row index of a row whose content changed
+     */
+    public void changed(int row) {
+        for (int i = size - changedRun; i < size; i++) {
+            if (rows[i] == row) {
+                return;
+            }
+        }
+        add(CHANGED, row);
+        changedRun++;
+    }
+
+    /**
+     * @param row index the new row was given
+     */
+    public void inserted(int row) {
+        add(INSERTED, row);
+        changedRun = 0;
+        structural = true;
+    }
+
+    /**
+     * @param row index the row had before its removal
+     */
+    public void removed(int row) {
+        add(REMOVED, row);
+        changedRun = 0;
+        structural = true;
+    }
+
+    /**
+     * Records the change of a value of the list, given its path.
+     *
+     * @param kind {@link #CHANGED} if the value was replaced, {@link #INSERTED} if it was added, {@link #REMOVED}
+     *             if it was removed
+     */
+    public void record(int kind, PatchPointer path) {
+        if (path.isRoot()) {
+            replacedAll();
+            return;
+        }
+        int row = path.getIndex(0);
+        if (row < 0) {
+            return;
+        }
+        if (path.size() > 1 || kind == CHANGED) {
+            changed(row);
+        } else if (kind == INSERTED) {
+            inserted(row);
+        } else {
+            removed(row);
+        }
+    }
+
+    /**
+     * Records that the whole list was replaced, without knowing which rows changed.
+     */
+    public void replacedAll() {
+        changedRun = 0;
+        structural = true;
+    }
+
+    /**
+     * Records the changes of another instance after those of this one.
+     */
+    public void addAll(RowChanges other) {
+        for (int i = 0; i < other.size; i++) {
+            if (other.kinds[i] == CHANGED) {
+                changed(other.rows[i]);
+            } else {
+                add(other.kinds[i], other.rows[i]);
+                changedRun = 0;
+            }
+        }
+        structural |= other.structural;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && !structural;
+    }
+
+    /**
+     * @return whether rows were inserted or removed, which moves the rows after them
+     */
+    public boolean isStructural() {
+        return structural;
+    }
+
+    /**
+     * @return the number of changes recorded
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@link #CHANGED}, {@link #INSERTED} or {@link #REMOVED}
+     */
+    public int getKind(int i) {
+        return kinds[i];
+    }
+
+    public int getRow(int i) {
+        return rows[i];
+    }
+
+    public void clear() {
+        size = 0;
+        changedRun = 0;
+        structural = false;
+    }
+
+    private void add(int kind, int row) {
+        if (size == rows.length) {
+            kinds = Arrays.copyOf(kinds, size << 1);
+            rows = Arrays.copyOf(rows, size << 1);
+        }
+        kinds[size] = kind;
+        rows[size] = row;
+        size++;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(kinds[i] == CHANGED ? '~' : kinds[i] == INSERTED ? '+' : '-').append(rows[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
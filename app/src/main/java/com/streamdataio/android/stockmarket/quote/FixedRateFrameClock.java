@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FrameClock} whose frames start at multiples of a fixed period of {@link System#nanoTime()}, for running
+ * the UI pipeline without a display.
+ */
+public class FixedRateFrameClock implements FrameClock {
+    public static final long DEFAULT_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final ScheduledExecutorService executor;
+    private final long frameNanos;
+
+    /**
+     * @param executor runs the tasks; it must be single-threaded for the tasks to run one at a time
+     */
+    public FixedRateFrameClock(ScheduledExecutorService executor, long frameNanos) {
+        if (frameNanos <= 0) {
+            throw new IllegalArgumentException("frameNanos must be positive: " + frameNanos);
+        }
+        this.executor = executor;
+        this.frameNanos = frameNanos;
+    }
+
+    @Override
+    public void postFrame(Runnable task) {
+        long delay = frameNanos - System.nanoTime() % frameNanos;
+        executor.schedule(task, delay, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+/**
+ * Tells when the next frame starts, e.g. from the display vsync on Android or from a fixed rate timer on the JVM.
+ */
+public interface FrameClock {
+    /**
+     * Runs a task once, at the start of the next frame. Tasks run one at a time, on the thread of the clock.
+     * May be called from any thread.
+     */
+    void postFrame(Runnable task);
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.PatchPointer;
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tylerjroach.com.eventsource_android.EventTrace;
+
+/**
+ * Collects the snapshots and patches received during a frame and applies them to a {@link QuoteModel} once per
+ * frame, so that a busy feed costs one publication and one render per frame instead of one per message.
+ * <p/>
+ * At each frame, a snapshot drops the updates received before it, and replacements of the same path that are not
+ * separated by another kind of operation are squashed into the last one. The remaining operations are applied as a
+ * single patch; if it fails, the patches are applied one by one so that a bad patch only loses its own operations.
+ * The listener is then told once about the new version and the union of the rows changed. The version is published
+ * with the id of the last update applied.
+ * <p/>
+ * Updates submitted with an {@link EventTrace} are stamped {@link EventTrace.Stage#APPLIED} once their frame is
+ * applied and {@link EventTrace.Stage#RENDERED} once the listener has been told; traces of updates that were
+ * dropped or did not change any row are not stamped.
+ * <p/>
+ * Updates may be submitted from any thread. They are applied on the thread of the {@link FrameClock}, which is the
+ * only writer of the model.
+ */
+public final class PatchCoalescer {
+
+    /**
+     * Receives the result of each frame, on the thread of the clock.
+     */
+    public interface Listener {
+        /**
+         * @param version the version published at this frame, immutable
+         * @param changes the rows that differ from the previous version
+         */
+        void onRender(QuoteStore version, RowChanges changes);
+
+        /**
+         * @param patch a patch that did not apply, and left the quotes unchanged
+         */
+        void onPatchFailed(InPlaceJsonPatch patch, JsonPatchException e);
+    }
+
+    private final QuoteModel model;
+    private final FrameClock frameClock;
+    private final Listener listener;
+    private final Runnable frameTask = new Runnable() {
+        @Override
+        public void run() {
+            applyFrame();
+        }
+    };
+
+    // held while a frame is applied
+    private final Object frameLock = new Object();
+    // only used on the thread of the clock
+    private final QuotePatcher patcher = new QuotePatcher();
+    private final Set<PatchPointer> replacedPaths = new HashSet<PatchPointer>();
+    private List<InPlaceJsonPatch> applying = new ArrayList<InPlaceJsonPatch>();
+    private List<EventTrace> applyingTraces = new ArrayList<EventTrace>();
+
+    // guarded by this
+    private List<InPlaceJsonPatch> pendingPatches = new ArrayList<InPlaceJsonPatch>();
+    private List<EventTrace> pendingTraces = new ArrayList<EventTrace>();
+    private QuoteStore pendingSnapshot;
+    private String pendingLastEventId;
+    private boolean framePosted;
+    private long patchesReceived;
+    private long snapshotsReceived;
+    private long updatesDropped;
+    private long operationsSquashed;
+    private long rendersIssued;
+
+    public PatchCoalescer(QuoteModel model, FrameClock frameClock, Listener listener) {
+        this.model = model;
+        this.frameClock = frameClock;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a patch for the next frame.
+     *
+     * @param lastEventId id of the event carrying the patch
+     */
+    public void submit(InPlaceJsonPatch patch, String lastEventId) {
+        submit(patch, lastEventId, null);
+    }
+
+    /**
+     * Queues a patch for the next frame.
+     *
+     * @param lastEventId id of the event carrying the patch
+     * @param trace       latency stamps of the event, or null
+     */
+    public synchronized void submit(InPlaceJsonPatch patch, String lastEventId, EventTrace trace) {
+        patchesReceived++;
+        pendingPatches.add(patch);
+        if (trace != null) {
+            pendingTraces.add(trace);
+        }
+        pendingLastEventId = lastEventId;
+        postFrame();
+    }
+
+    /**
+     * Queues a snapshot for the next frame, in place of the updates queued so far.
+     *
+     * @param snapshot the quotes of the snapshot; the coalescer reads it until the next frame, so it must not be
+     *                 changed after this call
+     * @param lastEventId id of the event carrying the snapshot
+     */
+    public void submitSnapshot(QuoteStore snapshot, String lastEventId) {
+        submitSnapshot(snapshot, lastEventId, null);
+    }
+
+    /**
+     * Queues a snapshot for the next frame, in place of the updates queued so far.
+     *
+     * @param snapshot    the quotes of the snapshot; the coalescer reads it until the next frame, so it must not be
+     *                    changed after this call
+     * @param lastEventId id of the event carrying the snapshot
+     * @param trace       latency stamps of the event, or null
+     */
+    public synchronized void submitSnapshot(QuoteStore snapshot, String lastEventId, EventTrace trace) {
+        snapshotsReceived++;
+        updatesDropped += pendingPatches.size() + (pendingSnapshot != null ? 1 : 0);
+        pendingPatches.clear();
+        pendingTraces.clear();
+        if (trace != null) {
+            pendingTraces.add(trace);
+        }
+        pendingSnapshot = snapshot;
+        pendingLastEventId = lastEventId;
+        postFrame();
+    }
+
+    private void postFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            frameClock.postFrame(frameTask);
+        }
+    }
+
+    /**
+     * Drops the updates not applied yet, e.g. when the stream they came from is closed, and waits for the frame being
+     * applied, if any. Afterwards the id of the model is that of the last update applied, and stays so until the next
+     * update is submitted.
+     */
+    public void discardPending() {
+        synchronized (frameLock) {
+            synchronized (this) {
+                updatesDropped += pendingPatches.size() + (pendingSnapshot != null ? 1 : 0);
+                pendingPatches.clear();
+                pendingTraces.clear();
+                pendingSnapshot = null;
+                // a frame still posted must not publish the id of a dropped update
+                pendingLastEventId = model.getLastEventId();
+            }
+        }
+    }
+
+    private void applyFrame() {
+        synchronized (frameLock) {
+            applyFrameLocked();
+        }
+    }
+
+    private void applyFrameLocked() {
+        QuoteStore snapshot;
+        List<InPlaceJsonPatch> patches;
+        List<EventTrace> traces;
+        String lastEventId;
+        synchronized (this) {
+            framePosted = false;
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            // swap the lists: the patches of the next frame are queued while these are applied
+            patches = pendingPatches;
+            pendingPatches = applying;
+            applying = patches;
+            traces = pendingTraces;
+            pendingTraces = applyingTraces;
+            applyingTraces = traces;
+            lastEventId = pendingLastEventId;
+        }
+
+        RowChanges changes = new RowChanges();
+        QuoteStore quotes = model.edit();
+        if (snapshot != null) {
+            quotes.replaceWith(snapshot, changes);
+        }
+        if (!patches.isEmpty()) {
+            applyPatches(patches, quotes, changes);
+            patches.clear();
+        }
+        if (changes.isEmpty()) {
+            if (!equals(lastEventId, model.getLastEventId())) {
+                // nothing to render, but the quotes are now up to date with a later event
+                model.publish(lastEventId);
+            }
+            traces.clear();
+            return;
+        }
+        QuoteStore version = model.publish(lastEventId);
+        stamp(traces, EventTrace.Stage.APPLIED);
+        synchronized (this) {
+            rendersIssued++;
+        }
+        listener.onRender(version, changes);
+        stamp(traces, EventTrace.Stage.RENDERED);
+        traces.clear();
+    }
+
+    private static void stamp(List<EventTrace> traces, EventTrace.Stage stage) {
+        if (traces.isEmpty()) {
+            return;
+        }
+        // the updates of a frame reach each stage together
+        long now = System.nanoTime();
+        for (int i = 0; i < traces.size(); i++) {
+            traces.get(i).stamp(stage, now);
+        }
+    }
+
+    private void applyPatches(List<InPlaceJsonPatch> patches, QuoteStore quotes, RowChanges changes) {
+        if (patches.size() > 1) {
+            try {
+                patcher.apply(squash(patches), quotes, changes);
+                return;
+            } catch (JsonPatchException e) {
+                // the quotes are left as they were: find the patches at fault
+            }
+        }
+        for (int i = 0; i < patches.size(); i++) {
+            try {
+                patcher.apply(patches.get(i), quotes, changes);
+            } catch (JsonPatchException e) {
+                listener.onPatchFailed(patches.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * @return the operations of the patches in order, without the replacements overwritten by a later replacement
+     * of the same path before any other kind of operation
+     */
+    private InPlaceJsonPatch squash(List<InPlaceJsonPatch> patches) {
+        List<InPlaceJsonPatch.Operation> squashed = new ArrayList<InPlaceJsonPatch.Operation>();
+        int dropped = 0;
+        // walk backwards, so the first replacement of a path met is the one that wins
+        for (int i = patches.size() - 1; i >= 0; i--) {
+            List<InPlaceJsonPatch.Operation> operations = patches.get(i).getOperations();
+            for (int j = operations.size() - 1; j >= 0; j--) {
+                InPlaceJsonPatch.Operation operation = operations.get(j);
+                if (operation.getType() != InPlaceJsonPatch.Operation.Type.REPLACE) {
+                    // other operations move rows or read values: replacements on either side of them are kept
+                    replacedPaths.clear();
+                    squashed.add(operation);
+                } else if (replacedPaths.add(operation.getPath())) {
+                    squashed.add(operation);
+                } else {
+                    dropped++;
+                }
+            }
+        }
+        replacedPaths.clear();
+        Collections.reverse(squashed);
+        synchronized (this) {
+            operationsSquashed += dropped;
+        }
+        return new InPlaceJsonPatch(squashed);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public synchronized long getPatchesReceived() {
+        return patchesReceived;
+    }
+
+    public synchronized long getSnapshotsReceived() {
+        return snapshotsReceived;
+    }
+
+    /**
+     * @return the number of patches and snapshots replaced by a later snapshot or discarded before being applied
+     */
+    public synchronized long getUpdatesDropped() {
+        return updatesDropped;
+    }
+
+    /**
+     * @return the number of replacements not applied because a later one replaced the same path
+     */
+    public synchronized long getOperationsSquashed() {
+        return operationsSquashed;
+    }
+
+    /**
+     * @return the number of versions published, each of which the listener was told about once
+     */
+    public synchronized long getRendersIssued() {
+        return rendersIssued;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PatchCoalescer{patches=" + patchesReceived + ", snapshots=" + snapshotsReceived + ", dropped="
+                + updatesDropped + ", squashed=" + operationsSquashed + ", renders=" + rendersIssued + '}';
+    }
+}
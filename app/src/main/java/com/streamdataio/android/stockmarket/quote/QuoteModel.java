@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the quotes over from the thread updating them to the threads reading them.
+ * <p/>
+ * The writer changes a private {@link QuoteStore}, returned by {@link #edit()}, then publishes it: a frozen version
+ * of the store, which shares the rows the writer has not changed since the previous version, replaces the
+ * published one with a single reference swap. Readers get the latest version without locking and never see a
+ * version change while they read it.
+ * <p/>
+ * Each version is published with the id of the last event applied to it, so that a stream can be resumed from a
+ * saved version.
+ */
+public final class QuoteModel {
+    private final QuoteStore working = new QuoteStore();
+    private final AtomicReference<Version> published = new AtomicReference<Version>(new Version(working.freeze(), null));
+
+    /**
+     * @return the store to change; only the writer thread may call this
+     */
+    public QuoteStore edit() {
+        return working;
+    }
+
+    /**
+     * Publishes the changes made to the store since the previous call, with the id of the previous version. Only
+     * the writer thread may call this.
+     *
+     * @return the version published
+     */
+    public QuoteStore publish() {
+        return publish(published.get().lastEventId);
+    }
+
+    /**
+     * Publishes the changes made to the store since the previous call. Only the writer thread may call this.
+     *
+     * @param lastEventId id of the last event applied to the store, null if the events have no id
+     * @return the version published
+     */
+    public QuoteStore publish(String lastEventId) {
+        QuoteStore version = working.freeze();
+        published.set(new Version(version, lastEventId));
+        return version;
+    }
+
+    /**
+     * @return the latest version published, immutable
+     */
+    public QuoteStore get() {
+        return published.get().quotes;
+    }
+
+    /**
+     * @return the id of the last event applied to the latest version, null if none is known
+     */
+    public String getLastEventId() {
+        return published.get().lastEventId;
+    }
+
+    /**
+     * @return the latest version and its id, read together
+     */
+    Version getVersion() {
+        return published.get();
+    }
+
+    static final class Version {
+        final QuoteStore quotes;
+        final String lastEventId;
+
+        Version(QuoteStore quotes, String lastEventId) {
+            this.quotes = quotes;
+            this.lastEventId = lastEventId;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.PatchPointer;
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies the operations of a {@link InPlaceJsonPatch} to a {@link QuoteStore}, as if the store were the array of
+ * quotes of the snapshots.
+ * <p/>
+ * Operations on whole rows and on the {@code title} and {@code price} of a row change the store. Prices follow the
+ * same rule as in snapshots, see {@link QuoteSnapshotDecoder#setPrice(QuoteStore, int, char[], int, int)}. The store
+ * does not keep the other fields of the quotes, so operations on them are accepted and ignored, as are tests of
+ * them. Like {@link InPlaceJsonPatch#apply(JsonNode)}, a failing operation undoes those already applied.
+ * <p/>
+ * Not thread safe: a patcher reuses its undo log from one patch to the next.
+ */
+public final class QuotePatcher {
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int SET = 2;
+    private static final int REPLACED_ALL = 3;
+
+    // undo log: the kind of each change, the row it changed, and the row of saved holding what the row was
+    private int[] undoKinds = new int[16];
+    private int[] undoRows = new int[16];
+    private int[] undoSavedRows = new int[16];
+    private int undoSize;
+    private QuoteStore saved = new QuoteStore();
+    private QuoteStore savedAll;
+
+    private final RowChanges pending = new RowChanges();
+    // one row, holding the price a test operation compares with
+    private final QuoteStore tested = new QuoteStore();
+
+    /**
+     * @param changes receives the rows changed, inserted or removed, unless the patch fails
+     * @throws JsonPatchException if an operation does not apply, in which case the store is left unchanged
+     */
+    public void apply(InPlaceJsonPatch patch, QuoteStore store, RowChanges changes) throws JsonPatchException {
+        List<InPlaceJsonPatch.Operation> operations = patch.getOperations();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                apply(operations.get(i), store);
+            }
+            changes.addAll(pending);
+        } catch (JsonPatchException e) {
+            undo(store);
+            throw e;
+        } finally {
+            undoSize = 0;
+            saved.clear();
+            savedAll = null;
+            pending.clear();
+        }
+    }
+
+    private void apply(InPlaceJsonPatch.Operation operation, QuoteStore store) throws JsonPatchException {
+        PatchPointer path = operation.getPath();
+        PatchPointer from = operation.getFrom();
+        JsonNode value = operation.getValue();
+        switch (operation.getType()) {
+            case ADD:
+                if (path.size() == 1) {
+                    int row = insertRow(store, path);
+                    setRow(store, row, value);
+                } else {
+                    replace(store, path, value);
+                }
+                break;
+            case REMOVE:
+                if (path.size() == 1) {
+                    removeRow(store, existingRow(store, path));
+                } else if (path.size() == 2) {
+                    setField(store, existingRow(store, path), path.getToken(1), null);
+                } else if (path.isRoot()) {
+                    throw new JsonPatchException("cannot remove the whole document");
+                } else {
+                    existingRow(store, path);
+                }
+                break;
+            case REPLACE:
+                replace(store, path, value);
+                break;
+            case MOVE:
+            case COPY:
+                if (from.isProperPrefixOf(path)) {
+                    throw new JsonPatchException("cannot move or copy " + from + " into one of its children: " + path);
+                }
+                boolean move = operation.getType() == InPlaceJsonPatch.Operation.Type.MOVE;
+                if (from.size() == 1 && path.size() == 1) {
+                    int fromRow = existingRow(store, from);
+                    int savedRow = saved.addRow();
+                    saved.copyRow(store, fromRow, savedRow);
+                    if (move) {
+                        removeRow(store, fromRow);
+                    }
+                    store.copyRow(saved, savedRow, insertRow(store, path));
+                } else if (from.size() == 2 && path.size() == 2 && isKept(from.getToken(1))
+                        && from.getToken(1).equals(path.getToken(1))) {
+                    int fromRow = existingRow(store, from);
+                    int row = existingRow(store, path);
+                    if (fromRow != row) {
+                        save(store, row, SET);
+                        if (path.getToken(1).equals(QuoteSnapshotDecoder.TITLE)) {
+                            store.setTitle(row, store.getTitle(fromRow));
+                        } else {
+                            store.setPrice(row, store.getUnscaledPrice(fromRow), store.getPriceScale(fromRow));
+                        }
+                        pending.changed(row);
+                        if (move) {
+                            setField(store, fromRow, from.getToken(1), null);
+                        }
+                    }
+                } else if (from.size() > 1 && path.size() > 1 && !isKeptField(from) && !isKeptField(path)) {
+                    // between fields that are not kept
+                    existingRow(store, from);
+                    existingRow(store, path);
+                } else {
+                    throw new JsonPatchException("unsupported " + operation.getType() + " from " + from + " to "
+                            + path);
+                }
+                break;
+            case TEST:
+                if (!matches(store, path, value)) {
+                    throw new JsonPatchException("value at " + path + " differs from " + value);
+                }
+                break;
+        }
+    }
+
+    private void replace(QuoteStore store, PatchPointer path, JsonNode value) throws JsonPatchException {
+        if (path.isRoot()) {
+            replaceAll(store, value);
+        } else if (path.size() == 1) {
+            int row = existingRow(store, path);
+            save(store, row, SET);
+            setRow(store, row, value);
+            pending.changed(row);
+        } else if (path.size() == 2) {
+            setField(store, existingRow(store, path), path.getToken(1), value);
+        } else {
+            existingRow(store, path);
+        }
+    }
+
+    private void replaceAll(QuoteStore store, JsonNode value) throws JsonPatchException {
+        if (!value.isArray()) {
+            throw new JsonPatchException("cannot replace the quotes with a " + value.getNodeType());
+        }
+        if (savedAll == null) {
+            savedAll = store.copy();
+            addUndo(REPLACED_ALL, -1, -1);
+        }
+        store.clear();
+        for (JsonNode row : value) {
+            setRow(store, store.addRow(), row);
+        }
+        pending.replacedAll();
+    }
+
+    /**
+     * Sets the title and price of a row, which has been saved, from a quote.
+     */
+    private static void setRow(QuoteStore store, int row, JsonNode quote) throws JsonPatchException {
+        if (!quote.isObject()) {
+            throw new JsonPatchException("a quote must be an object: " + quote);
+        }
+        store.setTitle(row, title(quote.get(QuoteSnapshotDecoder.TITLE)));
+        setPrice(store, row, quote.get(QuoteSnapshotDecoder.PRICE));
+    }
+
+    /**
+     * @param value the new value of the field, null to remove it
+     */
+    private void setField(QuoteStore store, int row, String field, JsonNode value) throws JsonPatchException {
+        if (field.equals(QuoteSnapshotDecoder.TITLE)) {
+            save(store, row, SET);
+            store.setTitle(row, title(value));
+            pending.changed(row);
+        } else if (field.equals(QuoteSnapshotDecoder.PRICE)) {
+            save(store, row, SET);
+            setPrice(store, row, value);
+            pending.changed(row);
+        }
+    }
+
+    private boolean matches(QuoteStore store, PatchPointer path, JsonNode value) throws JsonPatchException {
+        if (path.isRoot()) {
+            if (!value.isArray() || value.size() != store.size()) {
+                return false;
+            }
+            for (int row = 0; row < store.size(); row++) {
+                if (!rowMatches(store, row, value.get(row))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int row = existingRow(store, path);
+        if (path.size() == 1) {
+            return rowMatches(store, row, value);
+        }
+        return path.size() > 2 || fieldMatches(store, row, path.getToken(1), value);
+    }
+
+    private boolean rowMatches(QuoteStore store, int row, JsonNode quote) {
+        return quote.isObject()
+                && fieldMatches(store, row, QuoteSnapshotDecoder.TITLE, quote.get(QuoteSnapshotDecoder.TITLE))
+                && fieldMatches(store, row, QuoteSnapshotDecoder.PRICE, quote.get(QuoteSnapshotDecoder.PRICE));
+    }
+
+    private boolean fieldMatches(QuoteStore store, int row, String field, JsonNode value) {
+        if (field.equals(QuoteSnapshotDecoder.TITLE)) {
+            String title = store.getTitle(row);
+            return title == null ? value == null : title.equals(title(value));
+        } else if (field.equals(QuoteSnapshotDecoder.PRICE)) {
+            if (tested.size() == 0) {
+                tested.addRow();
+            }
+            setPrice(tested, 0, value);
+            if (!store.hasPrice(row) || !tested.hasPrice(0)) {
+                return store.hasPrice(row) == tested.hasPrice(0);
+            }
+            return BigDecimal.valueOf(store.getUnscaledPrice(row), store.getPriceScale(row))
+                    .compareTo(BigDecimal.valueOf(tested.getUnscaledPrice(0), tested.getPriceScale(0))) == 0;
+        }
+        // not kept
+        return true;
+    }
+
+    private static String title(JsonNode value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        return value.isTextual() ? value.textValue() : value.toString();
+    }
+
+    /**
+     * @param value the price, null to clear it
+     */
+    private static void setPrice(QuoteStore store, int row, JsonNode value) {
+        if (value != null && (value.isNumber() || value.isTextual())) {
+            char[] text = value.asText().toCharArray();
+            QuoteSnapshotDecoder.setPrice(store, row, text, 0, text.length);
+        } else {
+            store.setPrice(row, null);
+        }
+    }
+
+    private static boolean isKept(String field) {
+        return field.equals(QuoteSnapshotDecoder.TITLE) || field.equals(QuoteSnapshotDecoder.PRICE);
+    }
+
+    /**
+     * @return whether the path is the title or price of a row
+     */
+    private static boolean isKeptField(PatchPointer path) {
+        return path.size() == 2 && isKept(path.getToken(1));
+    }
+
+    /**
+     * @return the new row, empty
+     */
+    private int insertRow(QuoteStore store, PatchPointer path) throws JsonPatchException {
+        int row = path.getIndex(0);
+        if (row == PatchPointer.END_OF_ARRAY) {
+            row = store.size();
+        }
+        if (row < 0 || row > store.size()) {
+            throw new JsonPatchException("no such row: " + path);
+        }
+        store.insertRow(row);
+        addUndo(INSERTED, row, -1);
+        pending.inserted(row);
+        return row;
+    }
+
+    private void removeRow(QuoteStore store, int row) {
+        save(store, row, REMOVED);
+        store.removeRow(row);
+        pending.removed(row);
+    }
+
+    private static int existingRow(QuoteStore store, PatchPointer path) throws JsonPatchException {
+        int row = path.getIndex(0);
+        if (row < 0 || row >= store.size()) {
+            throw new JsonPatchException("no such row: " + path);
+        }
+        return row;
+    }
+
+    private void save(QuoteStore store, int row, int kind) {
+        int savedRow = saved.addRow();
+        saved.copyRow(store, row, savedRow);
+        addUndo(kind, row, savedRow);
+    }
+
+    private void addUndo(int kind, int row, int savedRow) {
+        if (undoSize == undoKinds.length) {
+            undoKinds = Arrays.copyOf(undoKinds, undoSize << 1);
+            undoRows = Arrays.copyOf(undoRows, undoSize << 1);
+            undoSavedRows = Arrays.copyOf(undoSavedRows, undoSize << 1);
+        }
+        undoKinds[undoSize] = kind;
+        undoRows[undoSize] = row;
+        undoSavedRows[undoSize] = savedRow;
+        undoSize++;
+    }
+
+    private void undo(QuoteStore store) {
+        int last = undoSize - 1;
+        if (savedAll != null) {
+            // the changes made after the first replacement of all the rows are undone by restoring them
+            last = 0;
+            while (undoKinds[last] != REPLACED_ALL) {
+                last++;
+            }
+            store.replaceWith(savedAll, new RowChanges());
+            last--;
+        }
+        for (int i = last; i >= 0; i--) {
+            int row = undoRows[i];
+            switch (undoKinds[i]) {
+                case INSERTED:
+                    store.removeRow(row);
+                    break;
+                case REMOVED:
+                    store.insertRow(row);
+                    store.copyRow(saved, undoSavedRows[i], row);
+                    break;
+                case SET:
+                    store.copyRow(saved, undoSavedRows[i], row);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Decodes a snapshot, an array of {@code {"title": ..., "price": ...}} objects, into a {@link QuoteStore} with a
+ * streaming parser, without building a tree of the snapshot.
+ * <p/>
+ * Titles are interned across snapshots, so the titles of a snapshot listing the same quotes as the previous one
+ * are not allocated again, and prices are read from the characters of the number. A price may also be a string
+ * holding a number; see {@link #setPrice(QuoteStore, int, char[], int, int)}. Other fields are skipped.
+ * <p/>
+ * Not thread safe: a decoder keeps the titles it has seen.
+ */
+public final class QuoteSnapshotDecoder {
+    public static final String TITLE = "title";
+    public static final String PRICE = "price";
+
+    private final JsonFactory jsonFactory;
+    private final StringInterner titles = new StringInterner();
+
+    public QuoteSnapshotDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * @return a new store holding the quotes of the snapshot
+     * @throws IOException if the snapshot is not an array of objects
+     */
+    public QuoteStore decode(String snapshot) throws IOException {
+        QuoteStore store = new QuoteStore();
+        decode(snapshot, store);
+        return store;
+    }
+
+    /**
+     * @param snapshot the UTF-8 bytes of the snapshot, parsed without decoding them to a String first
+     * @return a new store holding the quotes of the snapshot
+     * @throws IOException if the snapshot is not an array of objects
+     */
+    public QuoteStore decode(byte[] snapshot) throws IOException {
+        QuoteStore store = new QuoteStore();
+        JsonParser parser = jsonFactory.createParser(snapshot);
+        try {
+            decode(parser, store);
+        } finally {
+            parser.close();
+        }
+        return store;
+    }
+
+    /**
+     * Adds the quotes of the snapshot to the store.
+     *
+     * @throws IOException if the snapshot is not an array of objects
+     */
+    public void decode(String snapshot, QuoteStore store) throws IOException {
+        JsonParser parser = jsonFactory.createParser(snapshot);
+        try {
+            decode(parser, store);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Adds the quotes of the array the parser is at to the store.
+     */
+    public void decode(JsonParser parser, QuoteStore store) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException("snapshot is not an array", parser.getCurrentLocation());
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            int row = store.addRow();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // field names are canonicalized by the parser, no String is built for them
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals(TITLE) && value == JsonToken.VALUE_STRING) {
+                    store.setTitle(row, intern(parser));
+                } else if (field.equals(PRICE) && (value.isNumeric() || value == JsonToken.VALUE_STRING)) {
+                    setPrice(store, row, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new JsonParseException("snapshot row is not an object", parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Sets the price of a row from the text of a JSON number or string. Snapshots and patches, see
+     * {@link QuotePatcher}, both follow this rule, so a quote has the same price whichever of them set it: a number,
+     * or a string holding one such as {@code "12.50"}, is the price. Any other text, or a price out of the range of
+     * the store, leaves the row without a price.
+     */
+    static void setPrice(QuoteStore store, int row, char[] text, int offset, int length) {
+        try {
+            store.setPrice(row, text, offset, length);
+        } catch (NumberFormatException e) {
+            store.setPrice(row, null);
+        } catch (ArithmeticException e) {
+            store.setPrice(row, null);
+        }
+    }
+
+    /**
+     * @return the String of the current value of the parser, looked up by its characters
+     */
+    public String intern(JsonParser parser) throws IOException {
+        return titles.intern(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the quotes of a {@link QuoteModel} with the id of the last event applied to them, and loads them back, so
+ * that the quotes can be shown as soon as the application starts and the stream resumed from that id.
+ * <p/>
+ * The file holds a {@link #MAGIC} int and a {@link #VERSION} byte, the last event id, the number of rows and then
+ * each row: a byte with the scale of the price + 1 (0 for no price) and the presence of a title in its high bit,
+ * the title, and the unscaled price as a zigzag varint. A CRC32 of the rest ends the file. Saving writes a
+ * temporary file first and renames it, so a crash never leaves half a snapshot behind.
+ */
+public final class QuoteSnapshotFile {
+    public static final int MAGIC = 0x51534e50;
+    public static final int VERSION = 1;
+
+    private static final int HAS_TITLE = 0x80;
+
+    private final File file;
+
+    public QuoteSnapshotFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Saves the latest version published by the model, and the id of the last event applied to it. May be called
+     * from any thread.
+     */
+    public void save(QuoteModel model) throws IOException {
+        QuoteModel.Version version = model.getVersion();
+        QuoteStore quotes = version.quotes;
+        File temporary = new File(file.getPath() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeBoolean(version.lastEventId != null);
+            if (version.lastEventId != null) {
+                out.writeUTF(version.lastEventId);
+            }
+            out.writeInt(quotes.size());
+            for (int row = 0; row < quotes.size(); row++) {
+                String title = quotes.getTitle(row);
+                int scale = quotes.getPriceScale(row);
+                out.writeByte((scale + 1) | (title != null ? HAS_TITLE : 0));
+                if (title != null) {
+                    out.writeUTF(title);
+                }
+                if (scale != QuoteStore.NO_PRICE) {
+                    writeVarLong(out, quotes.getUnscaledPrice(row));
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    /**
+     * Replaces the quotes of the model with the saved ones, and publishes them with the saved event id. Only the
+     * writer thread of the model may call this, typically before the stream starts.
+     *
+     * @param changes receives the rows changed
+     * @return false if nothing was saved
+     * @throws IOException if the file cannot be read or is corrupt, in which case the model is left unchanged
+     */
+    public boolean load(QuoteModel model, RowChanges changes) throws IOException {
+        CheckedInputStream checked;
+        try {
+            checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(checked);
+        QuoteStore quotes = new QuoteStore();
+        String lastEventId;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a quote snapshot: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("unsupported quote snapshot version " + version + ": " + file);
+            }
+            lastEventId = in.readBoolean() ? in.readUTF() : null;
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("corrupt quote snapshot: " + file);
+            }
+            for (int i = 0; i < size; i++) {
+                int row = quotes.addRow();
+                int header = in.readUnsignedByte();
+                if ((header & HAS_TITLE) != 0) {
+                    quotes.setTitle(row, in.readUTF());
+                }
+                int scale = (header & ~HAS_TITLE) - 1;
+                if (scale > QuoteStore.MAX_SCALE) {
+                    throw new IOException("corrupt quote snapshot: " + file);
+                }
+                if (scale != QuoteStore.NO_PRICE) {
+                    quotes.setPrice(row, readVarLong(in), scale);
+                }
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("corrupt quote snapshot: " + file);
+            }
+        } finally {
+            in.close();
+        }
+        model.edit().replaceWith(quotes, changes);
+        model.publish(lastEventId);
+        return true;
+    }
+
+    /**
+     * Deletes the saved quotes, e.g. when they cannot be loaded.
+     */
+    public void delete() {
+        file.delete();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.writeByte((int) (zigzag & 0x7f) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("corrupt price");
+    }
+}
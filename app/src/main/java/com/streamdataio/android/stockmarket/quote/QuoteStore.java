@@ -0,0 +1,481 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The quotes displayed by the list, one row per quote, stored column by column.
+ * <p/>
+ * Titles are shared Strings, interned by the {@link QuoteSnapshotDecoder}, and prices are fixed-point decimals kept
+ * as an unscaled {@code long} and a scale, so a row costs a few bytes of primitive arrays instead of a tree of
+ * {@link com.fasterxml.jackson.databind.JsonNode}s, and a price is written to a view without building a String.
+ * <p/>
+ * Columns are split in chunks of {@value #CHUNK_SIZE} rows. {@link #freeze()} returns an immutable version of the
+ * store that shares its chunks; the store copies a shared chunk the first time it writes to it, so changing a price
+ * after a freeze copies {@value #CHUNK_SIZE} rows and the list of chunks, not the whole store. Inserting or removing
+ * a row moves, and so copies, the chunks after it.
+ * <p/>
+ * A store is not thread safe, but a frozen version can be read by any number of threads.
+ */
+public final class QuoteStore {
+    /**
+     * Scale of a row without a price.
+     */
+    public static final int NO_PRICE = -1;
+
+    /**
+     * Largest number of decimals kept; prices with more are rounded.
+     */
+    public static final int MAX_SCALE = 18;
+
+    /**
+     * Size of a buffer large enough for any price formatted by {@link #formatPrice(int, char[])}.
+     */
+    public static final int PRICE_TEXT_CAPACITY = 42;
+
+    public static final int CHUNK_SIZE = 32;
+
+    private static final int CHUNK_SHIFT = 5;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+    private Chunk[] chunks = NO_CHUNKS;
+    private int size;
+    // chunks owned by another token are shared with a frozen version
+    private Object owner = new Object();
+    private boolean chunksShared;
+    private final boolean frozen;
+
+    private final Map<String, Integer> rowsByTitle = new HashMap<String, Integer>();
+    private boolean indexStale;
+
+    public QuoteStore() {
+        this.frozen = false;
+    }
+
+    private QuoteStore(QuoteStore store) {
+        this.chunks = store.chunks;
+        this.size = store.size;
+        this.owner = null;
+        this.frozen = true;
+        this.indexStale = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the title of the row, null if it has none
+     */
+    public String getTitle(int row) {
+        checkRow(row);
+        return chunks[row >> CHUNK_SHIFT].titles[row & CHUNK_MASK];
+    }
+
+    public boolean hasPrice(int row) {
+        checkRow(row);
+        return chunks[row >> CHUNK_SHIFT].scales[row & CHUNK_MASK] != NO_PRICE;
+    }
+
+    /**
+     * @return the price of the row as an unscaled value, see {@link #getPriceScale(int)}
+     */
+    public long getUnscaledPrice(int row) {
+        checkRow(row);
+        return chunks[row >> CHUNK_SHIFT].prices[row & CHUNK_MASK];
+    }
+
+    /**
+     * @return the number of decimals of the price of the row, or {@link #NO_PRICE}
+     */
+    public int getPriceScale(int row) {
+        checkRow(row);
+        return chunks[row >> CHUNK_SHIFT].scales[row & CHUNK_MASK];
+    }
+
+    /**
+     * @return the price of the row, NaN if it has none
+     */
+    public double getPrice(int row) {
+        int scale = getPriceScale(row);
+        if (scale == NO_PRICE) {
+            return Double.NaN;
+        }
+        return BigDecimal.valueOf(getUnscaledPrice(row), scale).doubleValue();
+    }
+
+    /**
+     * Writes the price of a row in decimal notation, with the decimals it was received with.
+     *
+     * @param buffer at least {@link #PRICE_TEXT_CAPACITY} chars
+     * @return the number of chars written, 0 if the row has no price
+     */
+    public int formatPrice(int row, char[] buffer) {
+        int scale = getPriceScale(row);
+        if (scale == NO_PRICE) {
+            return 0;
+        }
+        long value = getUnscaledPrice(row);
+        boolean negative = value < 0;
+        // digits are written backwards from the end of the buffer, then moved to its start
+        int position = buffer.length;
+        int digits = 0;
+        do {
+            int digit = (int) (value % 10);
+            buffer[--position] = (char) ('0' + (negative ? -digit : digit));
+            value /= 10;
+            digits++;
+            if (digits == scale) {
+                buffer[--position] = '.';
+                if (value == 0) {
+                    buffer[--position] = '0';
+                }
+            }
+        } while (value != 0 || digits < scale);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        int length = buffer.length - position;
+        System.arraycopy(buffer, position, buffer, 0, length);
+        return length;
+    }
+
+    /**
+     * @return the first row with the title, or -1
+     */
+    public int indexOf(String title) {
+        // a frozen version may be shared by several readers
+        synchronized (rowsByTitle) {
+            if (indexStale) {
+                rowsByTitle.clear();
+                for (int row = size - 1; row >= 0; row--) {
+                    String rowTitle = getTitle(row);
+                    if (rowTitle != null) {
+                        rowsByTitle.put(rowTitle, row);
+                    }
+                }
+                indexStale = false;
+            }
+            Integer row = rowsByTitle.get(title);
+            return row != null ? row : -1;
+        }
+    }
+
+    /**
+     * Adds a row without a title or price at the end of the store.
+     *
+     * @return the index of the row
+     */
+    public int addRow() {
+        insertRow(size);
+        return size - 1;
+    }
+
+    /**
+     * Inserts a row without a title or price, moving the rows from this index on by one.
+     */
+    public void insertRow(int row) {
+        checkWritable();
+        if (row < 0 || row > size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+        if (size == chunks.length << CHUNK_SHIFT) {
+            Chunk[] grown = new Chunk[Math.max(1, chunks.length << 1)];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            for (int c = chunks.length; c < grown.length; c++) {
+                grown[c] = new Chunk(owner);
+            }
+            chunks = grown;
+            chunksShared = false;
+        }
+        size++;
+        for (int i = size - 1; i > row; i--) {
+            moveRow(i - 1, i);
+        }
+        Chunk chunk = writableChunk(row);
+        int offset = row & CHUNK_MASK;
+        chunk.titles[offset] = null;
+        chunk.prices[offset] = 0;
+        chunk.scales[offset] = NO_PRICE;
+        indexStale = true;
+    }
+
+    public void removeRow(int row) {
+        checkWritable();
+        checkRow(row);
+        for (int i = row + 1; i < size; i++) {
+            moveRow(i, i - 1);
+        }
+        size--;
+        writableChunk(size).titles[size & CHUNK_MASK] = null;
+        indexStale = true;
+    }
+
+    public void setTitle(int row, String title) {
+        checkWritable();
+        checkRow(row);
+        writableChunk(row).titles[row & CHUNK_MASK] = title;
+        indexStale = true;
+    }
+
+    /**
+     * @param scale number of decimals of the unscaled value, or {@link #NO_PRICE} to clear the price
+     */
+    public void setPrice(int row, long unscaledPrice, int scale) {
+        checkWritable();
+        checkRow(row);
+        if (scale < NO_PRICE || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("scale " + scale);
+        }
+        Chunk chunk = writableChunk(row);
+        chunk.prices[row & CHUNK_MASK] = scale == NO_PRICE ? 0 : unscaledPrice;
+        chunk.scales[row & CHUNK_MASK] = (byte) scale;
+    }
+
+    /**
+     * @param price a decimal, null to clear the price
+     * @throws ArithmeticException if the price has too many digits
+     */
+    public void setPrice(int row, BigDecimal price) {
+        if (price == null) {
+            setPrice(row, 0, NO_PRICE);
+            return;
+        }
+        if (price.scale() < 0) {
+            price = price.setScale(0);
+        } else if (price.scale() > MAX_SCALE) {
+            price = price.setScale(MAX_SCALE, RoundingMode.HALF_EVEN);
+        }
+        if (price.unscaledValue().bitLength() > 63) {
+            throw new ArithmeticException("price out of range: " + price);
+        }
+        setPrice(row, price.unscaledValue().longValue(), price.scale());
+    }
+
+    /**
+     * Sets the price of a row from its JSON text, without allocating unless it uses an exponent or has more than 18
+     * digits.
+     *
+     * @throws NumberFormatException if the text is not a JSON number
+     */
+    public void setPrice(int row, char[] text, int offset, int length) {
+        long value = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean decimals = false;
+        int end = offset + length;
+        int i = offset;
+        if (i < end && text[i] == '-') {
+            negative = true;
+            i++;
+        }
+        for (; i < end; i++) {
+            char c = text[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                if (decimals) {
+                    scale++;
+                }
+            } else if (c == '.' && !decimals) {
+                decimals = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0) {
+            setPrice(row, new BigDecimal(text, offset, length));
+        } else {
+            setPrice(row, negative ? -value : value, scale);
+        }
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear() {
+        checkWritable();
+        if (chunksShared) {
+            chunks = NO_CHUNKS;
+            chunksShared = false;
+        } else {
+            // the chunks are kept for the next rows; those shared with a frozen version are left untouched
+            for (Chunk chunk : chunks) {
+                if (chunk.owner == owner) {
+                    Arrays.fill(chunk.titles, null);
+                }
+            }
+        }
+        size = 0;
+        indexStale = true;
+    }
+
+    /**
+     * Copies a row of another store, or of this one.
+     */
+    public void copyRow(QuoteStore from, int fromRow, int row) {
+        checkWritable();
+        from.checkRow(fromRow);
+        checkRow(row);
+        Chunk source = from.chunks[fromRow >> CHUNK_SHIFT];
+        int sourceOffset = fromRow & CHUNK_MASK;
+        Chunk target = writableChunk(row);
+        int offset = row & CHUNK_MASK;
+        target.titles[offset] = source.titles[sourceOffset];
+        target.prices[offset] = source.prices[sourceOffset];
+        target.scales[offset] = source.scales[sourceOffset];
+        indexStale = true;
+    }
+
+    /**
+     * @return whether the row has the same title and price as a row of another store
+     */
+    public boolean rowEquals(int row, QuoteStore other, int otherRow) {
+        String title = getTitle(row);
+        String otherTitle = other.getTitle(otherRow);
+        return (title == null ? otherTitle == null : title.equals(otherTitle))
+                && getUnscaledPrice(row) == other.getUnscaledPrice(otherRow)
+                && getPriceScale(row) == other.getPriceScale(otherRow);
+    }
+
+    /**
+     * Brings this store up to date with a full snapshot by changing only the rows that differ.
+     * <p/>
+     * Rows are matched by position, the way patches address them: a row is replaced if it differs from the row at
+     * the same index of the snapshot, and rows are added or removed at the end of the store when the snapshot is
+     * longer or shorter. A snapshot equal to the store records no change.
+     *
+     * @param changes receives the rows changed, inserted and removed
+     */
+    public void replaceWith(QuoteStore snapshot, RowChanges changes) {
+        int common = Math.min(size, snapshot.size);
+        for (int row = 0; row < common; row++) {
+            if (!rowEquals(row, snapshot, row)) {
+                copyRow(snapshot, row, row);
+                changes.changed(row);
+            }
+        }
+        for (int row = size - 1; row >= common; row--) {
+            removeRow(row);
+            changes.removed(row);
+        }
+        for (int row = common; row < snapshot.size; row++) {
+            copyRow(snapshot, row, addRow());
+            changes.inserted(row);
+        }
+    }
+
+    /**
+     * @return an immutable version of this store, sharing its rows until they are written to
+     */
+    public QuoteStore freeze() {
+        if (frozen) {
+            return this;
+        }
+        // the chunks now belong to the frozen version: the next write to one copies it
+        owner = new Object();
+        chunksShared = true;
+        return new QuoteStore(this);
+    }
+
+    /**
+     * @return a copy of the rows of this store, sharing them until either store writes to them
+     */
+    public QuoteStore copy() {
+        QuoteStore copy = new QuoteStore();
+        copy.chunks = freeze().chunks;
+        copy.chunksShared = true;
+        copy.size = size;
+        copy.indexStale = true;
+        return copy;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void moveRow(int from, int to) {
+        Chunk source = chunks[from >> CHUNK_SHIFT];
+        int sourceOffset = from & CHUNK_MASK;
+        Chunk target = writableChunk(to);
+        int offset = to & CHUNK_MASK;
+        target.titles[offset] = source.titles[sourceOffset];
+        target.prices[offset] = source.prices[sourceOffset];
+        target.scales[offset] = source.scales[sourceOffset];
+    }
+
+    /**
+     * @return the chunk of the row, copied first if it is shared with a frozen version
+     */
+    private Chunk writableChunk(int row) {
+        if (chunksShared) {
+            chunks = chunks.clone();
+            chunksShared = false;
+        }
+        int c = row >> CHUNK_SHIFT;
+        Chunk chunk = chunks[c];
+        if (chunk.owner != owner) {
+            chunk = new Chunk(owner, chunk);
+            chunks[c] = chunk;
+        }
+        return chunk;
+    }
+
+    private void checkWritable() {
+        if (frozen) {
+            throw new IllegalStateException("frozen quotes cannot be changed");
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+    }
+
+    private static final class Chunk {
+        final Object owner;
+        final String[] titles;
+        final long[] prices;
+        final byte[] scales;
+
+        Chunk(Object owner) {
+            this.owner = owner;
+            this.titles = new String[CHUNK_SIZE];
+            this.prices = new long[CHUNK_SIZE];
+            this.scales = new byte[CHUNK_SIZE];
+        }
+
+        Chunk(Object owner, Chunk chunk) {
+            this.owner = owner;
+            this.titles = chunk.titles.clone();
+            this.prices = chunk.prices.clone();
+            this.scales = chunk.scales.clone();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.quote;
+
+/**
+ * Looks Strings up by their characters, so that a String seen before is returned instead of a new one.
+ * <p/>
+ * The table is bounded: once it is full, new Strings are still returned but no longer interned.
+ */
+final class StringInterner {
+    private static final int MAX_SIZE = 4096;
+
+    private String[] table = new String[64];
+    private int size;
+
+    String intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = table.length - 1;
+        int slot = slot(hash, mask);
+        for (String candidate = table[slot]; candidate != null; candidate = table[slot]) {
+            if (equals(candidate, chars, offset, length)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String string = new String(chars, offset, length);
+        if (size < MAX_SIZE) {
+            table[slot] = string;
+            if (++size * 2 > table.length) {
+                grow();
+            }
+        }
+        return string;
+    }
+
+    private void grow() {
+        String[] old = table;
+        table = new String[old.length << 1];
+        int mask = table.length - 1;
+        for (String string : old) {
+            if (string != null) {
+                int slot = slot(string.hashCode(), mask);
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = string;
+            }
+        }
+    }
+
+    /**
+     * Titles such as "Company 12" and "Company 13" have hashes one apart, which would fill runs of neighbouring
+     * slots and make lookups walk them; the multiplication scatters them over the table.
+     */
+    private static int slot(int hash, int mask) {
+        int mixed = hash * 0x9e3779b9;
+        return (mixed ^ (mixed >>> 16)) & mask;
+    }
+
+    private static boolean equals(String string, char[] chars, int offset, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * An {@link EventSourceHandler} that takes the events decoded together in one call, so that it can apply many of
+ * them under one lock and refresh its consumers once.
+ * <p/>
+ * By default a batch holds the events decoded from one network read. A time and size window can widen it, see
+ * {@link EventSourceOptions#setBatchWindowMillis(long)}. {@link #onMessage(String, MessageEvent)} is not called for
+ * events delivered in a batch.
+ */
+public interface BatchEventSourceHandler extends EventSourceHandler {
+    /**
+     * @param batch the events in stream order; only valid until this method returns
+     */
+    void onMessages(MessageBatch batch) throws Exception;
+}
@@ -0,0 +1,25 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Random;
+
+/**
+ * Draws each delay at random between the reconnection time, or {@link ReconnectPolicy#MIN_BASE_DELAY_MILLIS} if it
+ * is shorter, and three times the previous delay, up to a cap. Delays grow about as fast as exponential backoff but
+ * are spread more evenly, which breaks up groups of clients reconnecting in lockstep.
+ */
+public class DecorrelatedJitterReconnectPolicy implements ReconnectPolicy {
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    public DecorrelatedJitterReconnectPolicy(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public long delayMillis(int attempt, long previousDelayMillis, long retryMillis) {
+        long base = Math.max(retryMillis, MIN_BASE_DELAY_MILLIS);
+        long upper = Math.max(base, previousDelayMillis * 3);
+        long delay = base + (long) (random.nextDouble() * (upper - base));
+        return Math.min(delay, maxDelayMillis);
+    }
+}
@@ -0,0 +1,25 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * What an {@link EventSource} does with a new event when its dispatch queue already holds as many events as its
+ * capacity, because the handler is slower than the stream.
+ *
+ * @see EventSourceOptions#setDispatchQueueCapacity(int)
+ */
+public enum DispatchOverflowPolicy {
+    /**
+     * Stop reading from the socket until the handler has drained half of the queue. No event is lost; the server
+     * and the TCP window absorb the backlog. The events already decoded from the current read are still queued.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Remove the newest queued event of the same name and queue the new one behind the others, so events are still
+     * delivered in the order they arrived; drop the oldest event when none has that name. The removed event is
+     * lost, so this only suits streams whose events each carry a full state, not patch streams.
+     */
+    CONFLATE_LATEST
+}
@@ -0,0 +1,221 @@
+package tylerjroach.com.eventsource_android;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * An append-only log of the events dispatched by an {@link EventSource}, kept in memory-mapped segment files of a
+ * directory, for post-mortem capture and replay. Read it back with {@link EventJournalReader}.
+ * <p/>
+ * Appending an event copies it into the mapped segment: there is no write call per event, the pages are written
+ * back by the system. When a segment is full a new one is mapped, and the oldest segments are deleted beyond a
+ * maximum count.
+ * <p/>
+ * Each segment starts with a {@link #MAGIC} int and a {@link #VERSION} int, followed by records:
+ * <pre>
+ * int     length of the rest of the record, written last; 0 marks the end of the segment
+ * long    receive time, in milliseconds since the epoch
+ * varint  length of the id + 1, 0 if the event had no id
+ * byte[]  id, UTF-8
+ * varint  length of the event name + 1, 0 for the default name
+ * byte[]  event name, UTF-8
+ * byte[]  data, UTF-8, up to the end of the record
+ * </pre>
+ * Thread safe, but the records of event sources sharing a journal are interleaved without telling which stream
+ * they come from.
+ */
+public class EventJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 8 << 20;
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    public static final int MAGIC = 0x53534a4c;
+    public static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<File> segments = new ArrayDeque<File>();
+    private long nextSegmentNumber;
+    private MappedByteBuffer segment;
+    private long appendedCount;
+    private boolean closed;
+
+    public EventJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Opens a journal in a directory, created if needed. Events are appended to a new segment, after those of the
+     * segments already in the directory.
+     *
+     * @param segmentSize size of a segment file in bytes; a larger segment is mapped for an event that does not
+     *                    fit in one
+     * @param maxSegments number of segments kept, including the one being written
+     */
+    public EventJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        for (File file : listSegments(directory)) {
+            segments.addLast(file);
+            nextSegmentNumber = segmentNumber(file) + 1;
+        }
+    }
+
+    /**
+     * Appends an event, given as UTF-8 byte ranges.
+     *
+     * @param id        the id of the event, null if it had none
+     * @param eventName the event name, null for the default name
+     * @throws IOException if a new segment cannot be mapped, or the journal is closed
+     */
+    public synchronized void append(byte[] id, int idLength, byte[] eventName, int eventNameLength,
+                                    byte[] data, int dataLength, long receivedAtMillis) throws IOException {
+        if (closed) {
+            throw new IOException("journal closed");
+        }
+        if (id == null) {
+            idLength = -1;
+        }
+        if (eventName == null) {
+            eventNameLength = -1;
+        }
+        int bodyLength = 8 + varintSize(idLength + 1) + Math.max(idLength, 0)
+                + varintSize(eventNameLength + 1) + Math.max(eventNameLength, 0) + dataLength;
+        if (segment == null || segment.remaining() < 4 + bodyLength) {
+            roll(4 + bodyLength);
+        }
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putLong(receivedAtMillis);
+        putVarint(segment, idLength + 1);
+        if (id != null) {
+            segment.put(id, 0, idLength);
+        }
+        putVarint(segment, eventNameLength + 1);
+        if (eventName != null) {
+            segment.put(eventName, 0, eventNameLength);
+        }
+        segment.put(data, 0, dataLength);
+        // the length goes last, so that a reader never sees a record before it is complete
+        segment.putInt(start, bodyLength);
+        appendedCount++;
+    }
+
+    /**
+     * @return the number of events appended since the journal was opened
+     */
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the current segment back to storage. The segment stays mapped until it is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+    }
+
+    private void roll(int recordSize) throws IOException {
+        File file = new File(directory, String.format(Locale.ENGLISH, "%016d%s", nextSegmentNumber, SEGMENT_SUFFIX));
+        int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + recordSize);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // the mapping outlives the file descriptor
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+        nextSegmentNumber++;
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segments.addLast(file);
+        while (segments.size() > maxSegments) {
+            segments.removeFirst().delete();
+        }
+    }
+
+    /**
+     * @return the segment files of a directory, oldest first
+     */
+    static File[] listSegments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (segmentNumber(file) >= 0) {
+                files[count++] = file;
+            }
+        }
+        File[] segmentFiles = new File[count];
+        System.arraycopy(files, 0, segmentFiles, 0, count);
+        // names are zero-padded numbers
+        Arrays.sort(segmentFiles);
+        return segmentFiles;
+    }
+
+    private static long segmentNumber(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_SUFFIX) || name.length() != 16 + SEGMENT_SUFFIX.length()) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < 16; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(MappedByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
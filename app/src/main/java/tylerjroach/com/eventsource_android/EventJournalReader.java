@@ -0,0 +1,143 @@
+package tylerjroach.com.eventsource_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads back the events of an {@link EventJournal}, oldest first, across its segments:
+ * <pre>
+ * EventJournalReader reader = new EventJournalReader(directory);
+ * while (reader.next()) {
+ *     process(reader.getEventName(), reader.getData());
+ * }
+ * </pre>
+ * The segments are those of the directory when the reader was created. Events still being appended by an open
+ * journal may or may not be read. Not thread safe.
+ */
+public class EventJournalReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DEFAULT_EVENT = "message";
+
+    private final File[] segmentFiles;
+    private int nextSegment;
+    private MappedByteBuffer segment;
+
+    private long receivedAtMillis;
+    private String lastEventId;
+    private String eventName;
+    private byte[] data;
+
+    public EventJournalReader(File directory) {
+        this.segmentFiles = EventJournal.listSegments(directory);
+    }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return false if there are no more events
+     * @throws IOException if a segment cannot be read or is not a journal segment
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment != null && segment.remaining() >= 4) {
+                int length = segment.getInt();
+                if (length > 0) {
+                    readRecord(length);
+                    return true;
+                }
+            }
+            if (nextSegment == segmentFiles.length) {
+                segment = null;
+                return false;
+            }
+            segment = map(segmentFiles[nextSegment++]);
+        }
+    }
+
+    /**
+     * @return when the event was received, in milliseconds since the epoch
+     */
+    public long getReceivedAtMillis() {
+        return receivedAtMillis;
+    }
+
+    /**
+     * @return the id of the event, or null if it had none
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * @return the data of the event, UTF-8
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    private void readRecord(int length) throws IOException {
+        if (length > segment.remaining()) {
+            throw new IOException("truncated record in " + segmentFiles[nextSegment - 1]);
+        }
+        int end = segment.position() + length;
+        try {
+            receivedAtMillis = segment.getLong();
+            lastEventId = readString(null);
+            eventName = readString(DEFAULT_EVENT);
+            data = new byte[end - segment.position()];
+            segment.get(data);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("corrupt record in " + segmentFiles[nextSegment - 1]);
+        } catch (NegativeArraySizeException e) {
+            throw new IOException("corrupt record in " + segmentFiles[nextSegment - 1]);
+        }
+    }
+
+    private String readString(String absent) {
+        int field = readVarint();
+        if (field == 0) {
+            return absent;
+        }
+        byte[] bytes = new byte[field - 1];
+        segment.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = segment.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.remaining() < EventJournal.SEGMENT_HEADER_SIZE || buffer.getInt() != EventJournal.MAGIC) {
+            throw new IOException("not an event journal segment: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != EventJournal.VERSION) {
+            throw new IOException("unsupported event journal version " + version + ": " + file);
+        }
+        return buffer;
+    }
+}
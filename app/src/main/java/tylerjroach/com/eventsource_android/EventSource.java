@@ -1,15 +1,11 @@
 package tylerjroach.com.eventsource_android;
 
-import android.util.Log;
-
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
-import org.jboss.netty.handler.codec.string.StringDecoder;
 import org.jboss.netty.handler.ssl.SslHandler;
 
 import java.net.InetSocketAddress;
@@ -17,14 +13,18 @@ import java.net.URI;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import javax.net.ssl.SSLEngine;
 
 import tylerjroach.com.eventsource_android.impl.AsyncEventSourceHandler;
 import tylerjroach.com.eventsource_android.impl.netty.EventSourceChannelHandler;
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamInflater;
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamResponseDecoder;
 
-public class EventSource implements EventSourceHandler {
+public class EventSource implements BatchEventSourceHandler {
     public static final long DEFAULT_RECONNECTION_TIME_MILLIS = 2000;
 
     public static final int CONNECTING = 0;
@@ -32,8 +32,12 @@ public class EventSource implements EventSourceHandler {
     public static final int CLOSED = 2;
 
     private static AtomicInteger count = new AtomicInteger(1);
+    private final EventSourceTransport transport;
+    private final boolean ownsTransport;
+    private final AtomicBoolean transportReleased = new AtomicBoolean();
     private ClientBootstrap bootstrap;
     private EventSourceChannelHandler clientHandler;
+    private AsyncEventSourceHandler asyncHandler;
     private EventSourceHandler eventSourceHandler;
 
     private URI uri, requestUri;
@@ -65,17 +69,40 @@ public class EventSource implements EventSourceHandler {
 
 
     public EventSource(Executor executor, long reconnectionTimeMillis, final URI pURI, URI requestUri, SSLEngineFactory fSSLEngine, EventSourceHandler eventSourceHandler, Map<String, String> headers) {
+        // a private transport, released with this event source
+        this(pURI, requestUri, eventSourceHandler, headers, new EventSourceOptions()
+                .setTransport(new EventSourceTransport(1, executor))
+                .setReconnectionTimeMillis(reconnectionTimeMillis)
+                .setSslEngineFactory(fSSLEngine), true);
+    }
+
+    /**
+     * Creates a new <a href="http://dev.w3.org/html5/eventsource/">EventSource</a> client attached to the transport
+     * of the options, by default the transport shared by the whole process.
+     *
+     * @param pURI               where to connect
+     * @param requestUri         the request URI to send, if different from pURI (e.g. behind a proxy)
+     * @param eventSourceHandler receives events
+     * @param headers            Map of additional headers, such as passing auth tokens
+     * @param options            optional settings
+     * @see EventSourceTransport
+     */
+    public EventSource(URI pURI, URI requestUri, EventSourceHandler eventSourceHandler, Map<String, String> headers, EventSourceOptions options) {
+        this(pURI, requestUri, eventSourceHandler, headers, options, false);
+    }
+
+    private EventSource(final URI pURI, URI requestUri, EventSourceHandler eventSourceHandler, Map<String, String> headers, EventSourceOptions options, boolean ownsTransport) {
         this.eventSourceHandler = eventSourceHandler;
+        this.transport = options.getTransport();
+        this.ownsTransport = ownsTransport;
 
-        bootstrap = new ClientBootstrap(
-                new NioClientSocketChannelFactory(
-                        Executors.newSingleThreadExecutor(),
-                        Executors.newSingleThreadExecutor()));
-        if (pURI.getScheme().equals("https") && fSSLEngine == null) {
-            fSSLEngine = new SSLEngineFactory();
-        } else {
+        bootstrap = new ClientBootstrap(transport.getChannelFactory());
+        SSLEngineFactory fSSLEngine = options.getSslEngineFactory();
+        if (!pURI.getScheme().equals("https")) {
             //If we don't do this then the pipeline still attempts to use SSL
             fSSLEngine = null;
+        } else if (fSSLEngine == null) {
+            fSSLEngine = new SSLEngineFactory();
         }
         final SSLEngineFactory SSLFactory = fSSLEngine;
 
@@ -85,27 +112,50 @@ public class EventSource implements EventSourceHandler {
         if (port == -1) {
             port = (uri.getScheme().equals("https")) ? 443 : 80;
         }
+        final int peerPort = port;
 
         bootstrap.setOption("remoteAddress", new InetSocketAddress(uri.getHost(), port));
 
         // add this class as the event source handler so the connect() call can be intercepted.
-        AsyncEventSourceHandler asyncHandler = new AsyncEventSourceHandler(executor, this);
-
-        clientHandler = new EventSourceChannelHandler(asyncHandler, reconnectionTimeMillis, bootstrap, uri, requestUri, headers);
+        asyncHandler = new AsyncEventSourceHandler(transport.getCallbackExecutor(), this, options.getDispatchQueueCapacity(), options.getOverflowPolicy());
+
+        clientHandler = new EventSourceChannelHandler(asyncHandler, options.getReconnectionTimeMillis(), bootstrap, transport.getTimer(), uri, requestUri, headers);
+        clientHandler.setLastEventIdStore(options.getLastEventIdStore());
+        clientHandler.setSnapshotEventName(options.getSnapshotEventName());
+        clientHandler.setJournal(options.getJournal());
+        clientHandler.setMetrics(options.getMetrics());
+        clientHandler.setTracer(options.getTracer());
+        clientHandler.setByteData(options.isByteData());
+        clientHandler.setEventNames(options.getEventNames());
+        clientHandler.setMaxLineLength(options.getMaxLineLength());
+        final boolean acceptCompression = options.isAcceptCompression();
+        clientHandler.setAcceptCompression(acceptCompression);
+        clientHandler.setReconnectPolicy(options.getReconnectPolicy());
+        clientHandler.setReconnectGovernor(options.getReconnectGovernor());
+        asyncHandler.setConnectionHandler(clientHandler);
+        asyncHandler.setMetrics(options.getMetrics());
+        if (eventSourceHandler instanceof BatchEventSourceHandler) {
+            asyncHandler.enableBatching(transport.getTimer(), options.getBatchWindowMillis(), options.getMaxBatchSize());
+        }
 
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
             public ChannelPipeline getPipeline() throws Exception {
                 ChannelPipeline pipeline = Channels.pipeline();
 
                 if (SSLFactory != null) {
-                    SSLEngine sslEngine = SSLFactory.GetNewSSLEngine();
+                    // name the peer so that reconnects can resume the TLS session
+                    SSLEngine sslEngine = SSLFactory.GetNewSSLEngine(uri.getHost(), peerPort);
                     sslEngine.setUseClientMode(true);
                     // add handling of https connection
                     pipeline.addLast("ssl", new SslHandler(sslEngine));
                 }
 
-                // simply decode flow as string
-                pipeline.addLast("string", new StringDecoder());
+                // decode the HTTP response: only de-chunked body bytes reach the event source handler
+                pipeline.addLast("decoder", new EventStreamResponseDecoder());
+                if (acceptCompression) {
+                    // inflate a compressed body before it is framed into lines
+                    pipeline.addLast("inflater", new EventStreamInflater());
+                }
                 // simple encode request as HTTP request
                 pipeline.addLast("encoder", new HttpRequestEncoder());
                 // add our own event source handler
@@ -167,7 +217,46 @@ public class EventSource implements EventSourceHandler {
     }
 
     /**
-     * Close the connection
+     * @return the number of reconnects that resumed the stream from the last event id
+     */
+    public long getResumedReconnectCount() {
+        return clientHandler.getResumedReconnectCount();
+    }
+
+    /**
+     * @return the number of reconnects that fell back to a full snapshot
+     * @see EventSourceOptions#setSnapshotEventName(String)
+     */
+    public long getSnapshotReconnectCount() {
+        return clientHandler.getSnapshotReconnectCount();
+    }
+
+    /**
+     * @return the number of events decoded but not yet handed to the handler
+     */
+    public int getDispatchQueueDepth() {
+        return asyncHandler.getQueueDepth();
+    }
+
+    /**
+     * @return the number of events dropped because the dispatch queue was full
+     * @see EventSourceOptions#setOverflowPolicy(DispatchOverflowPolicy)
+     */
+    public long getDroppedEventCount() {
+        return asyncHandler.getDroppedCount();
+    }
+
+    /**
+     * @return the number of queued events replaced by a newer event of the same name
+     * @see DispatchOverflowPolicy#CONFLATE_LATEST
+     */
+    public long getConflatedEventCount() {
+        return asyncHandler.getConflatedCount();
+    }
+
+    /**
+     * Close the connection. An event source created with its own executor also stops its threads, once the
+     * connection is closed; it must then not be closed from one of its callbacks running on a Netty thread.
      *
      * @return self
      */
@@ -175,7 +264,16 @@ public class EventSource implements EventSourceHandler {
         readyState = CLOSED;
         clientHandler.close();
         setEventSourceHandler(null);
-        Log.d(EventSource.class.getName(), "eventSource closed:" + count.getAndIncrement());
+        if (ownsTransport) {
+            try {
+                clientHandler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            releaseTransport();
+        }
+        // java.util.logging keeps the library free of Android classes; Android only forwards INFO and above to its log
+        Logger.getLogger(EventSource.class.getName()).info("eventSource closed:" + count.getAndIncrement());
         return this;
     }
 
@@ -198,6 +296,19 @@ public class EventSource implements EventSourceHandler {
         }
     }
 
+    @Override
+    public void onMessages(MessageBatch batch) throws Exception {
+        // pass events to the proper handler, one by one if it does not take batches
+        EventSourceHandler handler = eventSourceHandler;
+        if (handler instanceof BatchEventSourceHandler) {
+            ((BatchEventSourceHandler) handler).onMessages(batch);
+        } else if (handler != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                handler.onMessage(batch.getEvent(i), batch.getMessage(i));
+            }
+        }
+    }
+
     @Override
     public void onError(Throwable t) {
         // pass event to the proper handler
@@ -228,8 +339,14 @@ public class EventSource implements EventSourceHandler {
 
         setEventSourceHandler(null);
         clientHandler = null;
-        bootstrap.getFactory().releaseExternalResources();
-        bootstrap.releaseExternalResources();
+        // an event source dropped without being closed
+        releaseTransport();
         bootstrap = null;
     }
+
+    private void releaseTransport() {
+        if (ownsTransport && transportReleased.compareAndSet(false, true)) {
+            transport.release();
+        }
+    }
 }
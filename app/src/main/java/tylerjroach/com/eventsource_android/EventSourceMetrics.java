@@ -0,0 +1,96 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * Receives measurements of the receive path of an {@link EventSource}: reads and parsing on the I/O thread, the
+ * dispatch queue, the handler, and the life of connections.
+ * <p/>
+ * Methods are called on the I/O thread or on the callback executor, in the middle of the stream, so they must be
+ * cheap and must not throw. Times are {@link System#nanoTime()} differences. {@link StreamMetrics} is the default
+ * implementation; one instance can be shared by several event sources.
+ *
+ * @see EventSourceOptions#setMetrics(EventSourceMetrics)
+ */
+public interface EventSourceMetrics {
+    /**
+     * Why a connection was lost and a reconnect scheduled.
+     */
+    enum ReconnectCause {
+        /**
+         * The connection could not be established.
+         */
+        CONNECT_FAILED,
+        /**
+         * The server answered with another status than 200.
+         */
+        HTTP_STATUS,
+        /**
+         * The response is not an event stream.
+         */
+        CONTENT_TYPE,
+        /**
+         * An I/O or protocol error on an open connection.
+         */
+        ERROR,
+        /**
+         * The server ended the stream.
+         */
+        END_OF_STREAM
+    }
+
+    /**
+     * A read of the body has been framed into lines and parsed, and its events queued.
+     *
+     * @param byteCount  bytes of the body in the read
+     * @param lineCount  complete lines in the read
+     * @param parseNanos time spent framing, parsing and queueing
+     */
+    void readParsed(int byteCount, int lineCount, long parseNanos);
+
+    /**
+     * An event has been parsed and is handed to the dispatch queue.
+     */
+    void eventParsed(String event);
+
+    /**
+     * An event has been dropped by the parser because its name is not subscribed to.
+     *
+     * @see EventSourceOptions#setEventNames(String...)
+     */
+    void eventFiltered(String event);
+
+    /**
+     * An event has been taken from the dispatch queue.
+     *
+     * @param waitNanos time it spent in the queue
+     */
+    void eventDequeued(long waitNanos);
+
+    /**
+     * A handler callback has returned.
+     *
+     * @param executionNanos time spent in {@link EventSourceHandler#onMessage(String, MessageEvent)}, or in
+     *                       {@link BatchEventSourceHandler#onMessages(MessageBatch)} for a whole batch
+     */
+    void handlerExecuted(long executionNanos);
+
+    /**
+     * The TCP connection is established.
+     *
+     * @param connectNanos time since the connection attempt started
+     */
+    void connected(long connectNanos);
+
+    /**
+     * The server accepted the request with an event stream, after the TLS handshake if any.
+     *
+     * @param openNanos time since the connection attempt started
+     */
+    void streamOpened(long openNanos);
+
+    /**
+     * A reconnect has been scheduled.
+     *
+     * @param delayMillis delay before the attempt
+     */
+    void reconnectScheduled(ReconnectCause cause, long delayMillis);
+}
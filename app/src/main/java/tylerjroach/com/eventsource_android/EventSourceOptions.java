@@ -0,0 +1,282 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamFramer;
+
+/**
+ * Optional settings of an {@link EventSource}. Setters return the options so they can be chained:
+ * <pre>
+ * new EventSource(uri, requestUri, handler, headers, new EventSourceOptions().setReconnectionTimeMillis(5000));
+ * </pre>
+ */
+public class EventSourceOptions {
+    public static final int DEFAULT_DISPATCH_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final int DEFAULT_MAX_LINE_LENGTH = EventStreamFramer.DEFAULT_MAX_LINE_LENGTH;
+
+    private EventSourceTransport transport;
+    private long reconnectionTimeMillis = EventSource.DEFAULT_RECONNECTION_TIME_MILLIS;
+    private SSLEngineFactory sslEngineFactory;
+    private LastEventIdStore lastEventIdStore;
+    private String snapshotEventName;
+    private int dispatchQueueCapacity = DEFAULT_DISPATCH_QUEUE_CAPACITY;
+    private DispatchOverflowPolicy overflowPolicy = DispatchOverflowPolicy.BLOCK;
+    private long batchWindowMillis;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private ReconnectPolicy reconnectPolicy = ReconnectPolicy.FIXED;
+    private ReconnectGovernor reconnectGovernor;
+    private EventJournal journal;
+    private EventSourceMetrics metrics;
+    private EventTracer tracer;
+    private boolean acceptCompression;
+    private boolean byteData;
+    private Set<String> eventNames;
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+
+    /**
+     * @return the transport to attach to, {@link EventSourceTransport#getDefault()} if none was set
+     */
+    public EventSourceTransport getTransport() {
+        return transport != null ? transport : EventSourceTransport.getDefault();
+    }
+
+    public EventSourceOptions setTransport(EventSourceTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public long getReconnectionTimeMillis() {
+        return reconnectionTimeMillis;
+    }
+
+    /**
+     * @param reconnectionTimeMillis delay before a reconnect is made - in the event of a lost connection
+     */
+    public EventSourceOptions setReconnectionTimeMillis(long reconnectionTimeMillis) {
+        this.reconnectionTimeMillis = reconnectionTimeMillis;
+        return this;
+    }
+
+    public SSLEngineFactory getSslEngineFactory() {
+        return sslEngineFactory;
+    }
+
+    /**
+     * @param sslEngineFactory creates the engines of https connections, a default factory is used if none was set
+     */
+    public EventSourceOptions setSslEngineFactory(SSLEngineFactory sslEngineFactory) {
+        this.sslEngineFactory = sslEngineFactory;
+        return this;
+    }
+
+    public LastEventIdStore getLastEventIdStore() {
+        return lastEventIdStore;
+    }
+
+    /**
+     * @param lastEventIdStore where the last event id is loaded from and saved to, so that a new event source can
+     *                         resume the stream of a previous one; reconnects resume the stream in any case
+     */
+    public EventSourceOptions setLastEventIdStore(LastEventIdStore lastEventIdStore) {
+        this.lastEventIdStore = lastEventIdStore;
+        return this;
+    }
+
+    public String getSnapshotEventName() {
+        return snapshotEventName;
+    }
+
+    /**
+     * @param snapshotEventName name of the event carrying a full snapshot, used to count the reconnects the server
+     *                          did not resume, see {@link EventSource#getSnapshotReconnectCount()}
+     */
+    public EventSourceOptions setSnapshotEventName(String snapshotEventName) {
+        this.snapshotEventName = snapshotEventName;
+        return this;
+    }
+
+    public int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    /**
+     * @param dispatchQueueCapacity maximum number of events waiting for the handler before the overflow policy
+     *                              applies
+     */
+    public EventSourceOptions setDispatchQueueCapacity(int dispatchQueueCapacity) {
+        this.dispatchQueueCapacity = dispatchQueueCapacity;
+        return this;
+    }
+
+    public DispatchOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy what to do when the dispatch queue is full, {@link DispatchOverflowPolicy#BLOCK} by
+     *                       default
+     */
+    public EventSourceOptions setOverflowPolicy(DispatchOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    /**
+     * @param batchWindowMillis for a {@link BatchEventSourceHandler}, how long events are held after a read to
+     *                          gather those of the next reads into the same batch; 0, the default, delivers the
+     *                          events of each read as one batch
+     */
+    public EventSourceOptions setBatchWindowMillis(long batchWindowMillis) {
+        this.batchWindowMillis = batchWindowMillis;
+        return this;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize for a {@link BatchEventSourceHandler}, maximum number of events in a batch; reaching it
+     *                     closes the batch window early
+     */
+    public EventSourceOptions setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * @param reconnectPolicy delays reconnects after a lost connection, {@link ReconnectPolicy#FIXED} by default
+     */
+    public EventSourceOptions setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    public ReconnectGovernor getReconnectGovernor() {
+        return reconnectGovernor;
+    }
+
+    /**
+     * @param reconnectGovernor paces reconnects across the event sources sharing it, such as
+     *                          {@link ReconnectGovernor#getDefault()}; null, the default, reconnects as soon as the
+     *                          delay of the reconnect policy is over
+     */
+    public EventSourceOptions setReconnectGovernor(ReconnectGovernor reconnectGovernor) {
+        this.reconnectGovernor = reconnectGovernor;
+        return this;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal records every event dispatched, with the time it was received; null, the default, records
+     *                nothing. The journal is not closed with the event source.
+     */
+    public EventSourceOptions setJournal(EventJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    public EventSourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics receives measurements of the stream, such as a {@link StreamMetrics}; null, the default,
+     *                measures nothing
+     */
+    public EventSourceOptions setMetrics(EventSourceMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public EventTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * @param tracer samples events and stamps them with the time they go through each stage, see
+     *               {@link MessageEvent#trace}; null, the default, traces nothing
+     */
+    public EventSourceOptions setTracer(EventTracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    public boolean isAcceptCompression() {
+        return acceptCompression;
+    }
+
+    /**
+     * @param acceptCompression whether to ask the server for a gzip or deflate compressed stream, which it may
+     *                          ignore; false by default. Saves most of the bandwidth of JSON streams for some CPU,
+     *                          provided the server flushes its compressor after each event.
+     */
+    public EventSourceOptions setAcceptCompression(boolean acceptCompression) {
+        this.acceptCompression = acceptCompression;
+        return this;
+    }
+
+    public boolean isByteData() {
+        return byteData;
+    }
+
+    /**
+     * @param byteData whether events carry their data as UTF-8 bytes, false by default. {@link MessageEvent#data}
+     *                 is then null: the handler reads {@link MessageEvent#getDataBytes()} or
+     *                 {@link MessageEvent#getDataStream()}, and only pays for a String if it calls
+     *                 {@link MessageEvent#getData()}.
+     */
+    public EventSourceOptions setByteData(boolean byteData) {
+        this.byteData = byteData;
+        return this;
+    }
+
+    /**
+     * @return the names of the events dispatched, null for all
+     */
+    public Set<String> getEventNames() {
+        return eventNames;
+    }
+
+    /**
+     * @param eventNames the names of the events the handler wants, {@code "message"} for events without a name;
+     *                   null, the default, dispatches all events. The other events are dropped by the parser without
+     *                   decoding their data, and counted by {@link EventSourceMetrics#eventFiltered(String)}. Include
+     *                   the snapshot event name, if any, for resumed reconnects to be told from snapshots.
+     */
+    public EventSourceOptions setEventNames(String... eventNames) {
+        this.eventNames = eventNames != null
+                ? Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(eventNames))) : null;
+        return this;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * @param maxLineLength longest line of the stream accepted, in bytes; {@link #DEFAULT_MAX_LINE_LENGTH} by
+     *                      default. A longer line is reported to {@link EventSourceHandler#onError(Throwable)} and
+     *                      the connection is closed and made again. Raise it for streams whose events carry large
+     *                      single-line data, such as a JSON snapshot.
+     */
+    public EventSourceOptions setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        return this;
+    }
+}
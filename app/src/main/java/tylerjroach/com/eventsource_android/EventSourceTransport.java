@@ -0,0 +1,94 @@
+package tylerjroach.com.eventsource_android;
+
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The threads behind {@link EventSource} connections: the NIO boss and worker pool, the timer used to schedule
+ * reconnects and the executor that runs {@link EventSourceHandler} callbacks.
+ * <p/>
+ * A transport can be shared by any number of event sources, so that many streams run on a fixed number of threads
+ * instead of four threads per stream. {@link #getDefault()} returns a process-wide transport sized to the number of
+ * cores. Callbacks of all the event sources attached to a transport run on its callback executor; with the default
+ * single-thread executor the callbacks of each stream keep their order.
+ */
+public class EventSourceTransport {
+    private static EventSourceTransport defaultTransport;
+
+    private final ExecutorService bossExecutor;
+    private final ExecutorService workerExecutor;
+    private final ChannelFactory channelFactory;
+    private final Timer timer;
+    private final Executor callbackExecutor;
+    private final boolean ownsCallbackExecutor;
+
+    /**
+     * Creates a transport with its own single-thread callback executor.
+     *
+     * @param workerCount number of NIO worker threads shared by the connections
+     */
+    public EventSourceTransport(int workerCount) {
+        this(workerCount, Executors.newSingleThreadExecutor(), true);
+    }
+
+    /**
+     * @param workerCount      number of NIO worker threads shared by the connections
+     * @param callbackExecutor the executor that will receive events; it is not shut down by {@link #release()}
+     */
+    public EventSourceTransport(int workerCount, Executor callbackExecutor) {
+        this(workerCount, callbackExecutor, false);
+    }
+
+    private EventSourceTransport(int workerCount, Executor callbackExecutor, boolean ownsCallbackExecutor) {
+        this.bossExecutor = Executors.newCachedThreadPool();
+        this.workerExecutor = Executors.newCachedThreadPool();
+        this.channelFactory = new NioClientSocketChannelFactory(bossExecutor, workerExecutor, workerCount);
+        this.timer = new HashedWheelTimer();
+        this.callbackExecutor = callbackExecutor;
+        this.ownsCallbackExecutor = ownsCallbackExecutor;
+    }
+
+    /**
+     * @return the process-wide transport, created on first use with one worker per available core
+     */
+    public static synchronized EventSourceTransport getDefault() {
+        if (defaultTransport == null) {
+            defaultTransport = new EventSourceTransport(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultTransport;
+    }
+
+    public ChannelFactory getChannelFactory() {
+        return channelFactory;
+    }
+
+    public Timer getTimer() {
+        return timer;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Stops the threads of this transport. All the event sources attached to it must have been closed.
+     */
+    public void release() {
+        timer.stop();
+        channelFactory.releaseExternalResources();
+        if (ownsCallbackExecutor) {
+            ((ExecutorService) callbackExecutor).shutdown();
+        }
+        synchronized (EventSourceTransport.class) {
+            if (defaultTransport == this) {
+                defaultTransport = null;
+            }
+        }
+    }
+}
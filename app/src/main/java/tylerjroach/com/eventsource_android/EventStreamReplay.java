@@ -0,0 +1,216 @@
+package tylerjroach.com.eventsource_android;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.impl.netty.EventSourceChannelHandler;
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamResponseDecoder;
+
+/**
+ * Replays a recorded event stream through the decoding pipeline of an {@link EventSource}, without a socket: the
+ * bytes go through an {@link EventStreamResponseDecoder} and an {@link EventSourceChannelHandler} in an embedded
+ * Netty pipeline, and the handler gets the same callbacks as from a live stream, on the replaying thread.
+ * <p/>
+ * A stream can be replayed from a raw capture of the HTTP response, or from an {@link EventJournal}, whose events
+ * are written back as an event stream and paced by the time they were received:
+ * <pre>
+ * new EventStreamReplay(uri, handler).setSpeed(EventStreamReplay.ORIGINAL_TIMING).replayJournal(directory);
+ * </pre>
+ * Reconnects are not replayed: a replay is one connection, closed at the end of the recording.
+ */
+public class EventStreamReplay {
+    public static final double ORIGINAL_TIMING = 1;
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+    public static final int DEFAULT_READ_SIZE = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DEFAULT_EVENT = "message";
+    private static final byte[] RESPONSE_HEAD = "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n\r\n".getBytes(UTF_8);
+    private static final byte[] ID = "id: ".getBytes(UTF_8);
+    private static final byte[] EVENT = "event: ".getBytes(UTF_8);
+    private static final byte[] DATA = "data: ".getBytes(UTF_8);
+
+    private final URI uri;
+    private final EventSourceHandler eventSourceHandler;
+    private double speed = AS_FAST_AS_POSSIBLE;
+    private int readSize = DEFAULT_READ_SIZE;
+
+    // the stream written back from a journal
+    private byte[] record = new byte[256];
+    private int recordLength;
+
+    /**
+     * @param uri                the URI the stream was received from, reported as the origin of the messages
+     * @param eventSourceHandler receives the replayed callbacks
+     */
+    public EventStreamReplay(URI uri, EventSourceHandler eventSourceHandler) {
+        this.uri = uri;
+        this.eventSourceHandler = eventSourceHandler;
+    }
+
+    /**
+     * @param speed how many times faster than recorded a journal is replayed: {@link #ORIGINAL_TIMING}, or
+     *              {@link #AS_FAST_AS_POSSIBLE}, the default. Raw captures have no timing and are always replayed
+     *              as fast as possible.
+     */
+    public EventStreamReplay setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * @param readSize number of bytes of a raw capture handed to the pipeline at a time, like a network read
+     */
+    public EventStreamReplay setReadSize(int readSize) {
+        if (readSize < 1) {
+            throw new IllegalArgumentException("readSize must be positive: " + readSize);
+        }
+        this.readSize = readSize;
+        return this;
+    }
+
+    /**
+     * Replays a raw capture of an HTTP response carrying an event stream, status line and headers included, and
+     * closes the connection at its end. The stream is not closed.
+     *
+     * @return the number of bytes replayed
+     */
+    public long replayCapture(InputStream capture) throws IOException {
+        Connection connection = new Connection();
+        long total = 0;
+        try {
+            byte[] buffer = new byte[readSize];
+            int read;
+            while ((read = capture.read(buffer)) != -1) {
+                connection.receive(buffer, read);
+                total += read;
+            }
+        } finally {
+            connection.close();
+        }
+        return total;
+    }
+
+    /**
+     * Replays the events of a journal as one event stream, each event being one read, and closes the connection
+     * after the last one.
+     *
+     * @return the number of events replayed
+     * @throws InterruptedException if interrupted while waiting for the time of an event
+     */
+    public long replayJournal(File directory) throws IOException, InterruptedException {
+        EventJournalReader reader = new EventJournalReader(directory);
+        Connection connection = new Connection();
+        long count = 0;
+        try {
+            connection.receive(RESPONSE_HEAD, RESPONSE_HEAD.length);
+            long firstReceivedAt = 0;
+            long start = System.nanoTime();
+            while (reader.next()) {
+                if (count == 0) {
+                    firstReceivedAt = reader.getReceivedAtMillis();
+                } else if (speed != AS_FAST_AS_POSSIBLE) {
+                    long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(reader.getReceivedAtMillis() - firstReceivedAt) / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                writeRecord(reader);
+                connection.receive(record, recordLength);
+                count++;
+            }
+        } finally {
+            connection.close();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the event the reader is at as the lines of an event stream.
+     */
+    private void writeRecord(EventJournalReader reader) {
+        recordLength = 0;
+        if (reader.getLastEventId() != null) {
+            append(ID);
+            append(reader.getLastEventId().getBytes(UTF_8));
+            append((byte) '\n');
+        }
+        if (!reader.getEventName().equals(DEFAULT_EVENT)) {
+            append(EVENT);
+            append(reader.getEventName().getBytes(UTF_8));
+            append((byte) '\n');
+        }
+        byte[] data = reader.getData();
+        int lineStart = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i == data.length || data[i] == '\n') {
+                append(DATA);
+                append(data, lineStart, i - lineStart);
+                append((byte) '\n');
+                lineStart = i + 1;
+            }
+        }
+        append((byte) '\n');
+    }
+
+    private void append(byte[] bytes) {
+        append(bytes, 0, bytes.length);
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (recordLength + length > record.length) {
+            record = Arrays.copyOf(record, Math.max(recordLength + length, record.length << 1));
+        }
+        System.arraycopy(bytes, offset, record, recordLength, length);
+        recordLength += length;
+    }
+
+    private void append(byte b) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length << 1);
+        }
+        record[recordLength++] = b;
+    }
+
+    /**
+     * One connection of the channel handler, in an embedded pipeline.
+     */
+    private class Connection {
+        private final EventSourceChannelHandler channelHandler;
+        private final DecoderEmbedder<Object> embedder;
+
+        Connection() {
+            // no bootstrap nor timer: the replay closes the connection without reconnecting
+            channelHandler = new EventSourceChannelHandler(eventSourceHandler, 0, null, null, uri, null, null);
+            // a recording only holds lines its live stream accepted, whatever its limit was
+            channelHandler.setMaxLineLength(Integer.MAX_VALUE);
+            embedder = new DecoderEmbedder<Object>(new EventStreamResponseDecoder(), channelHandler);
+            // the request written by the channel handler on connect
+            embedder.pollAll();
+        }
+
+        /**
+         * @param bytes not retained after the call
+         */
+        void receive(byte[] bytes, int length) {
+            embedder.offer(ChannelBuffers.wrappedBuffer(bytes, 0, length));
+        }
+
+        void close() {
+            channelHandler.close();
+            embedder.finish();
+        }
+    }
+}
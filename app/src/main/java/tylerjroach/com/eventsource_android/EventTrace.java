@@ -0,0 +1,92 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Arrays;
+
+/**
+ * The {@link System#nanoTime()} at which a sampled event went through each stage, from the socket read that
+ * completed it to the screen. Carried by {@link MessageEvent#trace}.
+ * <p/>
+ * The event source stamps the first stages; an application that applies and renders events stamps the next ones.
+ * When the completion stage of the {@link EventTracer} is stamped, the trace is added to its histograms.
+ * Stamps are made by one thread at a time, each handing the event over to the next one.
+ */
+public final class EventTrace {
+    /**
+     * Stages of an event, in order.
+     */
+    public enum Stage {
+        /**
+         * The read that completed the event was received, before it was framed and parsed.
+         */
+        READ,
+        /**
+         * The parser dispatched the event, on the I/O thread.
+         */
+        PARSED,
+        /**
+         * The event is handed to the handler, on the callback executor.
+         */
+        DELIVERED,
+        /**
+         * The application applied the event to its state.
+         */
+        APPLIED,
+        /**
+         * The application posted the render of the new state.
+         */
+        RENDERED
+    }
+
+    static final long NOT_STAMPED = Long.MIN_VALUE;
+
+    private final EventTracer tracer;
+    private final long[] stamps = new long[Stage.values().length];
+
+    EventTrace(EventTracer tracer) {
+        this.tracer = tracer;
+        Arrays.fill(stamps, NOT_STAMPED);
+    }
+
+    public void stamp(Stage stage) {
+        stamp(stage, System.nanoTime());
+    }
+
+    /**
+     * @param nanos a {@link System#nanoTime()} reading
+     */
+    public void stamp(Stage stage, long nanos) {
+        stamps[stage.ordinal()] = nanos;
+        if (stage == tracer.getCompletionStage()) {
+            tracer.record(this);
+        }
+    }
+
+    public boolean isStamped(Stage stage) {
+        return stamps[stage.ordinal()] != NOT_STAMPED;
+    }
+
+    /**
+     * @return the stamp of the stage, {@link Long#MIN_VALUE} if it was not stamped
+     */
+    public long getNanos(Stage stage) {
+        return stamps[stage.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("EventTrace{");
+        long previous = NOT_STAMPED;
+        for (Stage stage : Stage.values()) {
+            long stamp = stamps[stage.ordinal()];
+            if (stamp != NOT_STAMPED) {
+                if (previous != NOT_STAMPED) {
+                    builder.append(", ").append(stage).append("=+").append(stamp - previous).append("ns");
+                } else {
+                    builder.append(stage);
+                }
+                previous = stamp;
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,112 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples events for latency tracing and aggregates their {@link EventTrace}s into one histogram per stage: the
+ * time from the previous stage stamped to this one, plus the time from the read to the completion stage. This
+ * tells where the time between a tick arriving on the socket and its render goes.
+ * <pre>
+ * EventTracer tracer = new EventTracer(100).setCompletionStage(EventTrace.Stage.RENDERED);
+ * new EventSource(uri, requestUri, handler, headers, new EventSourceOptions().setTracer(tracer));
+ * </pre>
+ * Events that are not sampled get no trace and cost an increment of the sample counter; without a tracer, nothing.
+ * Thread safe; one tracer can be shared by several event sources.
+ */
+public class EventTracer {
+    private static final EventTrace.Stage[] STAGES = EventTrace.Stage.values();
+
+    private final int sampleInterval;
+    private EventTrace.Stage completionStage = EventTrace.Stage.DELIVERED;
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final LatencyHistogram[] stageLatencies = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram totalLatencies = new LatencyHistogram();
+
+    /**
+     * @param sampleInterval traces one event out of this many, 1 to trace all of them
+     */
+    public EventTracer(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sample interval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        for (int i = 0; i < stageLatencies.length; i++) {
+            stageLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param completionStage the last stage stamped, {@link EventTrace.Stage#DELIVERED} by default; applications
+     *                        that stamp later stages set theirs. Must be set before events are traced.
+     */
+    public EventTracer setCompletionStage(EventTrace.Stage completionStage) {
+        this.completionStage = completionStage;
+        return this;
+    }
+
+    public EventTrace.Stage getCompletionStage() {
+        return completionStage;
+    }
+
+    /**
+     * Called by the parser for each event.
+     *
+     * @return a trace if the event is sampled, otherwise null
+     */
+    public EventTrace sample() {
+        return eventCount.getAndIncrement() % sampleInterval == 0 ? new EventTrace(this) : null;
+    }
+
+    void record(EventTrace trace) {
+        long previous = EventTrace.NOT_STAMPED;
+        for (EventTrace.Stage stage : STAGES) {
+            long stamp = trace.getNanos(stage);
+            if (stamp != EventTrace.NOT_STAMPED) {
+                if (previous != EventTrace.NOT_STAMPED) {
+                    stageLatencies[stage.ordinal()].record(stamp - previous);
+                }
+                previous = stamp;
+            }
+            if (stage == completionStage) {
+                break;
+            }
+        }
+        if (trace.isStamped(EventTrace.Stage.READ)) {
+            totalLatencies.record(trace.getNanos(completionStage) - trace.getNanos(EventTrace.Stage.READ));
+        }
+        completedCount.incrementAndGet();
+    }
+
+    /**
+     * @return the times from the stage stamped before this one to this one
+     */
+    public LatencyHistogram.Snapshot getStageLatency(EventTrace.Stage stage) {
+        return stageLatencies[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * @return the times from the read to the completion stage
+     */
+    public LatencyHistogram.Snapshot getTotalLatency() {
+        return totalLatencies.snapshot();
+    }
+
+    /**
+     * @return the number of traces that reached the completion stage; the others were dropped, conflated or did
+     * not change what is displayed
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("EventTracer{events=").append(eventCount.get())
+                .append(", traced=").append(completedCount.get());
+        for (int i = 1; i <= completionStage.ordinal(); i++) {
+            builder.append(", ").append(STAGES[i]).append('=').append(stageLatencies[i].snapshot());
+        }
+        return builder.append(", total=").append(totalLatencies.snapshot()).append('}').toString();
+    }
+}
@@ -0,0 +1,36 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Random;
+
+/**
+ * Doubles the delay on each failed attempt, starting from the reconnection time or
+ * {@link ReconnectPolicy#MIN_BASE_DELAY_MILLIS}, whichever is longer, up to a cap. With jitter, the delay is drawn
+ * at random from its upper half, so clients that lost their connection together do not come back together.
+ */
+public class ExponentialBackoffReconnectPolicy implements ReconnectPolicy {
+    private final long maxDelayMillis;
+    private final boolean jitter;
+    private final Random random = new Random();
+
+    public ExponentialBackoffReconnectPolicy(long maxDelayMillis) {
+        this(maxDelayMillis, true);
+    }
+
+    public ExponentialBackoffReconnectPolicy(long maxDelayMillis, boolean jitter) {
+        this.maxDelayMillis = maxDelayMillis;
+        this.jitter = jitter;
+    }
+
+    @Override
+    public long delayMillis(int attempt, long previousDelayMillis, long retryMillis) {
+        long delay = Math.max(retryMillis, MIN_BASE_DELAY_MILLIS);
+        for (int i = 1; i < attempt && delay < maxDelayMillis; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        if (jitter && delay > 1) {
+            delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,25 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * A {@link LastEventIdStore} that lives as long as the object, e.g. for the lifetime of an activity.
+ */
+public class InMemoryLastEventIdStore implements LastEventIdStore {
+    private volatile String lastEventId;
+
+    public InMemoryLastEventIdStore() {
+    }
+
+    public InMemoryLastEventIdStore(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
+    @Override
+    public String load() {
+        return lastEventId;
+    }
+
+    @Override
+    public void save(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+}
@@ -0,0 +1,17 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * Keeps the id of the last dispatched event so that a stream can be resumed with a {@code Last-Event-ID} header,
+ * across reconnects and across {@link EventSource} instances sharing the store.
+ * <p/>
+ * {@link #save(String)} is called on the I/O thread each time the id changes: implementations must be quick, and
+ * should write to slow storage lazily.
+ */
+public interface LastEventIdStore {
+    /**
+     * @return the last saved id, or null to start from a fresh snapshot
+     */
+    String load();
+
+    void save(String lastEventId);
+}
@@ -0,0 +1,138 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed relative precision, in the manner of HdrHistogram.
+ * <p/>
+ * Buckets are log-linear: values below 16 have a bucket each, then every power of two is split into 16 buckets of
+ * equal width, so a value is known within 1/16th of itself across the whole {@code long} range with 960 buckets.
+ * Recording is an index computation and an atomic increment, without allocation, and may be done from any thread.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos a duration; negative durations are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        total.addAndGet(nanos);
+        long currentMax;
+        while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+            // lost a race with another thread, try again
+        }
+    }
+
+    /**
+     * @return the durations recorded so far; recording can go on while the snapshot is taken
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.get(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value of a bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the mean duration in nanoseconds, 0 if none was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return the largest duration recorded, in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return a duration in nanoseconds that at least this percentage of the recorded durations do not exceed,
+         * within 1/16th; 0 if none was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "{count=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, p99.9=%.1fus, max=%.1fus}",
+                    count, getMean() / 1000, micros(getValueAtPercentile(50)), micros(getValueAtPercentile(99)),
+                    micros(getValueAtPercentile(99.9)), micros(max));
+        }
+
+        private static double micros(long nanos) {
+            return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+        }
+    }
+}
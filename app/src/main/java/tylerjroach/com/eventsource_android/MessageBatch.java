@@ -0,0 +1,74 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * Events handed over together to a {@link BatchEventSourceHandler}, in stream order. A batch is reused from one
+ * delivery to the next: copy out what has to outlive the callback.
+ */
+public class MessageBatch {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] events = new String[INITIAL_CAPACITY];
+    private MessageEvent[] messages = new MessageEvent[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the name of the i-th event
+     */
+    public String getEvent(int i) {
+        checkIndex(i);
+        return events[i];
+    }
+
+    public MessageEvent getMessage(int i) {
+        checkIndex(i);
+        return messages[i];
+    }
+
+    public void add(String event, MessageEvent message) {
+        if (size == events.length) {
+            String[] grownEvents = new String[size << 1];
+            MessageEvent[] grownMessages = new MessageEvent[size << 1];
+            System.arraycopy(events, 0, grownEvents, 0, size);
+            System.arraycopy(messages, 0, grownMessages, 0, size);
+            events = grownEvents;
+            messages = grownMessages;
+        }
+        events[size] = event;
+        messages[size] = message;
+        size++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            events[i] = null;
+            messages[i] = null;
+        }
+        size = 0;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MessageBatch{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(events[i]).append('=').append(messages[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -1,20 +1,122 @@
 package tylerjroach.com.eventsource_android;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An event of the stream. Its data is either a String, in {@link #data}, or UTF-8 bytes that are only decoded if
+ * {@link #getData()} is called, see {@link EventSourceOptions#setByteData(boolean)}. Consumers that parse the data
+ * as JSON can hand the bytes to the parser with {@link #getDataBytes()} or {@link #getDataStream()} and skip the
+ * String altogether.
+ */
 public class MessageEvent {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The data of the event, null if the event carries bytes: use {@link #getData()} to read either kind.
+     */
     public final String data;
     public final String lastEventId;
     public final String origin;
+    /**
+     * Latency stamps of the event if it was sampled by an {@link EventTracer}, otherwise null. Not part of the
+     * value of the event.
+     */
+    public final EventTrace trace;
+
+    // the UTF-8 data of an event created from bytes, and the String decoded from it on demand
+    private final byte[] dataBytes;
+    private final int dataOffset;
+    private final int dataLength;
+    private String decodedData;
 
     public MessageEvent(String data, String lastEventId, String origin) {
+        this(data, lastEventId, origin, null);
+    }
+
+    public MessageEvent(String data, String lastEventId, String origin, EventTrace trace) {
         this.data = data;
+        this.dataBytes = null;
+        this.dataOffset = 0;
+        this.dataLength = 0;
+        this.lastEventId = lastEventId;
+        this.origin = origin;
+        this.trace = trace;
+    }
+
+    /**
+     * Creates an event carrying its data as UTF-8 bytes, without decoding them.
+     *
+     * @param data the bytes, which the event takes over: they must not be changed afterwards
+     */
+    public MessageEvent(byte[] data, int offset, int length, String lastEventId, String origin, EventTrace trace) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + data.length);
+        }
+        this.data = null;
+        this.dataBytes = data;
+        this.dataOffset = offset;
+        this.dataLength = length;
         this.lastEventId = lastEventId;
         this.origin = origin;
+        this.trace = trace;
     }
 
     public MessageEvent(String data) {
         this(data, null, null);
     }
 
+    /**
+     * @return the data, decoded from its bytes on the first call if the event carries bytes
+     */
+    public String getData() {
+        if (data != null) {
+            return data;
+        }
+        String decoded = decodedData;
+        if (decoded == null && dataBytes != null) {
+            // a race only decodes twice: Strings are safe to share without a lock
+            decoded = new String(dataBytes, dataOffset, dataLength, UTF_8);
+            decodedData = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * @return whether the data is held as bytes, so that {@link #getDataBytes()} and {@link #getDataStream()} cost
+     * no encoding
+     */
+    public boolean hasDataBytes() {
+        return dataBytes != null;
+    }
+
+    /**
+     * @return the data as UTF-8 bytes: the array of the event itself when it holds exactly the data, which must not
+     * be changed, otherwise a copy or the encoded String. Null if the event has no data.
+     */
+    public byte[] getDataBytes() {
+        if (dataBytes == null) {
+            return data != null ? data.getBytes(UTF_8) : null;
+        }
+        if (dataOffset == 0 && dataLength == dataBytes.length) {
+            return dataBytes;
+        }
+        return Arrays.copyOfRange(dataBytes, dataOffset, dataOffset + dataLength);
+    }
+
+    /**
+     * @return the data as a stream of UTF-8 bytes, read from the bytes of the event without a copy, e.g. for
+     * {@code ObjectMapper.readTree(InputStream)}. Null if the event has no data.
+     */
+    public InputStream getDataStream() {
+        if (dataBytes == null) {
+            return data != null ? new ByteArrayInputStream(data.getBytes(UTF_8)) : null;
+        }
+        return new ByteArrayInputStream(dataBytes, dataOffset, dataLength);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -22,7 +124,9 @@ public class MessageEvent {
 
         MessageEvent that = (MessageEvent) o;
 
-        if (data != null ? !data.equals(that.data) : that.data != null) return false;
+        String value = getData();
+        String thatValue = that.getData();
+        if (value != null ? !value.equals(thatValue) : thatValue != null) return false;
         if (lastEventId != null ? !lastEventId.equals(that.lastEventId) : that.lastEventId != null)
             return false;
         if (origin != null ? !origin.equals(that.origin) : that.origin != null) return false;
@@ -32,7 +136,8 @@ public class MessageEvent {
 
     @Override
     public int hashCode() {
-        int result = data != null ? data.hashCode() : 0;
+        String value = getData();
+        int result = value != null ? value.hashCode() : 0;
         result = 31 * result + (lastEventId != null ? lastEventId.hashCode() : 0);
         result = 31 * result + (origin != null ? origin.hashCode() : 0);
         return result;
@@ -41,7 +146,7 @@ public class MessageEvent {
     @Override
     public String toString() {
         return "MessageEvent{" +
-                "data='" + data + '\'' +
+                "data='" + getData() + '\'' +
                 ", lastEventId='" + lastEventId + '\'' +
                 ", origin='" + origin + '\'' +
                 '}';
@@ -0,0 +1,75 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * Limits the reconnect attempts of all the {@link EventSource} instances sharing it: at most a number of attempts
+ * in flight at once, and a token bucket capping their rate. When a backend restarts, the clients it dropped then
+ * come back at a pace it can take instead of all at once.
+ * <p/>
+ * Only reconnects are governed; the first connection of an event source is made right away.
+ */
+public class ReconnectGovernor {
+    private static ReconnectGovernor defaultGovernor;
+
+    private final int maxConcurrentAttempts;
+    private final double attemptsPerSecond;
+    private final int burst;
+
+    // guarded by this
+    private double tokens;
+    private long lastRefillNanos;
+    private int attemptsInFlight;
+
+    /**
+     * @param maxConcurrentAttempts number of connection attempts in flight at once
+     * @param attemptsPerSecond     sustained rate of attempts
+     * @param burst                 number of attempts that can start at once after a quiet period
+     */
+    public ReconnectGovernor(int maxConcurrentAttempts, double attemptsPerSecond, int burst) {
+        this.maxConcurrentAttempts = maxConcurrentAttempts;
+        this.attemptsPerSecond = attemptsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the process-wide governor: 4 attempts in flight, 10 attempts per second, bursts of 10
+     */
+    public static synchronized ReconnectGovernor getDefault() {
+        if (defaultGovernor == null) {
+            defaultGovernor = new ReconnectGovernor(4, 10, 10);
+        }
+        return defaultGovernor;
+    }
+
+    /**
+     * Takes a permit for a connection attempt, to be given back with {@link #release()} once the attempt completes.
+     *
+     * @return 0 if the permit was granted, otherwise how long to wait before asking again, in milliseconds
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * attemptsPerSecond);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return (long) Math.ceil((1 - tokens) / attemptsPerSecond * 1000);
+        }
+        if (attemptsInFlight >= maxConcurrentAttempts) {
+            // an attempt usually completes within a round trip: check back soon
+            return (long) Math.ceil(1000 / attemptsPerSecond);
+        }
+        tokens -= 1;
+        attemptsInFlight++;
+        return 0;
+    }
+
+    public synchronized void release() {
+        if (attemptsInFlight > 0) {
+            attemptsInFlight--;
+        }
+    }
+
+    public synchronized int getAttemptsInFlight() {
+        return attemptsInFlight;
+    }
+}
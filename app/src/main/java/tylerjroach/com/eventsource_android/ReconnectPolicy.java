@@ -0,0 +1,33 @@
+package tylerjroach.com.eventsource_android;
+
+/**
+ * Decides how long an {@link EventSource} waits before reconnecting after a lost connection.
+ * <p/>
+ * Policies are stateless: the attempt number and previous delay are kept by each event source, so a policy can be
+ * shared. The attempt count starts over once a new connection delivers an event.
+ */
+public interface ReconnectPolicy {
+    /**
+     * Smallest delay the growing policies start from, so that they back off even when the reconnection time is 0.
+     */
+    long MIN_BASE_DELAY_MILLIS = 100;
+
+    /**
+     * @param attempt             1 for the first reconnect after a healthy connection, then 2, 3...
+     * @param previousDelayMillis the delay returned for the previous attempt, 0 for the first one
+     * @param retryMillis         the reconnection time set by the server with {@code retry:}, or the configured
+     *                            default
+     * @return the delay before the attempt, in milliseconds
+     */
+    long delayMillis(int attempt, long previousDelayMillis, long retryMillis);
+
+    /**
+     * Always waits the reconnection time, as required by the event source specification.
+     */
+    ReconnectPolicy FIXED = new ReconnectPolicy() {
+        @Override
+        public long delayMillis(int attempt, long previousDelayMillis, long retryMillis) {
+            return retryMillis;
+        }
+    };
+}
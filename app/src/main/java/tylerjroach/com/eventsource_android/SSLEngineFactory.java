@@ -6,21 +6,65 @@ import java.security.NoSuchAlgorithmException;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
+/**
+ * Creates the engines of https connections from one {@link SSLContext}, kept for the lifetime of the factory.
+ * <p/>
+ * TLS sessions are cached by their context and looked up by peer host and port, so reusing the context and naming
+ * the peer lets reconnects resume the previous session with an abbreviated handshake instead of a full one. Factories
+ * created with the default constructor all share one default context, so a new {@link EventSource} resumes the
+ * sessions of the previous ones too.
+ */
 public class SSLEngineFactory {
+    private static SSLContext defaultContext;
+
+    private final SSLContext sslContext;
+
+    public SSLEngineFactory() {
+        this(null);
+    }
+
+    /**
+     * @param sslContext the context to create engines from, e.g. one trusting a private certificate authority
+     */
+    public SSLEngineFactory(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
     SSLEngine GetNewSSLEngine() {
-        SSLEngine sslEngine = null;
-        SSLContext sslContext;
-        try {
-            sslContext = SSLContext.getInstance("TLS");
+        SSLContext context = getSslContext();
+        if (context == null) {
+            return null;
+        }
+        return context.createSSLEngine();
+    }
+
+    /**
+     * @return an engine for the given peer, which can resume a session previously established with it
+     */
+    SSLEngine GetNewSSLEngine(String peerHost, int peerPort) {
+        SSLContext context = getSslContext();
+        if (context == null) {
+            return null;
+        }
+        return context.createSSLEngine(peerHost, peerPort);
+    }
+
+    private SSLContext getSslContext() {
+        return sslContext != null ? sslContext : getDefaultContext();
+    }
+
+    private static synchronized SSLContext getDefaultContext() {
+        if (defaultContext == null) {
             try {
-                sslContext.init(null, null, null);
-                sslEngine = sslContext.createSSLEngine();
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                defaultContext = context;
+            } catch (NoSuchAlgorithmException e) {
+                return null;
             } catch (KeyManagementException e) {
                 return null;
             }
-        } catch (NoSuchAlgorithmException e1) {
-            return null;
         }
-        return sslEngine;
+        return defaultContext;
     }
 }
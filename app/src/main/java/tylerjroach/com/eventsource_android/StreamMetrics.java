@@ -0,0 +1,272 @@
+package tylerjroach.com.eventsource_android;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tylerjroach.com.eventsource_android.impl.StripedCounter;
+
+/**
+ * The default {@link EventSourceMetrics}: counters and latency histograms that {@link #snapshot()} copies for
+ * export, e.g. to a log every minute.
+ * <pre>
+ * StreamMetrics metrics = new StreamMetrics();
+ * new EventSource(uri, requestUri, handler, headers, new EventSourceOptions().setMetrics(metrics));
+ * ...
+ * Log.d(TAG, metrics.snapshot().toString());
+ * </pre>
+ * Counters are striped, so the I/O threads and the callback threads of several event sources can share an instance
+ * without contending; recording allocates nothing, apart from the counter of an event name seen for the first time.
+ * Values are cumulative since the metrics were created.
+ */
+public class StreamMetrics implements EventSourceMetrics {
+    private static final ReconnectCause[] CAUSES = ReconnectCause.values();
+
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter linesRead = new StripedCounter();
+    private final StripedCounter readCount = new StripedCounter();
+    private final ConcurrentMap<String, StripedCounter> eventsByName = new ConcurrentHashMap<String, StripedCounter>();
+    private final ConcurrentMap<String, StripedCounter> filteredByName = new ConcurrentHashMap<String, StripedCounter>();
+    private final StripedCounter[] reconnectsByCause = new StripedCounter[CAUSES.length];
+    private final LatencyHistogram parseTimes = new LatencyHistogram();
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    private final LatencyHistogram handlerTimes = new LatencyHistogram();
+    private final LatencyHistogram connectTimes = new LatencyHistogram();
+    private final LatencyHistogram openTimes = new LatencyHistogram();
+    // nanoTime of the last event, 0 before the first one
+    private final AtomicLong lastEventNanos = new AtomicLong();
+
+    public StreamMetrics() {
+        for (int i = 0; i < reconnectsByCause.length; i++) {
+            reconnectsByCause[i] = new StripedCounter();
+        }
+    }
+
+    @Override
+    public void readParsed(int byteCount, int lineCount, long parseNanos) {
+        bytesRead.add(byteCount);
+        linesRead.add(lineCount);
+        readCount.increment();
+        parseTimes.record(parseNanos);
+    }
+
+    @Override
+    public void eventParsed(String event) {
+        increment(eventsByName, event);
+        // an ordered write is enough for a reading exported later
+        lastEventNanos.lazySet(System.nanoTime());
+    }
+
+    @Override
+    public void eventFiltered(String event) {
+        increment(filteredByName, event);
+    }
+
+    @Override
+    public void eventDequeued(long waitNanos) {
+        queueWaits.record(waitNanos);
+    }
+
+    @Override
+    public void handlerExecuted(long executionNanos) {
+        handlerTimes.record(executionNanos);
+    }
+
+    @Override
+    public void connected(long connectNanos) {
+        connectTimes.record(connectNanos);
+    }
+
+    @Override
+    public void streamOpened(long openNanos) {
+        openTimes.record(openNanos);
+    }
+
+    @Override
+    public void reconnectScheduled(ReconnectCause cause, long delayMillis) {
+        reconnectsByCause[cause.ordinal()].increment();
+    }
+
+    private static void increment(ConcurrentMap<String, StripedCounter> countersByName, String name) {
+        StripedCounter counter = countersByName.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = countersByName.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return a copy of the metrics; recording can go on while it is taken
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The metrics at the time of {@link #snapshot()}. Times are in nanoseconds.
+     */
+    public static final class Snapshot {
+        private final long bytesRead;
+        private final long linesRead;
+        private final long readCount;
+        private final Map<String, Long> eventsByName;
+        private final Map<String, Long> filteredByName;
+        private final Map<ReconnectCause, Long> reconnectsByCause;
+        private final LatencyHistogram.Snapshot parseTimes;
+        private final LatencyHistogram.Snapshot queueWaits;
+        private final LatencyHistogram.Snapshot handlerTimes;
+        private final LatencyHistogram.Snapshot connectTimes;
+        private final LatencyHistogram.Snapshot openTimes;
+        private final long millisSinceLastEvent;
+
+        private Snapshot(StreamMetrics metrics) {
+            bytesRead = metrics.bytesRead.sum();
+            linesRead = metrics.linesRead.sum();
+            readCount = metrics.readCount.sum();
+            eventsByName = sums(metrics.eventsByName);
+            filteredByName = sums(metrics.filteredByName);
+            Map<ReconnectCause, Long> reconnects = new EnumMap<ReconnectCause, Long>(ReconnectCause.class);
+            for (ReconnectCause cause : CAUSES) {
+                reconnects.put(cause, metrics.reconnectsByCause[cause.ordinal()].sum());
+            }
+            reconnectsByCause = Collections.unmodifiableMap(reconnects);
+            parseTimes = metrics.parseTimes.snapshot();
+            queueWaits = metrics.queueWaits.snapshot();
+            handlerTimes = metrics.handlerTimes.snapshot();
+            connectTimes = metrics.connectTimes.snapshot();
+            openTimes = metrics.openTimes.snapshot();
+            long last = metrics.lastEventNanos.get();
+            millisSinceLastEvent = last == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - last);
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getLinesRead() {
+            return linesRead;
+        }
+
+        /**
+         * @return the number of socket reads that carried body bytes
+         */
+        public long getReadCount() {
+            return readCount;
+        }
+
+        /**
+         * @return the number of events parsed, by event name
+         */
+        public Map<String, Long> getEventsByName() {
+            return eventsByName;
+        }
+
+        public long getEventCount() {
+            return total(eventsByName);
+        }
+
+        /**
+         * @return the number of events dropped because their name is not subscribed to, by event name
+         * @see EventSourceOptions#setEventNames(String...)
+         */
+        public Map<String, Long> getFilteredByName() {
+            return filteredByName;
+        }
+
+        public long getFilteredCount() {
+            return total(filteredByName);
+        }
+
+        /**
+         * @return the number of reconnects scheduled, by cause
+         */
+        public Map<ReconnectCause, Long> getReconnectsByCause() {
+            return reconnectsByCause;
+        }
+
+        public long getReconnectCount() {
+            long count = 0;
+            for (Long reconnects : reconnectsByCause.values()) {
+                count += reconnects;
+            }
+            return count;
+        }
+
+        /**
+         * @return the time spent parsing each read
+         */
+        public LatencyHistogram.Snapshot getParseTimes() {
+            return parseTimes;
+        }
+
+        /**
+         * @return the time events waited in the dispatch queue
+         */
+        public LatencyHistogram.Snapshot getQueueWaits() {
+            return queueWaits;
+        }
+
+        /**
+         * @return the time spent in each handler callback
+         */
+        public LatencyHistogram.Snapshot getHandlerTimes() {
+            return handlerTimes;
+        }
+
+        /**
+         * @return the time to establish each TCP connection
+         */
+        public LatencyHistogram.Snapshot getConnectTimes() {
+            return connectTimes;
+        }
+
+        /**
+         * @return the time from the start of each connection to the response of the server, including the TLS
+         * handshake
+         */
+        public LatencyHistogram.Snapshot getOpenTimes() {
+            return openTimes;
+        }
+
+        /**
+         * @return the time since the last event was parsed, -1 if none was
+         */
+        public long getMillisSinceLastEvent() {
+            return millisSinceLastEvent;
+        }
+
+        @Override
+        public String toString() {
+            return "StreamMetrics{bytes=" + bytesRead + ", lines=" + linesRead + ", reads=" + readCount
+                    + ", events=" + eventsByName + ", filtered=" + filteredByName + ", reconnects=" + reconnectsByCause
+                    + ", parse=" + parseTimes + ", queueWait=" + queueWaits + ", handler=" + handlerTimes
+                    + ", connect=" + connectTimes + ", open=" + openTimes
+                    + ", msSinceLastEvent=" + millisSinceLastEvent + '}';
+        }
+
+        private static Map<String, Long> sums(Map<String, StripedCounter> countersByName) {
+            Map<String, Long> sums = new HashMap<String, Long>();
+            for (Map.Entry<String, StripedCounter> entry : countersByName.entrySet()) {
+                sums.put(entry.getKey(), entry.getValue().sum());
+            }
+            return Collections.unmodifiableMap(sums);
+        }
+
+        private static long total(Map<String, Long> countsByName) {
+            long total = 0;
+            for (Long count : countsByName.values()) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
@@ -1,72 +1,464 @@
 package tylerjroach.com.eventsource_android.impl;
 
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import tylerjroach.com.eventsource_android.BatchEventSourceHandler;
+import tylerjroach.com.eventsource_android.DispatchOverflowPolicy;
 import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.EventSourceMetrics;
+import tylerjroach.com.eventsource_android.EventTrace;
+import tylerjroach.com.eventsource_android.MessageBatch;
 import tylerjroach.com.eventsource_android.MessageEvent;
 
+/**
+ * Hands the callbacks made on the I/O thread over to an executor, in order.
+ * <p/>
+ * Callbacks are queued in a ring of reusable entries and drained by a single task that is submitted to the executor
+ * only when the queue becomes non-empty, so a burst of events costs one executor hand-off rather than one per
+ * event. The number of queued messages is bounded by a capacity; when it is reached the
+ * {@link DispatchOverflowPolicy} decides what happens to the next message. Connect, error and close callbacks are
+ * never dropped.
+ * <p/>
+ * With {@link #enableBatching(Timer, long, int)}, consecutive messages are delivered together to a
+ * {@link BatchEventSourceHandler}, and queued messages only go to the executor on {@link #flush()}, which the
+ * connection calls at the end of each read.
+ */
 public class AsyncEventSourceHandler implements EventSourceHandler {
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    // entries delivered by one run of the drain task, before it yields the executor to other streams
+    private static final int DRAIN_BATCH = 64;
+    private static final int INITIAL_RING_SIZE = 16;
+
+    private static final int CONNECT = 0;
+    private static final int MESSAGE = 1;
+    private static final int ERROR = 2;
+    private static final int CLOSED = 3;
+
     private final Executor executor;
     private final EventSourceHandler eventSourceHandler;
+    private final int capacity;
+    private final DispatchOverflowPolicy overflowPolicy;
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final TimerTask windowTask = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+            closeWindow();
+        }
+    };
+    private volatile ConnectionHandler connectionHandler;
+    // set before the first callback
+    private EventSourceMetrics metrics;
+
+    // set before the first callback; the batch itself is only touched by the drain task
+    private BatchEventSourceHandler batchHandler;
+    private Timer timer;
+    private long batchWindowMillis;
+    private int maxBatchSize;
+    private final MessageBatch batch = new MessageBatch();
+
+    // guarded by this
+    private Entry[] ring = newEntries(INITIAL_RING_SIZE);
+    private int head;
+    private int size;
+    private int messageCount;
+    private boolean drainScheduled;
+    private boolean windowOpen;
+    private boolean readPaused;
+    private long droppedCount;
+    private long conflatedCount;
 
     public AsyncEventSourceHandler(Executor executor, EventSourceHandler eventSourceHandler) {
+        this(executor, eventSourceHandler, UNBOUNDED, DispatchOverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param capacity       maximum number of queued messages, or {@link #UNBOUNDED}
+     * @param overflowPolicy what to do with a message arriving when the queue is full
+     */
+    public AsyncEventSourceHandler(Executor executor, EventSourceHandler eventSourceHandler, int capacity, DispatchOverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
         this.executor = executor;
         this.eventSourceHandler = eventSourceHandler;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param connectionHandler the connection paused by {@link DispatchOverflowPolicy#BLOCK}
+     */
+    public void setConnectionHandler(ConnectionHandler connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    /**
+     * @param metrics receives the time messages wait in the queue and the time the handler takes, null for none.
+     *                Must be called before the first callback.
+     */
+    public void setMetrics(EventSourceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Delivers consecutive messages in batches. Must be called before the first callback.
+     *
+     * @param timer             closes time windows
+     * @param batchWindowMillis how long messages are held after a read to gather more of them, 0 to deliver the
+     *                          messages of each read as soon as it is decoded
+     * @param maxBatchSize      number of messages that closes a window early, and maximum size of a batch
+     */
+    public void enableBatching(Timer timer, long batchWindowMillis, int maxBatchSize) {
+        if (!(eventSourceHandler instanceof BatchEventSourceHandler)) {
+            throw new IllegalArgumentException(eventSourceHandler + " does not handle batches");
+        }
+        this.batchHandler = (BatchEventSourceHandler) eventSourceHandler;
+        this.timer = timer;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Marks the end of a read: the messages queued so far are handed to the executor, at once or when the batch
+     * window closes.
+     */
+    public void flush() {
+        if (batchHandler == null) {
+            return;
+        }
+        synchronized (this) {
+            if (size == 0 || drainScheduled) {
+                return;
+            }
+            if (batchWindowMillis > 0 && messageCount < maxBatchSize) {
+                if (!windowOpen) {
+                    windowOpen = true;
+                    timer.newTimeout(windowTask, batchWindowMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.execute(drainTask);
+    }
+
+    private void closeWindow() {
+        synchronized (this) {
+            windowOpen = false;
+            if (size == 0 || drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.execute(drainTask);
     }
 
     @Override
     public void onConnect() {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    eventSourceHandler.onConnect();
-                } catch (Exception e) {
-                    onError(e);
+        enqueue(CONNECT, null, null, null, false);
+    }
+
+    @Override
+    public void onClosed(boolean willReconnect) {
+        enqueue(CLOSED, null, null, null, willReconnect);
+    }
+
+    @Override
+    public void onMessage(String event, MessageEvent message) {
+        enqueue(MESSAGE, event, message, null, false);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        enqueue(ERROR, null, null, error, false);
+    }
+
+    /**
+     * @return the number of callbacks waiting for the executor
+     */
+    public synchronized int getQueueDepth() {
+        return size;
+    }
+
+    /**
+     * @return the number of messages dropped because the queue was full
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of queued messages replaced by a newer message of the same event name
+     */
+    public synchronized long getConflatedCount() {
+        return conflatedCount;
+    }
+
+    private void enqueue(int type, String event, MessageEvent message, Throwable error, boolean willReconnect) {
+        boolean schedule = false;
+        long now = metrics != null ? System.nanoTime() : 0;
+        synchronized (this) {
+            if (type == MESSAGE && messageCount >= capacity) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        if (!readPaused) {
+                            // under the lock, so that it cannot overtake the resume of a concurrent drain
+                            readPaused = true;
+                            setReadable(false);
+                        }
+                        break;
+                    case CONFLATE_LATEST:
+                        // the new message goes to the tail either way, behind the messages queued before it
+                        if (!conflate(event)) {
+                            dropOldestMessage();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        dropOldestMessage();
+                        break;
                 }
             }
-        });
+            if (size == ring.length) {
+                grow();
+            }
+            Entry added = ring[(head + size) % ring.length];
+            added.set(type, event, message, error, willReconnect);
+            added.enqueuedNanos = now;
+            size++;
+            if (type == MESSAGE) {
+                messageCount++;
+            }
+            // batched messages wait for flush(), unless they already fill a batch
+            boolean held = batchHandler != null && type == MESSAGE && messageCount < maxBatchSize;
+            if (!drainScheduled && !held) {
+                drainScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            executor.execute(drainTask);
+        }
     }
 
-    @Override
-    public void onClosed(final boolean willReconnect) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    eventSourceHandler.onClosed(willReconnect);
-                } catch (Exception e) {
-                    onError(e);
+    private void drain() {
+        int type;
+        String event;
+        MessageEvent message;
+        Throwable error;
+        boolean willReconnect;
+        EventSourceMetrics metrics = this.metrics;
+        for (int delivered = 0; ; delivered++) {
+            synchronized (this) {
+                if (size == 0) {
+                    drainScheduled = false;
+                    return;
+                }
+                if (delivered == DRAIN_BATCH) {
+                    // let the other streams sharing the executor run, then carry on
+                    executor.execute(drainTask);
+                    return;
+                }
+                Entry entry = ring[head];
+                type = entry.type;
+                event = entry.event;
+                message = entry.message;
+                error = entry.error;
+                willReconnect = entry.willReconnect;
+                if (batchHandler != null && type == MESSAGE) {
+                    while (size != 0 && ring[head].type == MESSAGE && batch.size() < maxBatchSize) {
+                        entry = ring[head];
+                        batch.add(entry.event, entry.message);
+                        if (metrics != null) {
+                            metrics.eventDequeued(System.nanoTime() - entry.enqueuedNanos);
+                        }
+                        remove(entry);
+                    }
+                } else {
+                    if (metrics != null && type == MESSAGE) {
+                        metrics.eventDequeued(System.nanoTime() - entry.enqueuedNanos);
+                    }
+                    remove(entry);
                 }
+                if (readPaused && messageCount <= capacity / 2) {
+                    readPaused = false;
+                    setReadable(true);
+                }
+            }
+            long start = metrics != null ? System.nanoTime() : 0;
+            if (batch.isEmpty()) {
+                deliver(type, event, message, error, willReconnect);
+            } else {
+                deliver(batch);
             }
-        });
+            if (metrics != null && type == MESSAGE) {
+                metrics.handlerExecuted(System.nanoTime() - start);
+            }
+        }
     }
 
-    @Override
-    public void onMessage(final String event, final MessageEvent message) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
+    /**
+     * Removes the entry at the head of the ring. Caller holds the lock.
+     */
+    private void remove(Entry entry) {
+        if (entry.type == MESSAGE) {
+            messageCount--;
+        }
+        entry.clear();
+        head = (head + 1) % ring.length;
+        size--;
+    }
+
+    private void deliver(MessageBatch batch) {
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                stampDelivered(batch.getMessage(i));
+            }
+            batchHandler.onMessages(batch);
+        } catch (Exception e) {
+            onError(e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void deliver(int type, String event, MessageEvent message, Throwable error, boolean willReconnect) {
+        try {
+            switch (type) {
+                case CONNECT:
+                    eventSourceHandler.onConnect();
+                    break;
+                case MESSAGE:
+                    stampDelivered(message);
                     eventSourceHandler.onMessage(event, message);
-                } catch (Exception e) {
-                    onError(e);
-                }
+                    break;
+                case CLOSED:
+                    eventSourceHandler.onClosed(willReconnect);
+                    break;
+                case ERROR:
+                    try {
+                        eventSourceHandler.onError(error);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                    break;
             }
-        });
+        } catch (Exception e) {
+            onError(e);
+        }
     }
 
-    @Override
-    public void onError(final Throwable error) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    eventSourceHandler.onError(error);
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                }
+    private static void stampDelivered(MessageEvent message) {
+        EventTrace trace = message.trace;
+        if (trace != null) {
+            trace.stamp(EventTrace.Stage.DELIVERED);
+        }
+    }
+
+    private void setReadable(boolean readable) {
+        ConnectionHandler connection = connectionHandler;
+        if (connection != null) {
+            connection.setReadable(readable);
+        }
+    }
+
+    /**
+     * Removes the newest queued message with the same event name, if any. Caller holds the lock.
+     */
+    private boolean conflate(String event) {
+        for (int i = size - 1; i >= 0; i--) {
+            Entry entry = ring[(head + i) % ring.length];
+            if (entry.type == MESSAGE && entry.event.equals(event)) {
+                removeMessage(i);
+                conflatedCount++;
+                return true;
             }
-        });
+        }
+        return false;
+    }
+
+    /**
+     * Removes the oldest queued message. Caller holds the lock.
+     */
+    private void dropOldestMessage() {
+        int offset = 0;
+        while (ring[(head + offset) % ring.length].type != MESSAGE) {
+            offset++;
+        }
+        removeMessage(offset);
+        droppedCount++;
+    }
+
+    /**
+     * Removes the message at the offset from the head, moving the entries in front of it up by one. Caller holds
+     * the lock.
+     */
+    private void removeMessage(int offset) {
+        for (int i = offset; i > 0; i--) {
+            int to = (head + i) % ring.length;
+            int from = (head + i - 1) % ring.length;
+            Entry removed = ring[to];
+            ring[to] = ring[from];
+            ring[from] = removed;
+        }
+        ring[head].clear();
+        head = (head + 1) % ring.length;
+        size--;
+        messageCount--;
+    }
+
+    /**
+     * Doubles the ring, which is full. Caller holds the lock.
+     */
+    private void grow() {
+        Entry[] grown = new Entry[ring.length << 1];
+        for (int i = 0; i < ring.length; i++) {
+            grown[i] = ring[(head + i) % ring.length];
+        }
+        for (int i = ring.length; i < grown.length; i++) {
+            grown[i] = new Entry();
+        }
+        ring = grown;
+        head = 0;
+    }
+
+    private static Entry[] newEntries(int length) {
+        Entry[] entries = new Entry[length];
+        for (int i = 0; i < length; i++) {
+            entries[i] = new Entry();
+        }
+        return entries;
+    }
+
+    private static class Entry {
+        int type;
+        String event;
+        MessageEvent message;
+        Throwable error;
+        boolean willReconnect;
+        // System.nanoTime() when queued, 0 without metrics
+        long enqueuedNanos;
+
+        void set(int type, String event, MessageEvent message, Throwable error, boolean willReconnect) {
+            this.type = type;
+            this.event = event;
+            this.message = message;
+            this.error = error;
+            this.willReconnect = willReconnect;
+        }
+
+        void clear() {
+            set(-1, null, null, null, false);
+        }
     }
 }
@@ -4,4 +4,10 @@ public interface ConnectionHandler {
     void setReconnectionTimeMillis(long reconnectionTimeMillis);
 
     void setLastEventId(String lastEventId);
+
+    /**
+     * Suspends or resumes reading from the connection, to push back on the server when events are not consumed
+     * fast enough.
+     */
+    void setReadable(boolean readable);
 }
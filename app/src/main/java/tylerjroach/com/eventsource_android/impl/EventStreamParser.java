@@ -1,31 +1,64 @@
 package tylerjroach.com.eventsource_android.impl;
 
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Set;
 
+import tylerjroach.com.eventsource_android.EventJournal;
 import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.EventSourceMetrics;
+import tylerjroach.com.eventsource_android.EventTrace;
+import tylerjroach.com.eventsource_android.EventTracer;
 import tylerjroach.com.eventsource_android.MessageEvent;
 
 /**
  * <a href="http://dev.w3.org/html5/eventsource/#event-stream-interpretation">Interprets an event stream</a>
  * and dispatches messages to the {@link tylerjroach.com.eventsource_android.EventSourceHandler}.
+ * <p/>
+ * Lines are interpreted in place as UTF-8 byte ranges: field names are matched byte by byte, field values are copied
+ * into buffers that live as long as the parser, and Strings are only built when an event is dispatched. In steady
+ * state a field line produces no garbage. With {@link #setByteData(boolean)}, the data of an event is not even
+ * decoded: the event gets a copy of its UTF-8 bytes. With {@link #setEventNames(Set)}, the other events are dropped
+ * before their data is decoded.
  */
 public class EventStreamParser {
-    private static final String DATA = "data";
-    private static final String ID = "id";
-    private static final String EVENT = "event";
-    private static final String RETRY = "retry";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] DATA = {'d', 'a', 't', 'a'};
+    private static final byte[] ID = {'i', 'd'};
+    private static final byte[] EVENT = {'e', 'v', 'e', 'n', 't'};
+    private static final byte[] RETRY = {'r', 'e', 't', 'r', 'y'};
 
     private static final String DEFAULT_EVENT = "message";
-    private static final String EMPTY_STRING = "";
-    private static final Pattern DIGITS_ONLY = Pattern.compile("^[\\d]+$");
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int EVENT_NAME_CACHE_SIZE = 16;
 
     private final EventSourceHandler eventSourceHandler;
     private final ConnectionHandler connectionHandler;
     private final String origin;
+    private EventJournal journal;
+    private EventTracer tracer;
+    private long readNanos;
+    private long readMillis;
+    private boolean byteData;
+    private EventSourceMetrics metrics;
+    // the UTF-8 names of the events to dispatch, null for all
+    private byte[][] eventNames;
+    private boolean defaultEventWanted = true;
 
-    private StringBuffer data = new StringBuffer();
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private int dataLength;
+    private byte[] eventName = new byte[INITIAL_CAPACITY];
+    // -1 stands for the default event name
+    private int eventNameLength = -1;
+    private byte[] id = new byte[INITIAL_CAPACITY];
+    private int idLength;
+    private boolean idChanged;
     private String lastEventId;
-    private String eventName = DEFAULT_EVENT;
+
+    private final String[] eventNameCache = new String[EVENT_NAME_CACHE_SIZE];
+    private int eventNameCacheSize;
 
     public EventStreamParser(String origin, EventSourceHandler eventSourceHandler, ConnectionHandler connectionHandler) {
         this.eventSourceHandler = eventSourceHandler;
@@ -33,61 +66,354 @@ public class EventStreamParser {
         this.connectionHandler = connectionHandler;
     }
 
+    /**
+     * @param journal receives each event before it is dispatched, null for none
+     */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @param tracer samples the events dispatched for latency tracing, null for none
+     */
+    public void setTracer(EventTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * @param readNanos {@link System#nanoTime()} when the bytes of the next lines were read, stamped on the traced
+     *                  events they complete
+     */
+    public void setReadNanos(long readNanos) {
+        this.readNanos = readNanos;
+    }
+
+    /**
+     * @param readMillis {@link System#currentTimeMillis()} when the bytes of the next lines were read, the receive
+     *                   time journaled for the events they complete; 0 to take the time of each event's dispatch
+     */
+    public void setReadMillis(long readMillis) {
+        this.readMillis = readMillis;
+    }
+
+    /**
+     * @param byteData whether events carry their data as UTF-8 bytes, decoded only if the handler asks for a
+     *                 String, see {@link MessageEvent#getData()}
+     */
+    public void setByteData(boolean byteData) {
+        this.byteData = byteData;
+    }
+
+    /**
+     * @param metrics counts the events filtered out, null for none
+     */
+    public void setMetrics(EventSourceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param eventNames the names of the events to dispatch, null for all. An event is dropped when it ends if
+     *                   its name, given by the last {@code event} line before its end wherever that line comes, is
+     *                   not one of them: its data is not decoded, and it does not change the last event id reported
+     *                   to the connection, so a reconnect resumes after the last event dispatched.
+     */
+    public void setEventNames(Set<String> eventNames) {
+        if (eventNames == null) {
+            this.eventNames = null;
+            defaultEventWanted = true;
+            return;
+        }
+        this.eventNames = new byte[eventNames.size()][];
+        int i = 0;
+        for (String eventName : eventNames) {
+            this.eventNames[i++] = eventName.getBytes(UTF_8);
+        }
+        defaultEventWanted = eventNames.contains(DEFAULT_EVENT);
+    }
+
     public void line(String line) {
-        int colonIndex;
-        if (line.trim().isEmpty()) {
+        byte[] bytes = line.getBytes(UTF_8);
+        line(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Interprets one line, given as a UTF-8 byte range without its terminator. The bytes are not retained.
+     */
+    public void line(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        if (isBlank(buffer, offset, end)) {
             dispatchEvent();
-        } else if (line.startsWith(":")) {
+        } else if (buffer[offset] == ':') {
             // ignore
-        } else if ((colonIndex = line.indexOf(":")) != -1) {
-            String field = line.substring(0, colonIndex);
-            String value = line.substring(colonIndex + 1).replaceFirst(" ", EMPTY_STRING);
-            processField(field, value);
         } else {
-            processField(line.trim(), EMPTY_STRING); // The spec doesn't say we need to trim the line, but I assume that's an oversight.
+            int colonIndex = indexOf(buffer, offset, end, (byte) ':');
+            if (colonIndex != -1) {
+                int valueStart = colonIndex + 1;
+                if (valueStart < end && buffer[valueStart] == ' ') {
+                    valueStart++;
+                }
+                processField(buffer, offset, colonIndex, valueStart, end);
+            } else {
+                // The spec doesn't say we need to trim the line, but I assume that's an oversight.
+                int fieldStart = offset;
+                int fieldEnd = end;
+                while ((buffer[fieldStart] & 0xff) <= ' ') {
+                    fieldStart++;
+                }
+                while ((buffer[fieldEnd - 1] & 0xff) <= ' ') {
+                    fieldEnd--;
+                }
+                processField(buffer, fieldStart, fieldEnd, fieldEnd, fieldEnd);
+            }
         }
     }
 
-    private void processField(String field, String value) {
-        if (DATA.equals(field)) {
-            data.append(value).append("\n");
-        } else if (ID.equals(field)) {
-            lastEventId = value;
-        } else if (EVENT.equals(field)) {
-            eventName = value;
-        } else if (RETRY.equals(field) && isNumber(value)) {
-            connectionHandler.setReconnectionTimeMillis(Long.parseLong(value));
+    private void processField(byte[] buffer, int fieldStart, int fieldEnd, int valueStart, int valueEnd) {
+        int valueLength = valueEnd - valueStart;
+        if (matches(DATA, buffer, fieldStart, fieldEnd)) {
+            data = ensureCapacity(data, dataLength, valueLength + 1);
+            System.arraycopy(buffer, valueStart, data, dataLength, valueLength);
+            dataLength += valueLength;
+            data[dataLength++] = '\n';
+        } else if (matches(ID, buffer, fieldStart, fieldEnd)) {
+            if (!idChanged && lastEventId != null && regionEquals(id, idLength, buffer, valueStart, valueLength)) {
+                return;
+            }
+            id = ensureCapacity(id, 0, valueLength);
+            System.arraycopy(buffer, valueStart, id, 0, valueLength);
+            idLength = valueLength;
+            idChanged = true;
+        } else if (matches(EVENT, buffer, fieldStart, fieldEnd)) {
+            eventName = ensureCapacity(eventName, 0, valueLength);
+            System.arraycopy(buffer, valueStart, eventName, 0, valueLength);
+            eventNameLength = valueLength;
+        } else if (matches(RETRY, buffer, fieldStart, fieldEnd)) {
+            long retry = parseDigits(buffer, valueStart, valueEnd);
+            if (retry >= 0) {
+                connectionHandler.setReconnectionTimeMillis(retry);
+            }
         }
     }
 
-    private boolean isNumber(String value) {
-        return DIGITS_ONLY.matcher(value).matches();
-    }
-
     private void dispatchEvent() {
-        if (data.length() == 0) {
+        if (dataLength > 0 && !isWanted()) {
+            if (metrics != null) {
+                metrics.eventFiltered(eventName());
+            }
+            // the id of a filtered event, if any, is left for the next event dispatched to report
+            reset();
+            return;
+        }
+        if (dataLength == 0) {
+            eventNameLength = -1;
             return;
         }
-        String dataString = data.toString();
-        if (dataString.endsWith("\n")) {
-            dataString = dataString.substring(0, dataString.length() - 1);
+        if (idChanged) {
+            lastEventId = new String(id, 0, idLength, UTF_8);
+            idChanged = false;
+        }
+        if (journal != null) {
+            journal();
+        }
+        EventTrace trace = tracer != null ? tracer.sample() : null;
+        if (trace != null) {
+            if (readNanos != 0) {
+                trace.stamp(EventTrace.Stage.READ, readNanos);
+            }
+            trace.stamp(EventTrace.Stage.PARSED);
+        }
+        // the data buffer always ends with the line feed appended after its last line
+        MessageEvent message;
+        if (byteData) {
+            message = new MessageEvent(Arrays.copyOf(data, dataLength - 1), 0, dataLength - 1, lastEventId, origin,
+                    trace);
+        } else {
+            message = new MessageEvent(new String(data, 0, dataLength - 1, UTF_8), lastEventId, origin, trace);
         }
-        MessageEvent message = new MessageEvent(dataString, lastEventId, origin);
         connectionHandler.setLastEventId(lastEventId);
         try {
-            eventSourceHandler.onMessage(eventName, message);
+            eventSourceHandler.onMessage(eventName(), message);
         } catch (Exception e) {
             eventSourceHandler.onError(e);
         }
-        data = new StringBuffer();
-        eventName = DEFAULT_EVENT;
+        dataLength = 0;
+        eventNameLength = -1;
+    }
+
+    /**
+     * @return whether the current event name is one to dispatch
+     */
+    private boolean isWanted() {
+        if (eventNameLength == -1) {
+            return defaultEventWanted;
+        }
+        return eventNames == null || isWanted(eventName, 0, eventNameLength);
+    }
+
+    private boolean isWanted(byte[] buffer, int start, int length) {
+        for (byte[] eventName : eventNames) {
+            if (regionEquals(eventName, eventName.length, buffer, start, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void journal() {
+        try {
+            long receivedAtMillis = readMillis != 0 ? readMillis : System.currentTimeMillis();
+            journal.append(lastEventId != null ? id : null, idLength, eventNameLength != -1 ? eventName : null,
+                    eventNameLength, data, dataLength - 1, receivedAtMillis);
+        } catch (IOException e) {
+            // the stream goes on without a journal that cannot be written to
+            journal = null;
+            eventSourceHandler.onError(e);
+        }
     }
 
     public void lines(String lines) {
-        String[] lineArray = lines.split("\n", -1);
-        for (String line : lineArray) {
-            line(line);
+        byte[] bytes = lines.getBytes(UTF_8);
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                line(bytes, lineStart, i - lineStart);
+                lineStart = i + 1;
+            }
+        }
+        line(bytes, lineStart, bytes.length - lineStart);
+    }
+
+    /**
+     * Sets the id reported with the next events until the stream sends an {@code id} field, e.g. when resuming a
+     * stream from a stored id.
+     */
+    public void setLastEventId(String lastEventId) {
+        this.lastEventId = lastEventId;
+        idChanged = false;
+        if (lastEventId != null) {
+            byte[] bytes = lastEventId.getBytes(UTF_8);
+            id = ensureCapacity(id, 0, bytes.length);
+            System.arraycopy(bytes, 0, id, 0, bytes.length);
+            idLength = bytes.length;
+        }
+    }
+
+    /**
+     * Drops the event being accumulated, e.g. when the connection is re-established. The last event id is kept.
+     */
+    public void reset() {
+        dataLength = 0;
+        eventNameLength = -1;
+    }
+
+    /**
+     * Event names come from a small set, so the String for each one is built once and then looked up by its bytes.
+     */
+    private String eventName() {
+        if (eventNameLength == -1) {
+            return DEFAULT_EVENT;
+        }
+        for (int i = 0; i < eventNameCacheSize; i++) {
+            String cached = eventNameCache[i];
+            if (equalsAscii(cached, eventName, eventNameLength)) {
+                return cached;
+            }
+        }
+        String name = new String(eventName, 0, eventNameLength, UTF_8);
+        if (eventNameCacheSize < EVENT_NAME_CACHE_SIZE && isAscii(eventName, eventNameLength)) {
+            eventNameCache[eventNameCacheSize++] = name;
+        }
+        return name;
+    }
+
+    private static boolean matches(byte[] field, byte[] buffer, int start, int end) {
+        if (end - start != field.length) {
+            return false;
+        }
+        for (int i = 0; i < field.length; i++) {
+            if (buffer[start + i] != field[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte[] buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buffer[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of a non-empty, digits only field, or -1
+     */
+    private static long parseDigits(byte[] buffer, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean regionEquals(byte[] a, int aLength, byte[] b, int bStart, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[i] != b[bStart + i]) {
+                return false;
+            }
         }
+        return true;
     }
 
+    private static boolean equalsAscii(String s, byte[] bytes, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int used, int extra) {
+        int required = used + extra;
+        if (required <= buffer.length) {
+            return buffer;
+        }
+        byte[] grown = new byte[Math.max(required, buffer.length << 1)];
+        System.arraycopy(buffer, 0, grown, 0, used);
+        return grown;
+    }
 }
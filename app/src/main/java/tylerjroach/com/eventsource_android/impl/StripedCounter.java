@@ -0,0 +1,51 @@
+package tylerjroach.com.eventsource_android.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads update without contending, for Java 7 and Android where
+ * {@code java.util.concurrent.atomic.LongAdder} is not available.
+ * <p/>
+ * Each thread adds to one of several cells picked from its id, and {@link #sum()} adds the cells up. Cells are
+ * spaced {@value #CELL_STRIDE} longs apart in one array, so that cells updated by different threads are not on the
+ * same cache line. The sum is not an atomic snapshot while updates are in progress.
+ */
+public final class StripedCounter {
+    // 128 bytes between cells: a cache line, and the line fetched along with it
+    private static final int CELL_STRIDE = 16;
+    private static final int MAX_CELLS = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        int cellCount = 1;
+        while (cellCount < MAX_CELLS && cellCount < Runtime.getRuntime().availableProcessors() * 2) {
+            cellCount <<= 1;
+        }
+        this.cells = new AtomicLongArray(cellCount * CELL_STRIDE);
+        this.mask = cellCount - 1;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.addAndGet(cell(), value);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += CELL_STRIDE) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    private int cell() {
+        // thread ids are sequential: mix them so that threads created together use different cells
+        long id = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+        return ((int) (id >>> 32) & mask) * CELL_STRIDE;
+    }
+}
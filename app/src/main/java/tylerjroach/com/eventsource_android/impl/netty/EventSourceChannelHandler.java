@@ -1,8 +1,11 @@
 package tylerjroach.com.eventsource_android.impl.netty;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
@@ -12,6 +15,7 @@ import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timeout;
@@ -22,67 +26,217 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 
+import tylerjroach.com.eventsource_android.EventJournal;
+import tylerjroach.com.eventsource_android.EventSourceMetrics;
+import tylerjroach.com.eventsource_android.EventTracer;
 import tylerjroach.com.eventsource_android.EventSourceException;
 import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.LastEventIdStore;
+import tylerjroach.com.eventsource_android.ReconnectGovernor;
+import tylerjroach.com.eventsource_android.ReconnectPolicy;
+import tylerjroach.com.eventsource_android.impl.AsyncEventSourceHandler;
 import tylerjroach.com.eventsource_android.impl.ConnectionHandler;
 import tylerjroach.com.eventsource_android.impl.EventStreamParser;
 
-public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler implements ConnectionHandler {
-    private static final Pattern STATUS_PATTERN = Pattern.compile("HTTP/1.1 (\\d+) (.*)");
-    private static final Pattern CONTENT_TYPE_PATTERN = Pattern.compile("Content-Type: text/event-stream(.*)");
+public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler implements ConnectionHandler, EventStreamFramer.LineHandler {
+    private static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
 
     private final EventSourceHandler eventSourceHandler;
+    private final AsyncEventSourceHandler asyncHandler;
     private final ClientBootstrap bootstrap;
     private final Map<String, String> headers;
     private final EventStreamParser messageDispatcher;
-    private final Timer timer = new HashedWheelTimer();
+    private final Timer timer;
     private URI uri, requestUri;
-    private Channel channel;
-    private boolean reconnectOnClose = true;
+    private volatile Channel channel;
+    private volatile boolean readable = true;
+    private volatile boolean reconnectOnClose = true;
     private long reconnectionTimeMillis;
     private String lastEventId;
     private boolean eventStreamOk;
-    private boolean headerDone;
-    private Integer status;
     private AtomicBoolean reconnecting = new AtomicBoolean(false);
-    private StringBuffer data = new StringBuffer();
+    private LastEventIdStore lastEventIdStore;
+    private String snapshotEventName;
+    private boolean streamOpened;
+    private boolean resumeRequested;
+    private boolean awaitingResumeOutcome;
+    private boolean awaitingFirstEvent;
+    private ReconnectPolicy reconnectPolicy = ReconnectPolicy.FIXED;
+    private volatile ReconnectGovernor reconnectGovernor;
+    private int reconnectAttempt;
+    private long reconnectDelayMillis;
+    private final AtomicLong resumedReconnects = new AtomicLong();
+    private final AtomicLong snapshotReconnects = new AtomicLong();
+    private final EventStreamFramer framer = new EventStreamFramer();
+    private EventSourceMetrics metrics;
+    private boolean tracing;
+    private boolean journaling;
+    private boolean acceptCompression;
+    private long connectStartNanos;
+    private int readLineCount;
+    private EventSourceMetrics.ReconnectCause closeCause = EventSourceMetrics.ReconnectCause.END_OF_STREAM;
 
     public EventSourceChannelHandler(EventSourceHandler eventSourceHandler, long reconnectionTimeMillis, ClientBootstrap bootstrap, URI uri, URI requestUri, Map<String, String> headers) {
-        this(eventSourceHandler, reconnectionTimeMillis, bootstrap, uri, headers);
-        this.requestUri = requestUri;
+        this(eventSourceHandler, reconnectionTimeMillis, bootstrap, new HashedWheelTimer(), uri, requestUri, headers);
     }
 
     public EventSourceChannelHandler(EventSourceHandler eventSourceHandler, long reconnectionTimeMillis, ClientBootstrap bootstrap, URI uri, Map<String, String> headers) {
+        this(eventSourceHandler, reconnectionTimeMillis, bootstrap, new HashedWheelTimer(), uri, null, headers);
+    }
+
+    /**
+     * @param timer schedules reconnects, usually the timer of a shared {@link tylerjroach.com.eventsource_android.EventSourceTransport}
+     */
+    public EventSourceChannelHandler(EventSourceHandler eventSourceHandler, long reconnectionTimeMillis, ClientBootstrap bootstrap, Timer timer, URI uri, URI requestUri, Map<String, String> headers) {
         this.eventSourceHandler = eventSourceHandler;
+        this.asyncHandler = eventSourceHandler instanceof AsyncEventSourceHandler ? (AsyncEventSourceHandler) eventSourceHandler : null;
         this.reconnectionTimeMillis = reconnectionTimeMillis;
         this.bootstrap = bootstrap;
+        this.timer = timer;
+        this.requestUri = requestUri;
         this.uri = uri;
         this.headers = headers;
-        this.messageDispatcher = new EventStreamParser(uri.toString(), eventSourceHandler, this);
+        this.messageDispatcher = new EventStreamParser(uri.toString(), new StreamTracker(eventSourceHandler), this);
     }
 
-    private static boolean isHexNumber(String cadena) {
-        try {
-            Long.parseLong(cadena, 16);
-            return true;
-        } catch (NumberFormatException ex) {
-            // Error handling code...
-            return false;
+    /**
+     * Resumes the stream from the id held by the store, and keeps the store up to date with the id of each
+     * dispatched event. Must be called before the first connection.
+     */
+    public void setLastEventIdStore(LastEventIdStore lastEventIdStore) {
+        this.lastEventIdStore = lastEventIdStore;
+        if (lastEventIdStore != null) {
+            lastEventId = lastEventIdStore.load();
+            messageDispatcher.setLastEventId(lastEventId);
         }
     }
 
+    /**
+     * @param journal records each event before it is dispatched, null for none. Must be called before the first
+     *                connection.
+     */
+    public void setJournal(EventJournal journal) {
+        this.journaling = journal != null;
+        messageDispatcher.setJournal(journal);
+    }
+
+    /**
+     * @param metrics receives the measurements of the connection, null for none. Must be called before the first
+     *                connection.
+     */
+    public void setMetrics(EventSourceMetrics metrics) {
+        this.metrics = metrics;
+        messageDispatcher.setMetrics(metrics);
+    }
+
+    /**
+     * @param tracer samples events for latency tracing, null for none. Must be called before the first connection.
+     */
+    public void setTracer(EventTracer tracer) {
+        this.tracing = tracer != null;
+        messageDispatcher.setTracer(tracer);
+    }
+
+    /**
+     * @param byteData whether events carry their data as UTF-8 bytes rather than a String. Must be called before
+     *                 the first connection.
+     */
+    public void setByteData(boolean byteData) {
+        messageDispatcher.setByteData(byteData);
+    }
+
+    /**
+     * @param eventNames the names of the events to dispatch, null for all. Must be called before the first
+     *                   connection.
+     */
+    public void setEventNames(Set<String> eventNames) {
+        messageDispatcher.setEventNames(eventNames);
+    }
+
+    /**
+     * @param maxLineLength longest event stream line accepted, in bytes; a longer line fails the connection. Must
+     *                      be called before the first connection.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        framer.setMaxLineLength(maxLineLength);
+    }
+
+    /**
+     * @param acceptCompression whether requests advertise {@code Accept-Encoding: gzip, deflate}; the pipeline must
+     *                          then have an {@link EventStreamInflater} in front of this handler
+     */
+    public void setAcceptCompression(boolean acceptCompression) {
+        this.acceptCompression = acceptCompression;
+    }
+
+    /**
+     * @param snapshotEventName name of the event carrying a full snapshot: when it is the first event after a
+     *                          reconnect sent with {@code Last-Event-ID}, the server did not resume the stream
+     */
+    public void setSnapshotEventName(String snapshotEventName) {
+        this.snapshotEventName = snapshotEventName;
+    }
+
+    /**
+     * @param reconnectPolicy delays reconnects, {@link ReconnectPolicy#FIXED} by default
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * @param reconnectGovernor paces reconnects across event sources, or null to reconnect as soon as the delay is
+     *                          over
+     */
+    public void setReconnectGovernor(ReconnectGovernor reconnectGovernor) {
+        this.reconnectGovernor = reconnectGovernor;
+    }
+
+    /**
+     * @return the number of reconnects the server resumed from the {@code Last-Event-ID} sent
+     */
+    public long getResumedReconnectCount() {
+        return resumedReconnects.get();
+    }
+
+    /**
+     * @return the number of reconnects that started over from a snapshot, either because no event id was known yet
+     * or because the server answered a {@code Last-Event-ID} with a snapshot event
+     */
+    public long getSnapshotReconnectCount() {
+        return snapshotReconnects.get();
+    }
+
     @Override
     public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
         super.handleUpstream(ctx, e);
     }
 
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        // a new connection attempt
+        connectStartNanos = System.nanoTime();
+        closeCause = EventSourceMetrics.ReconnectCause.END_OF_STREAM;
+        // known from the start, so that close() and join() see a connection still being opened
+        channel = e.getChannel();
+        super.channelOpen(ctx, e);
+    }
+
     @Override
     public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (!reconnectOnClose) {
+            // closed while connecting
+            e.getChannel().close();
+            return;
+        }
+        if (metrics != null) {
+            metrics.connected(System.nanoTime() - connectStartNanos);
+        }
 
         HttpRequest request;
 
@@ -102,11 +256,18 @@ public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler impl
         request.addHeader(Names.HOST, uri.getHost());
         request.addHeader(Names.ORIGIN, uri.getScheme() + "://" + uri.getHost());
         request.addHeader(Names.CACHE_CONTROL, "no-cache");
+        if (acceptCompression) {
+            request.addHeader(Names.ACCEPT_ENCODING, "gzip, deflate");
+        }
         if (lastEventId != null) {
             request.addHeader("Last-Event-ID", lastEventId);
         }
+        resumeRequested = lastEventId != null;
         e.getChannel().write(request);
         channel = e.getChannel();
+        if (!readable) {
+            channel.setReadable(false);
+        }
     }
 
     @Override
@@ -124,99 +285,82 @@ public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler impl
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        String messageAsString = (String) e.getMessage();
-
-        String[] lines = messageAsString.split("\\n",-1);
-        //int l = 0;
-        for (String dirtyLine : lines) {
-            String line = dirtyLine.replace("\r", "");
-            //l++;
-            //Log.d(EventSourceChannelHandler.class.getName(), "line" + l + ": " + line);
-            if (!headerDone) {
-                if (status == null) {
-                    // checking Status header
-                    Matcher statusMatcher = STATUS_PATTERN.matcher(line);
-                    if (statusMatcher.matches()) {
-                        status = Integer.parseInt(statusMatcher.group(1));
-                        if (status != 200) {
-                            eventSourceHandler.onError(new EventSourceException("Bad status from " + uri + ": " + status));
-                            reconnect();
-                            break;
-                        }
-                        //Log.d(EventSourceChannelHandler.class.getName(), "--- HTTP CONNECTED");
-                    } else {
-                        eventSourceHandler.onError(new EventSourceException("Not HTTP? " + uri + ": " + line));
-                        reconnect();
-                        break;
-                    }
-                }
-                // checking Content-Type header
-                if (CONTENT_TYPE_PATTERN.matcher(line).matches()) {
-                    eventStreamOk = true;
-                    //Log.d(EventSourceChannelHandler.class.getName(), "--- SSE DETECTED");
-                }
-                // ignoring other headers
-                if (line.isEmpty()) {
-                    // checking end of header part
-                    headerDone = true;
-                    if (eventStreamOk) {
-                        eventSourceHandler.onConnect();
-                    } else {
-                        eventSourceHandler.onError(new EventSourceException("Not event stream: " + uri + " (expected Content-Type: text/event-stream"));
-                        reconnect();
-                        break;
-                    }
-                }
-            } else {
-                // data flow: data line or data chunk
-                if (isChunkStart(line)) {
-                    // ignoring chunk size in case of chunk transfer Encoding
-                    //Log.d(EventSourceChannelHandler.class.getName(), "CHUNK WITH SIZE: " + line);
+        Object message = e.getMessage();
+        if (message instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) message;
+            int status = response.getStatus().getCode();
+            if (status != 200) {
+                closeCause = EventSourceMetrics.ReconnectCause.HTTP_STATUS;
+                eventSourceHandler.onError(new EventSourceException("Bad status from " + uri + ": " + status));
+                ctx.getChannel().close();
+                return;
+            }
+            String contentType = response.getHeader(Names.CONTENT_TYPE);
+            if (contentType == null || !contentType.startsWith(EVENT_STREAM_CONTENT_TYPE)) {
+                closeCause = EventSourceMetrics.ReconnectCause.CONTENT_TYPE;
+                eventSourceHandler.onError(new EventSourceException("Not event stream: " + uri + " (expected Content-Type: text/event-stream"));
+                ctx.getChannel().close();
+                return;
+            }
+            eventStreamOk = true;
+            if (metrics != null) {
+                metrics.streamOpened(System.nanoTime() - connectStartNanos);
+            }
+            if (streamOpened) {
+                if (!resumeRequested) {
+                    snapshotReconnects.incrementAndGet();
+                } else if (snapshotEventName == null) {
+                    resumedReconnects.incrementAndGet();
                 } else {
-                    String[] eventLines = line.split("\\n",-1);
-
-                    for (String eventLine : eventLines) {
-                        if (eventLine.startsWith("event:")) {
-                            // dispatching new event
-                            messageDispatcher.line(eventLine);
-                            //Log.d(EventSourceChannelHandler.class.getName(), "SSE EVENT: " + eventLine);
-                        } else if (eventLine.startsWith("id:")) {
-                            // dispatching event id
-                            messageDispatcher.line(eventLine);
-                            //Log.d(EventSourceChannelHandler.class.getName(), "SSE EVENT ID: " + eventLine);
-                        } else if (eventLine.startsWith("data:")) {
-                            // append first line to data : data may be chunked
-                            data.append(eventLine);
-                        } else if (eventLine.isEmpty() && data.length() != 0) {
-                            // end of data : dispatch aggregated data
-                            messageDispatcher.line(data.toString());
-                            // prepare next event data buffer
-                            //Log.d(EventSourceChannelHandler.class.getName(), "SSE EVENT DATA: " + data.toString());
-                            // dispatch the end line (empty line) in order to dispatch the event
-                            messageDispatcher.line(eventLine);
-                            data = new StringBuffer();
-                        } else {
-                            // new data chunk to append
-                            data.append(eventLine);
-                        }
-                    }
+                    // wait for the first event to know whether the server resumed
+                    awaitingResumeOutcome = true;
                 }
             }
+            streamOpened = true;
+            awaitingFirstEvent = true;
+            eventSourceHandler.onConnect();
+        } else if (eventStreamOk) {
+            // de-chunked body bytes
+            ChannelBuffer body = (ChannelBuffer) message;
+            int byteCount = body.readableBytes();
+            long start = metrics != null || tracing ? System.nanoTime() : 0;
+            if (tracing) {
+                messageDispatcher.setReadNanos(start);
+            }
+            if (journaling) {
+                // the events this read completes are journaled with the time it arrived, however long parsing takes
+                messageDispatcher.setReadMillis(System.currentTimeMillis());
+            }
+            readLineCount = 0;
+            try {
+                // an over-long line throws, and the connection fails through exceptionCaught
+                framer.decode(body, this);
+            } finally {
+                if (asyncHandler != null) {
+                    // the events of this read form one batch
+                    asyncHandler.flush();
+                }
+            }
+            if (metrics != null) {
+                metrics.readParsed(byteCount, readLineCount, System.nanoTime() - start);
+            }
         }
-
     }
 
-    private boolean isChunkStart(String line) {
-
-        return isHexNumber(line);
+    @Override
+    public void line(byte[] buffer, int offset, int length) throws Exception {
+        readLineCount++;
+        messageDispatcher.line(buffer, offset, length);
     }
 
-
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
         Throwable error = e.getCause();
         if (error instanceof ConnectException) {
             error = new EventSourceException("Failed to connect to " + uri, error);
+            closeCause = EventSourceMetrics.ReconnectCause.CONNECT_FAILED;
+        } else if (closeCause == EventSourceMetrics.ReconnectCause.END_OF_STREAM) {
+            closeCause = EventSourceMetrics.ReconnectCause.ERROR;
         }
         eventSourceHandler.onError(error);
         ctx.getChannel().close();
@@ -228,9 +372,21 @@ public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler impl
 
     @Override
     public void setLastEventId(String lastEventId) {
+        if (lastEventIdStore != null && lastEventId != null && !lastEventId.equals(this.lastEventId)) {
+            lastEventIdStore.save(lastEventId);
+        }
         this.lastEventId = lastEventId;
     }
 
+    @Override
+    public void setReadable(boolean readable) {
+        this.readable = readable;
+        Channel current = channel;
+        if (current != null) {
+            current.setReadable(readable);
+        }
+    }
+
     public EventSourceChannelHandler close() {
         reconnectOnClose = false;
         if (channel != null) {
@@ -249,23 +405,100 @@ public class EventSourceChannelHandler extends SimpleChannelUpstreamHandler impl
     private void reconnect() {
         if (!reconnecting.get()) {
             reconnecting.set(true);
-            data = new StringBuffer();
-            lastEventId = null;
-            status = null;
+            framer.reset();
+            // keep lastEventId: the next connection resumes from it
+            messageDispatcher.reset();
             eventStreamOk = false;
-            headerDone = false;
-            timer.newTimeout(new TimerTask() {
-                @Override
-                public void run(Timeout timeout) throws Exception {
-                    reconnecting.set(false);
-                    int port = uri.getPort();
-                    if (port == -1) {
-                        port = (uri.getScheme().equals("https")) ? 443 : 80;
+            awaitingResumeOutcome = false;
+            awaitingFirstEvent = false;
+            reconnectDelayMillis = reconnectPolicy.delayMillis(++reconnectAttempt, reconnectDelayMillis, reconnectionTimeMillis);
+            if (metrics != null) {
+                metrics.reconnectScheduled(closeCause, reconnectDelayMillis);
+            }
+            timer.newTimeout(reconnectTask, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private final TimerTask reconnectTask = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (!reconnectOnClose) {
+                // closed while waiting
+                reconnecting.set(false);
+                return;
+            }
+            final ReconnectGovernor governor = reconnectGovernor;
+            if (governor != null) {
+                long wait = governor.tryAcquire();
+                if (wait > 0) {
+                    timer.newTimeout(this, wait, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            reconnecting.set(false);
+            int port = uri.getPort();
+            if (port == -1) {
+                port = (uri.getScheme().equals("https")) ? 443 : 80;
+            }
+            bootstrap.setOption("remoteAddress", new InetSocketAddress(uri.getHost(), port));
+            ChannelFuture future = bootstrap.connect();
+            if (governor != null) {
+                future.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        governor.release();
                     }
-                    bootstrap.setOption("remoteAddress", new InetSocketAddress(uri.getHost(), port));
-                    bootstrap.connect().await();
+                });
+            }
+        }
+    };
+
+    /**
+     * Sees the first event of each connection: it makes the connection healthy, and after a resumed reconnect it
+     * tells a resumed stream from a fresh snapshot.
+     */
+    private class StreamTracker implements EventSourceHandler {
+        private final EventSourceHandler eventSourceHandler;
+
+        StreamTracker(EventSourceHandler eventSourceHandler) {
+            this.eventSourceHandler = eventSourceHandler;
+        }
+
+        @Override
+        public void onConnect() throws Exception {
+            eventSourceHandler.onConnect();
+        }
+
+        @Override
+        public void onMessage(String event, tylerjroach.com.eventsource_android.MessageEvent message) throws Exception {
+            if (metrics != null) {
+                metrics.eventParsed(event);
+            }
+            if (awaitingFirstEvent) {
+                awaitingFirstEvent = false;
+                // the connection works: the next reconnect starts backing off from scratch
+                reconnectAttempt = 0;
+                reconnectDelayMillis = 0;
+            }
+            if (awaitingResumeOutcome) {
+                awaitingResumeOutcome = false;
+                if (event.equals(snapshotEventName)) {
+                    snapshotReconnects.incrementAndGet();
+                } else {
+                    resumedReconnects.incrementAndGet();
                 }
-            }, reconnectionTimeMillis, TimeUnit.MILLISECONDS);
+            }
+            eventSourceHandler.onMessage(event, message);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            eventSourceHandler.onError(t);
+        }
+
+        @Override
+        public void onClosed(boolean willReconnect) {
+            eventSourceHandler.onClosed(willReconnect);
         }
     }
-}
\ No newline at end of file
+}
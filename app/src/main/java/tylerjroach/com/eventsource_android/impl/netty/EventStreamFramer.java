@@ -0,0 +1,125 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+/**
+ * Incremental line framer for <a href="http://dev.w3.org/html5/eventsource/#parsing-an-event-stream">event streams</a>.
+ * <p/>
+ * Scans the readable bytes of each {@link ChannelBuffer} for CR, LF or CRLF terminators and hands every complete
+ * line to a {@link LineHandler} as a byte range, without the terminator. Bytes after the last terminator are kept
+ * until the next read, so a line (or a multi-byte UTF-8 character) cut across two TCP reads is delivered once and
+ * intact. A CR at the very end of a read is remembered so that a LF starting the next read is not taken for an
+ * empty line.
+ * <p/>
+ * Lines that do not span reads are passed straight from the buffer's backing array when it has one; only the
+ * partial tail of a read is copied.
+ * <p/>
+ * A line longer than the maximum length fails {@link #decode} with an {@link EventSourceException}, so that a
+ * stream without terminators cannot grow the partial line without bound; the partial line is dropped.
+ */
+public class EventStreamFramer {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 8192;
+
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    private byte[] pending = new byte[INITIAL_LINE_CAPACITY];
+    private int pendingLength;
+    private boolean skipLineFeed;
+
+    public interface LineHandler {
+        /**
+         * Receives one complete line. The array is only valid for the duration of the call.
+         */
+        void line(byte[] buffer, int offset, int length) throws Exception;
+    }
+
+    /**
+     * @param maxLineLength longest line accepted, in bytes and without its terminator,
+     *                      {@link #DEFAULT_MAX_LINE_LENGTH} by default
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Frames all readable bytes of the buffer and marks them as read.
+     */
+    public void decode(ChannelBuffer buffer, LineHandler handler) throws Exception {
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        if (buffer.hasArray()) {
+            int arrayOffset = buffer.arrayOffset();
+            decode(buffer.array(), arrayOffset + start, arrayOffset + end, handler);
+        } else {
+            // direct buffers are rare on this path: frame a heap copy of the readable bytes
+            byte[] copy = new byte[end - start];
+            buffer.getBytes(start, copy);
+            decode(copy, 0, copy.length, handler);
+        }
+        buffer.readerIndex(end);
+    }
+
+    /**
+     * Frames the bytes in {@code [from, to)} of the array.
+     */
+    public void decode(byte[] bytes, int from, int to, LineHandler handler) throws Exception {
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == LF && skipLineFeed) {
+                // second half of a CRLF pair
+                skipLineFeed = false;
+                lineStart = i + 1;
+                continue;
+            }
+            skipLineFeed = false;
+            if (b == CR || b == LF) {
+                checkLineLength(i - lineStart);
+                if (pendingLength == 0) {
+                    handler.line(bytes, lineStart, i - lineStart);
+                } else {
+                    append(bytes, lineStart, i - lineStart);
+                    int length = pendingLength;
+                    pendingLength = 0;
+                    handler.line(pending, 0, length);
+                }
+                skipLineFeed = b == CR;
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < to) {
+            checkLineLength(to - lineStart);
+            append(bytes, lineStart, to - lineStart);
+        }
+    }
+
+    /**
+     * Drops any partial line, e.g. when the connection is re-established.
+     */
+    public void reset() {
+        pendingLength = 0;
+        skipLineFeed = false;
+    }
+
+    private void checkLineLength(int length) {
+        if (pendingLength + length > maxLineLength) {
+            reset();
+            throw new EventSourceException("Event stream line longer than " + maxLineLength + " bytes");
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        int required = pendingLength + length;
+        if (required > pending.length) {
+            byte[] grown = new byte[Math.max(required, pending.length << 1)];
+            System.arraycopy(pending, 0, grown, 0, pendingLength);
+            pending = grown;
+        }
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+        pendingLength = required;
+    }
+}
@@ -0,0 +1,250 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.net.SocketAddress;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+/**
+ * Inflates an event stream sent with {@code Content-Encoding: gzip} or {@code deflate}, between the
+ * {@link EventStreamResponseDecoder} and the {@link EventSourceChannelHandler}.
+ * <p/>
+ * Decompression is incremental: the bytes of each read are inflated as soon as they arrive and every block of
+ * output is sent upstream at once, so an event is parsed as soon as the server has flushed it, usually with a
+ * {@code SYNC_FLUSH} after each event. {@code deflate} bodies may be zlib-wrapped, as the HTTP specification says,
+ * or raw, as some servers send them. Uses the platform {@link Inflater}, which is native on Android. The gzip trailer
+ * is not checked: a stream is cut by a closed connection rather than by its end.
+ * <p/>
+ * The inflated bytes are sent in a buffer reused from one block to the next, which the next handler must not keep.
+ * Responses without a content encoding go through untouched. An inflater must not be shared between channels.
+ */
+public class EventStreamInflater extends SimpleChannelUpstreamHandler {
+    private static final int OUTPUT_SIZE = 8192;
+
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+    private static final int OPTIONAL_FIELDS = FHCRC | FEXTRA | FNAME | FCOMMENT;
+
+    private enum State {
+        IDENTITY, GZIP_HEADER, DEFLATE_HEADER, INFLATE, DONE
+    }
+
+    private State state = State.IDENTITY;
+    private Inflater inflater;
+    private final byte[] output = new byte[OUTPUT_SIZE];
+    private byte[] input = new byte[OUTPUT_SIZE];
+
+    // the gzip header, parsed as it arrives
+    private int headerFlags;
+    private int headerPosition;
+    private int skipRemaining;
+    // the first byte of a deflate body that came in a read of its own
+    private int pendingByte = -1;
+    private long compressedCount;
+    private long inflatedCount;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object message = e.getMessage();
+        if (message instanceof HttpResponse) {
+            String contentEncoding = ((HttpResponse) message).getHeader(Names.CONTENT_ENCODING);
+            state = encodingState(contentEncoding);
+            if (state == null) {
+                state = State.DONE;
+                Channels.fireExceptionCaught(ctx, new EventSourceException("Unsupported Content-Encoding: "
+                        + contentEncoding));
+                return;
+            }
+            ctx.sendUpstream(e);
+        } else if (state == State.IDENTITY) {
+            ctx.sendUpstream(e);
+        } else {
+            ChannelBuffer buffer = (ChannelBuffer) message;
+            compressedCount += buffer.readableBytes();
+            try {
+                inflate(ctx, buffer, e.getRemoteAddress());
+            } catch (DataFormatException error) {
+                state = State.DONE;
+                Channels.fireExceptionCaught(ctx, new EventSourceException("Corrupt compressed stream", error));
+            }
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * @return the number of compressed body bytes received
+     */
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    /**
+     * @return the number of body bytes sent upstream after inflating
+     */
+    public long getInflatedCount() {
+        return inflatedCount;
+    }
+
+    private State encodingState(String contentEncoding) {
+        if (contentEncoding == null) {
+            return State.IDENTITY;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.isEmpty() || encoding.equals("identity")) {
+            return State.IDENTITY;
+        }
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            headerPosition = 0;
+            return State.GZIP_HEADER;
+        }
+        if (encoding.equals("deflate")) {
+            return State.DEFLATE_HEADER;
+        }
+        return null;
+    }
+
+    private void inflate(ChannelHandlerContext ctx, ChannelBuffer buffer, SocketAddress remoteAddress)
+            throws DataFormatException {
+        if (state == State.GZIP_HEADER) {
+            if (!readGzipHeader(buffer)) {
+                // the header goes on in the next read
+                return;
+            }
+            inflater = new Inflater(true);
+            state = State.INFLATE;
+        } else if (state == State.DEFLATE_HEADER) {
+            if (buffer.readableBytes() < 2) {
+                // not enough to tell, which only happens with a read of one byte
+                buffer = copyPending(buffer);
+                if (buffer == null) {
+                    return;
+                }
+            }
+            inflater = new Inflater(!isZlibHeader(buffer));
+            state = State.INFLATE;
+        }
+        if (state != State.INFLATE || !buffer.readable()) {
+            return;
+        }
+        int length = buffer.readableBytes();
+        if (buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length);
+        } else {
+            if (input.length < length) {
+                input = new byte[length];
+            }
+            buffer.getBytes(buffer.readerIndex(), input, 0, length);
+            inflater.setInput(input, 0, length);
+        }
+        buffer.skipBytes(length);
+        while (true) {
+            int inflated = inflater.inflate(output);
+            if (inflated > 0) {
+                inflatedCount += inflated;
+                Channels.fireMessageReceived(ctx, ChannelBuffers.wrappedBuffer(output, 0, inflated), remoteAddress);
+            }
+            if (inflater.finished()) {
+                // the trailer and anything after the end of the stream are ignored
+                state = State.DONE;
+                return;
+            }
+            if (inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionaries are not supported");
+            }
+            if (inflated == 0 && inflater.needsInput()) {
+                return;
+            }
+        }
+    }
+
+    private ChannelBuffer copyPending(ChannelBuffer buffer) {
+        if (pendingByte < 0) {
+            if (buffer.readable()) {
+                pendingByte = buffer.readUnsignedByte();
+            }
+            return null;
+        }
+        ChannelBuffer joined = ChannelBuffers.buffer(1 + buffer.readableBytes());
+        joined.writeByte(pendingByte);
+        joined.writeBytes(buffer);
+        pendingByte = -1;
+        return joined;
+    }
+
+    /**
+     * @return whether the body starts with a zlib header: deflate method, and a check value that is a multiple of
+     * 31, which a raw deflate block does not give
+     */
+    private static boolean isZlibHeader(ChannelBuffer buffer) {
+        int cmf = buffer.getUnsignedByte(buffer.readerIndex());
+        int flg = buffer.getUnsignedByte(buffer.readerIndex() + 1);
+        return (cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Consumes the gzip header, which may span reads.
+     *
+     * @return true once the whole header has been read
+     * @throws DataFormatException if the body is not gzip
+     */
+    private boolean readGzipHeader(ChannelBuffer buffer) throws DataFormatException {
+        while (buffer.readable()) {
+            if (headerPosition < 10 || (headerPosition < 12 && (headerFlags & FEXTRA) != 0)) {
+                // the fixed part, then the little-endian length of the extra field if there is one
+                int b = buffer.readUnsignedByte();
+                if ((headerPosition == 0 && b != 0x1f) || (headerPosition == 1 && b != 0x8b)
+                        || (headerPosition == 2 && b != 8)) {
+                    throw new DataFormatException("Not in gzip format");
+                }
+                if (headerPosition == 3) {
+                    headerFlags = b;
+                } else if (headerPosition == 10) {
+                    skipRemaining = b;
+                } else if (headerPosition == 11) {
+                    skipRemaining |= b << 8;
+                    headerFlags &= ~FEXTRA;
+                }
+                headerPosition++;
+            } else if (skipRemaining > 0) {
+                int skipped = Math.min(skipRemaining, buffer.readableBytes());
+                buffer.skipBytes(skipped);
+                skipRemaining -= skipped;
+            } else if ((headerFlags & FNAME) != 0) {
+                if (buffer.readByte() == 0) {
+                    headerFlags &= ~FNAME;
+                }
+            } else if ((headerFlags & FCOMMENT) != 0) {
+                if (buffer.readByte() == 0) {
+                    headerFlags &= ~FCOMMENT;
+                }
+            } else if ((headerFlags & FHCRC) != 0) {
+                skipRemaining = 2;
+                headerFlags &= ~FHCRC;
+            } else {
+                return true;
+            }
+        }
+        return headerPosition >= 10 && skipRemaining == 0 && (headerFlags & OPTIONAL_FIELDS) == 0;
+    }
+}
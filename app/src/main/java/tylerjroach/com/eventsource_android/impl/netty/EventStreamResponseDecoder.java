@@ -0,0 +1,285 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpHeaders.Values;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import java.net.SocketAddress;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+/**
+ * Decodes the HTTP/1.1 response carrying an event stream.
+ * <p/>
+ * The status line and headers are parsed from the byte stream and sent upstream once as an {@link HttpResponse}.
+ * After that only body bytes are sent upstream, as {@link ChannelBuffer} slices of the received buffers: chunked
+ * bodies are de-chunked, bodies with a {@code Content-Length} are cut at that length and any other body is passed
+ * through until the connection closes. Once a chunked or {@code Content-Length} body is complete the channel is
+ * closed, so that the stream ends as it would if the server had closed the connection. Malformed input is reported
+ * through {@code exceptionCaught}; decoding never throws.
+ * <p/>
+ * A decoder holds the state of a single response and must not be shared between channels.
+ */
+public class EventStreamResponseDecoder extends SimpleChannelUpstreamHandler {
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private enum State {
+        STATUS_LINE, HEADER, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, CHUNK_TRAILER, FIXED_LENGTH_BODY, BODY, DONE
+    }
+
+    private final StringBuilder line = new StringBuilder();
+    private boolean lineInProgress;
+    private State state = State.STATUS_LINE;
+    private HttpResponse response;
+    private long remaining;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        SocketAddress remoteAddress = e.getRemoteAddress();
+
+        while (buffer.readable()) {
+            switch (state) {
+                case STATUS_LINE:
+                    if (readLine(ctx, buffer)) {
+                        response = parseStatusLine(line);
+                        if (response == null) {
+                            fail(ctx, "Not HTTP? " + line);
+                            return;
+                        }
+                        state = State.HEADER;
+                    }
+                    break;
+                case HEADER:
+                    if (readLine(ctx, buffer)) {
+                        if (line.length() == 0) {
+                            state = bodyState(response);
+                            Channels.fireMessageReceived(ctx, response, remoteAddress);
+                            if (state == State.DONE) {
+                                complete(ctx);
+                            }
+                        } else if (!parseHeader(line, response)) {
+                            fail(ctx, "Malformed header: " + line);
+                            return;
+                        }
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(ctx, buffer)) {
+                        remaining = parseChunkSize(line);
+                        if (remaining < 0) {
+                            fail(ctx, "Malformed chunk size: " + line);
+                            return;
+                        }
+                        state = remaining == 0 ? State.CHUNK_TRAILER : State.CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_DATA:
+                    forward(ctx, buffer, remoteAddress);
+                    if (remaining == 0) {
+                        state = State.CHUNK_DATA_END;
+                    }
+                    break;
+                case CHUNK_DATA_END:
+                    if (readLine(ctx, buffer)) {
+                        if (line.length() != 0) {
+                            fail(ctx, "Missing CRLF after chunk data");
+                            return;
+                        }
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case CHUNK_TRAILER:
+                    // trailers are not used by event streams: skip them up to the final empty line
+                    if (readLine(ctx, buffer) && line.length() == 0) {
+                        complete(ctx);
+                    }
+                    break;
+                case FIXED_LENGTH_BODY:
+                    forward(ctx, buffer, remoteAddress);
+                    if (remaining == 0) {
+                        complete(ctx);
+                    }
+                    break;
+                case BODY:
+                    Channels.fireMessageReceived(ctx, buffer.readSlice(buffer.readableBytes()), remoteAddress);
+                    break;
+                case DONE:
+                    // the response is complete or broken: anything after it is not ours
+                    buffer.skipBytes(buffer.readableBytes());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Accumulates bytes up to the next LF into {@link #line}, without the line terminator.
+     *
+     * @return true if a complete line is available, false if more bytes are needed or the line is too long
+     */
+    private boolean readLine(ChannelHandlerContext ctx, ChannelBuffer buffer) {
+        if (!lineInProgress) {
+            line.setLength(0);
+            lineInProgress = true;
+        }
+        while (buffer.readable()) {
+            byte b = buffer.readByte();
+            if (b == '\n') {
+                int length = line.length();
+                if (length != 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                lineInProgress = false;
+                return true;
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                lineInProgress = false;
+                fail(ctx, "HTTP line longer than " + MAX_LINE_LENGTH + " bytes");
+                return false;
+            }
+            // status line, headers and chunk sizes are US-ASCII
+            line.append((char) (b & 0xff));
+        }
+        return false;
+    }
+
+    private void forward(ChannelHandlerContext ctx, ChannelBuffer buffer, SocketAddress remoteAddress) {
+        int length = (int) Math.min(remaining, buffer.readableBytes());
+        remaining -= length;
+        Channels.fireMessageReceived(ctx, buffer.readSlice(length), remoteAddress);
+    }
+
+    /**
+     * Ends a well-formed response: closing the channel lets the connection handler reconnect.
+     */
+    private void complete(ChannelHandlerContext ctx) {
+        state = State.DONE;
+        ctx.getChannel().close();
+    }
+
+    private void fail(ChannelHandlerContext ctx, String message) {
+        state = State.DONE;
+        Channels.fireExceptionCaught(ctx, new EventSourceException(message));
+    }
+
+    private State bodyState(HttpResponse response) {
+        String transferEncoding = response.getHeader(Names.TRANSFER_ENCODING);
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains(Values.CHUNKED)) {
+            return State.CHUNK_SIZE;
+        }
+        String contentLength = response.getHeader(Names.CONTENT_LENGTH);
+        if (contentLength != null) {
+            remaining = parseDecimal(contentLength);
+            if (remaining >= 0) {
+                return remaining == 0 ? State.DONE : State.FIXED_LENGTH_BODY;
+            }
+        }
+        return State.BODY;
+    }
+
+    /**
+     * Parses {@code HTTP/x.y <3-digit code> [reason]}.
+     *
+     * @return the response, or null if the line is not an HTTP status line
+     */
+    private static HttpResponse parseStatusLine(CharSequence line) {
+        int length = line.length();
+        int firstSpace = indexOf(line, ' ', 0);
+        if (firstSpace < 0 || !startsWith(line, "HTTP/")) {
+            return null;
+        }
+        int codeEnd = firstSpace + 4;
+        if (codeEnd > length || (codeEnd < length && line.charAt(codeEnd) != ' ')) {
+            return null;
+        }
+        int code = 0;
+        for (int i = firstSpace + 1; i < codeEnd; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            code = code * 10 + (c - '0');
+        }
+        HttpVersion version = startsWith(line, "HTTP/1.0 ") ? HttpVersion.HTTP_1_0 : HttpVersion.HTTP_1_1;
+        return new DefaultHttpResponse(version, HttpResponseStatus.valueOf(code));
+    }
+
+    private static boolean parseHeader(CharSequence line, HttpResponse response) {
+        int colon = indexOf(line, ':', 0);
+        if (colon <= 0) {
+            return false;
+        }
+        String name = line.subSequence(0, colon).toString().trim();
+        String value = line.subSequence(colon + 1, line.length()).toString().trim();
+        response.addHeader(name, value);
+        return true;
+    }
+
+    /**
+     * @return the chunk size, or -1 if the line does not start with a hexadecimal number
+     */
+    private static long parseChunkSize(CharSequence line) {
+        long size = 0;
+        int digits = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                if (c == ';' || c == ' ' || c == '\t') {
+                    // chunk extensions are ignored
+                    break;
+                }
+                return -1;
+            }
+            if (++digits > 15) {
+                return -1;
+            }
+            size = (size << 4) | digit;
+        }
+        return digits == 0 ? -1 : size;
+    }
+
+    private static long parseDecimal(String value) {
+        long result = 0;
+        if (value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int indexOf(CharSequence sequence, char c, int from) {
+        for (int i = from; i < sequence.length(); i++) {
+            if (sequence.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence sequence, String prefix) {
+        if (sequence.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (sequence.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
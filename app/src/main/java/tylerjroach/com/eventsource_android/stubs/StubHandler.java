@@ -14,6 +14,7 @@ public class StubHandler implements ConnectionHandler, EventSourceHandler {
     private Long reconnectionTimeMillis;
     private String lastEventId;
     private boolean connected;
+    private boolean readable = true;
     private Map<String, List<MessageEvent>> messagesByEvent = new HashMap<String, List<MessageEvent>>();
     private List<Throwable> errors = new ArrayList<Throwable>();
 
@@ -55,6 +56,15 @@ public class StubHandler implements ConnectionHandler, EventSourceHandler {
         this.lastEventId = lastEventId;
     }
 
+    public boolean isReadable() {
+        return readable;
+    }
+
+    @Override
+    public void setReadable(boolean readable) {
+        this.readable = readable;
+    }
+
     public boolean isConnected() {
         return connected;
     }
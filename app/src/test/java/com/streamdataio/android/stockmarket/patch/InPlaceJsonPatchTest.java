@@ -0,0 +1,182 @@
+package com.streamdataio.android.stockmarket.patch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatch;
+import com.github.fge.jsonpatch.JsonPatchException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class InPlaceJsonPatchTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String QUOTES = "[{'title':'A','price':1},{'title':'B','price':2},{'title':'C','price':3}]";
+
+    @Test
+    public void appliesLikeJsonPatch() throws Exception {
+        String[] patches = {
+                "[{'op':'replace','path':'/1/price','value':20}]",
+                "[{'op':'add','path':'/1','value':{'title':'X','price':9}}]",
+                "[{'op':'add','path':'/-','value':{'title':'Z','price':0}}]",
+                "[{'op':'add','path':'/0/volume','value':100}]",
+                "[{'op':'remove','path':'/0'}]",
+                "[{'op':'remove','path':'/2/price'}]",
+                "[{'op':'move','from':'/0','path':'/2'}]",
+                "[{'op':'move','from':'/0/price','path':'/1/old'}]",
+                "[{'op':'copy','from':'/2','path':'/0'}]",
+                "[{'op':'test','path':'/0/price','value':1.0},{'op':'replace','path':'/0/price','value':5}]",
+                "[{'op':'replace','path':'','value':[{'title':'Y','price':7}]}]",
+                "[{'op':'remove','path':'/0'},{'op':'remove','path':'/0'},{'op':'add','path':'/0','value':{}}]",
+        };
+        for (String patch : patches) {
+            JsonNode expected = JsonPatch.fromJson(json(patch)).apply(json(QUOTES));
+            JsonNode document = json(QUOTES);
+            InPlaceJsonPatch.fromJson(json(patch)).apply(document);
+            assertEquals(patch, expected, document);
+        }
+    }
+
+    @Test
+    public void appliesToTheDocumentItself() throws Exception {
+        JsonNode document = json(QUOTES);
+        JsonNode second = document.get(1);
+        InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'/1/price','value':20}]")).apply(document);
+        assertSame(second, document.get(1));
+        assertEquals(20, second.get("price").intValue());
+    }
+
+    @Test
+    public void failedPatchUndoesEveryOperationApplied() throws Exception {
+        String patch = "[{'op':'replace','path':'/0/price','value':10},"
+                + "{'op':'add','path':'/1','value':{'title':'X'}},"
+                + "{'op':'remove','path':'/3'},"
+                + "{'op':'add','path':'/0/volume','value':5},"
+                + "{'op':'move','from':'/0','path':'/-'},"
+                + "{'op':'copy','from':'/0','path':'/0'},"
+                + "{'op':'replace','path':'','value':[]},"
+                + "{'op':'test','path':'/0/price','value':1}]";
+        JsonNode document = json(QUOTES);
+        RowChanges changes = new RowChanges();
+        try {
+            InPlaceJsonPatch.fromJson(json(patch)).apply(document, changes);
+            fail();
+        } catch (JsonPatchException expected) {
+        }
+        assertEquals(json(QUOTES), document);
+        assertEquals(true, changes.isEmpty());
+    }
+
+    @Test
+    public void failedDocumentReplacementIsUndone() throws Exception {
+        JsonNode document = json("{'a':1,'b':{'c':2}}");
+        try {
+            InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'','value':{'x':1}},"
+                    + "{'op':'remove','path':'/a'}]")).apply(document);
+            fail();
+        } catch (JsonPatchException expected) {
+        }
+        assertEquals(json("{'a':1,'b':{'c':2}}"), document);
+    }
+
+    @Test
+    public void rejectsOperationsThatDoNotApply() throws Exception {
+        String[] patches = {
+                "[{'op':'replace','path':'/3/price','value':1}]",
+                "[{'op':'replace','path':'/0/volume','value':1}]",
+                "[{'op':'add','path':'/4','value':1}]",
+                "[{'op':'add','path':'/x','value':1}]",
+                "[{'op':'add','path':'/0/title/x','value':1}]",
+                "[{'op':'remove','path':'/-'}]",
+                "[{'op':'remove','path':'/0/volume'}]",
+                "[{'op':'remove','path':''}]",
+                "[{'op':'move','from':'/0','path':'/0/child'}]",
+                "[{'op':'copy','from':'/5','path':'/0'}]",
+                "[{'op':'test','path':'/0/price','value':2}]",
+                "[{'op':'replace','path':'','value':{}}]",
+        };
+        for (String patch : patches) {
+            JsonNode document = json(QUOTES);
+            try {
+                InPlaceJsonPatch.fromJson(json(patch)).apply(document);
+                fail(patch);
+            } catch (JsonPatchException expected) {
+            }
+            assertEquals(patch, json(QUOTES), document);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedPatches() throws Exception {
+        String[] patches = {
+                "{'op':'remove','path':'/0'}",
+                "[{'op':'delete','path':'/0'}]",
+                "[{'path':'/0'}]",
+                "[{'op':'remove'}]",
+                "[{'op':'remove','path':0}]",
+                "[{'op':'add','path':'/0'}]",
+                "[{'op':'move','path':'/0'}]",
+                "[{'op':'remove','path':'0'}]",
+        };
+        for (String patch : patches) {
+            try {
+                InPlaceJsonPatch.fromJson(json(patch));
+                fail(patch);
+            } catch (JsonPatchException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void returnsThePathsTouchedWithAppendedIndices() throws Exception {
+        List<PatchPointer> touched = InPlaceJsonPatch.fromJson(json("[{'op':'add','path':'/-','value':{}},"
+                + "{'op':'move','from':'/0','path':'/1'},{'op':'test','path':'/0','value':{'title':'B','price':2}},"
+                + "{'op':'replace','path':'/2/price','value':0}]")).apply(json(QUOTES));
+        assertEquals(Arrays.asList(pointer("/3"), pointer("/0"), pointer("/1"), pointer("/2/price")), touched);
+    }
+
+    @Test
+    public void recordsTheRowsChanged() throws Exception {
+        RowChanges changes = new RowChanges();
+        InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'/2/price','value':0},"
+                + "{'op':'replace','path':'/2/title','value':'D'},{'op':'remove','path':'/0'},"
+                + "{'op':'add','path':'/-','value':{}}]")).apply(json(QUOTES), changes);
+        assertEquals("[~2, -0, +2]", changes.toString());
+        assertEquals(true, changes.isStructural());
+    }
+
+    @Test
+    public void sharesPointersThroughTheCache() throws Exception {
+        PatchPointerCache cache = new PatchPointerCache();
+        InPlaceJsonPatch first = InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'/1/price','value':1}]"),
+                cache);
+        InPlaceJsonPatch second = InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'/1/price','value':2}]"),
+                cache);
+        assertSame(first.getOperations().get(0).getPath(), second.getOperations().get(0).getPath());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void operationValuesAreCopiedIntoTheDocument() throws Exception {
+        InPlaceJsonPatch patch = InPlaceJsonPatch.fromJson(json("[{'op':'add','path':'/0','value':{'price':1}}]"));
+        JsonNode document = json("[]");
+        patch.apply(document);
+        InPlaceJsonPatch.fromJson(json("[{'op':'replace','path':'/0/price','value':2}]")).apply(document);
+        assertEquals(json("{'price':1}"), patch.getOperations().get(0).getValue());
+    }
+
+    static JsonNode json(String json) throws IOException {
+        return MAPPER.readTree(json.replace('\'', '"'));
+    }
+
+    private static PatchPointer pointer(String path) throws JsonPatchException {
+        return PatchPointer.compile(path);
+    }
+}
@@ -0,0 +1,103 @@
+package com.streamdataio.android.stockmarket.patch;
+
+import com.github.fge.jsonpatch.JsonPatchException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PatchPointerTest {
+
+    @Test
+    public void emptyPointerIsTheRoot() throws Exception {
+        PatchPointer root = PatchPointer.compile("");
+        assertTrue(root.isRoot());
+        assertEquals(0, root.size());
+    }
+
+    @Test
+    public void slashAloneIsOneEmptyToken() throws Exception {
+        PatchPointer pointer = PatchPointer.compile("/");
+        assertFalse(pointer.isRoot());
+        assertEquals(1, pointer.size());
+        assertEquals("", pointer.getToken(0));
+        assertEquals(PatchPointer.NOT_AN_INDEX, pointer.getIndex(0));
+    }
+
+    @Test
+    public void splitsTokensAndConvertsIndices() throws Exception {
+        PatchPointer pointer = PatchPointer.compile("/12/price/-/0");
+        assertEquals(4, pointer.size());
+        assertEquals("12", pointer.getToken(0));
+        assertEquals(12, pointer.getIndex(0));
+        assertEquals("price", pointer.getToken(1));
+        assertEquals(PatchPointer.NOT_AN_INDEX, pointer.getIndex(1));
+        assertEquals(PatchPointer.END_OF_ARRAY, pointer.getIndex(2));
+        assertEquals(0, pointer.getIndex(3));
+    }
+
+    @Test
+    public void tokensThatAreNotCanonicalIndicesAreNames() throws Exception {
+        PatchPointer pointer = PatchPointer.compile("/01/+1/-1/1e3/1234567890/");
+        for (int i = 0; i < pointer.size(); i++) {
+            assertEquals(pointer.getToken(i), PatchPointer.NOT_AN_INDEX, pointer.getIndex(i));
+        }
+    }
+
+    @Test
+    public void unescapesTildeAndSlash() throws Exception {
+        PatchPointer pointer = PatchPointer.compile("/a~1b/m~0n/~01/~10");
+        assertEquals("a/b", pointer.getToken(0));
+        assertEquals("m~n", pointer.getToken(1));
+        // ~01 is ~ then 1, not /
+        assertEquals("~1", pointer.getToken(2));
+        assertEquals("/0", pointer.getToken(3));
+        assertEquals("/a~1b/m~0n/~01/~10", pointer.toString());
+    }
+
+    @Test
+    public void rejectsInvalidPointers() {
+        assertInvalid("price");
+        assertInvalid("/a~");
+        assertInvalid("/a~2");
+        assertInvalid("/~/b");
+    }
+
+    @Test
+    public void properPrefix() throws Exception {
+        PatchPointer quote = PatchPointer.compile("/3");
+        PatchPointer price = PatchPointer.compile("/3/price");
+        assertTrue(quote.isProperPrefixOf(price));
+        assertTrue(PatchPointer.compile("").isProperPrefixOf(quote));
+        assertFalse(price.isProperPrefixOf(quote));
+        assertFalse(quote.isProperPrefixOf(quote));
+        assertFalse(PatchPointer.compile("/30").isProperPrefixOf(price));
+    }
+
+    @Test
+    public void equalityIsOnThePointerAsWritten() throws Exception {
+        assertEquals(PatchPointer.compile("/3/price"), PatchPointer.compile("/3/price"));
+        assertEquals(PatchPointer.compile("/3/price").hashCode(), PatchPointer.compile("/3/price").hashCode());
+        assertNotEquals(PatchPointer.compile("/3/price"), PatchPointer.compile("/4/price"));
+    }
+
+    @Test
+    public void withLastIndexReplacesTheEndOfArrayToken() throws Exception {
+        PatchPointer appended = PatchPointer.compile("/quotes/-").withLastIndex(7);
+        assertEquals("/quotes/7", appended.toString());
+        assertEquals(7, appended.getIndex(1));
+        assertEquals(PatchPointer.compile("/quotes/7"), appended);
+    }
+
+    private static void assertInvalid(String path) {
+        try {
+            PatchPointer.compile(path);
+            fail("compiled " + path);
+        } catch (JsonPatchException expected) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.streamdataio.android.stockmarket.patch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowChangesTest {
+    private final RowChanges changes = new RowChanges();
+
+    @Test
+    public void startsEmpty() {
+        assertTrue(changes.isEmpty());
+        assertFalse(changes.isStructural());
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void sameRowChangedTwiceInARunIsRecordedOnce() {
+        changes.changed(3);
+        changes.changed(1);
+        changes.changed(3);
+        assertEquals("[~3, ~1]", changes.toString());
+        assertFalse(changes.isStructural());
+    }
+
+    @Test
+    public void insertionsAndRemovalsEndARun() {
+        changes.changed(3);
+        changes.inserted(0);
+        changes.changed(3);
+        changes.removed(5);
+        changes.changed(3);
+        assertEquals("[~3, +0, ~3, -5, ~3]", changes.toString());
+        assertTrue(changes.isStructural());
+        assertEquals(RowChanges.CHANGED, changes.getKind(0));
+        assertEquals(RowChanges.INSERTED, changes.getKind(1));
+        assertEquals(RowChanges.REMOVED, changes.getKind(3));
+        assertEquals(5, changes.getRow(3));
+    }
+
+    @Test
+    public void recordsPathsAsRows() throws Exception {
+        changes.record(RowChanges.CHANGED, PatchPointer.compile("/2"));
+        changes.record(RowChanges.INSERTED, PatchPointer.compile("/4/price"));
+        changes.record(RowChanges.REMOVED, PatchPointer.compile("/5/volume/0"));
+        changes.record(RowChanges.INSERTED, PatchPointer.compile("/7"));
+        changes.record(RowChanges.REMOVED, PatchPointer.compile("/1"));
+        // not rows of the list
+        changes.record(RowChanges.CHANGED, PatchPointer.compile("/name"));
+        changes.record(RowChanges.INSERTED, PatchPointer.compile("/-"));
+        assertEquals("[~2, ~4, ~5, +7, -1]", changes.toString());
+    }
+
+    @Test
+    public void replacingTheWholeListIsStructuralWithoutRows() throws Exception {
+        changes.changed(1);
+        changes.record(RowChanges.CHANGED, PatchPointer.compile(""));
+        changes.changed(1);
+        assertEquals("[~1, ~1]", changes.toString());
+        assertTrue(changes.isStructural());
+
+        RowChanges replaced = new RowChanges();
+        replaced.replacedAll();
+        assertFalse(replaced.isEmpty());
+        assertEquals(0, replaced.size());
+    }
+
+    @Test
+    public void addAllAppendsAndMergesTheRunAcrossInstances() {
+        changes.changed(1);
+        changes.changed(2);
+        RowChanges other = new RowChanges();
+        other.changed(2);
+        other.changed(3);
+        other.removed(0);
+        other.changed(2);
+        changes.addAll(other);
+        assertEquals("[~1, ~2, ~3, -0, ~2]", changes.toString());
+        assertTrue(changes.isStructural());
+
+        RowChanges replaced = new RowChanges();
+        replaced.replacedAll();
+        RowChanges target = new RowChanges();
+        target.addAll(replaced);
+        assertTrue(target.isStructural());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        changes.changed(1);
+        changes.inserted(2);
+        changes.clear();
+        assertTrue(changes.isEmpty());
+        assertFalse(changes.isStructural());
+        changes.changed(1);
+        assertEquals("[~1]", changes.toString());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        for (int row = 0; row < 100; row++) {
+            changes.changed(row);
+        }
+        changes.inserted(100);
+        assertEquals(101, changes.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, changes.getRow(i));
+        }
+        assertEquals(RowChanges.INSERTED, changes.getKind(100));
+    }
+}
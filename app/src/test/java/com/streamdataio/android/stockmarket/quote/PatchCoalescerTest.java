@@ -0,0 +1,106 @@
+package com.streamdataio.android.stockmarket.quote;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PatchCoalescerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final QuoteSnapshotDecoder decoder = new QuoteSnapshotDecoder(MAPPER.getFactory());
+    private final List<Runnable> frames = new ArrayList<Runnable>();
+    private final List<String> renders = new ArrayList<String>();
+    private final QuoteModel model = new QuoteModel();
+    private final PatchCoalescer coalescer = new PatchCoalescer(model, new FrameClock() {
+        @Override
+        public void postFrame(Runnable task) {
+            frames.add(task);
+        }
+    }, new PatchCoalescer.Listener() {
+        @Override
+        public void onRender(QuoteStore version, RowChanges changes) {
+            renders.add(changes.toString());
+        }
+
+        @Override
+        public void onPatchFailed(InPlaceJsonPatch patch, JsonPatchException e) {
+            renders.add("failed");
+        }
+    });
+
+    @Test
+    public void appliesTheUpdatesOfAFrameTogether() throws Exception {
+        coalescer.submitSnapshot(snapshot("[{'title':'A','price':1},{'title':'B','price':2}]"), "1");
+        runFrames();
+        coalescer.submit(patch("[{'op':'replace','path':'/0/price','value':3}]"), "2");
+        coalescer.submit(patch("[{'op':'replace','path':'/0/price','value':4}]"), "3");
+        coalescer.submit(patch("[{'op':'replace','path':'/1/price','value':5}]"), "4");
+        assertEquals(1, frames.size());
+        runFrames();
+
+        assertEquals(4, model.get().getUnscaledPrice(0));
+        assertEquals(5, model.get().getUnscaledPrice(1));
+        assertEquals("4", model.getLastEventId());
+        assertEquals(2, renders.size());
+        assertEquals(1, coalescer.getOperationsSquashed());
+    }
+
+    @Test
+    public void discardedUpdatesAreNeitherAppliedNorResumedFrom() throws Exception {
+        coalescer.submitSnapshot(snapshot("[{'title':'A','price':1}]"), "1");
+        runFrames();
+        QuoteStore applied = model.get();
+
+        coalescer.submit(patch("[{'op':'replace','path':'/0/price','value':3}]"), "2");
+        coalescer.submitSnapshot(snapshot("[{'title':'B','price':2}]"), "3");
+        coalescer.submit(patch("[{'op':'replace','path':'/0/price','value':4}]"), "4");
+        coalescer.discardPending();
+        // the frame posted before the updates were discarded still runs
+        runFrames();
+
+        assertSame(applied, model.get());
+        assertEquals("1", model.getLastEventId());
+        assertEquals(1, renders.size());
+        assertEquals(3, coalescer.getUpdatesDropped());
+
+        // the next connection resumes from "1" and sends the updates again
+        coalescer.submit(patch("[{'op':'replace','path':'/0/price','value':3}]"), "2");
+        runFrames();
+        assertEquals(3, model.get().getUnscaledPrice(0));
+        assertEquals("2", model.getLastEventId());
+    }
+
+    @Test
+    public void discardingWithNothingPendingKeepsTheQuotes() throws Exception {
+        coalescer.submitSnapshot(snapshot("[{'title':'A','price':1}]"), "1");
+        runFrames();
+        coalescer.discardPending();
+        runFrames();
+        assertEquals("1", model.getLastEventId());
+        assertEquals(1, model.get().getUnscaledPrice(0));
+        assertEquals(0, coalescer.getUpdatesDropped());
+    }
+
+    private void runFrames() {
+        while (!frames.isEmpty()) {
+            frames.remove(0).run();
+        }
+    }
+
+    private QuoteStore snapshot(String json) throws Exception {
+        return decoder.decode(json.replace('\'', '"'));
+    }
+
+    private static InPlaceJsonPatch patch(String json) throws Exception {
+        return InPlaceJsonPatch.fromJson(MAPPER.readTree(json.replace('\'', '"')));
+    }
+}
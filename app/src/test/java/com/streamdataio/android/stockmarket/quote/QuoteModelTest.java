@@ -0,0 +1,145 @@
+package com.streamdataio.android.stockmarket.quote;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QuoteModelTest {
+    private static final int ROWS = 200;
+    private static final long TOTAL = ROWS * 100L;
+    private static final int VERSIONS = 20000;
+    private static final int READERS = 3;
+
+    @Test
+    public void publishedVersionsDoNotChange() {
+        QuoteModel model = new QuoteModel();
+        QuoteStore store = model.edit();
+        store.setTitle(store.addRow(), "A");
+        store.setPrice(0, 100, 0);
+        QuoteStore first = model.publish("1");
+
+        store.setPrice(0, 200, 0);
+        store.setTitle(store.addRow(), "B");
+        assertEquals(100, first.getUnscaledPrice(0));
+        assertEquals(1, first.size());
+        assertSame(first, model.get());
+
+        QuoteStore second = model.publish();
+        assertEquals(200, second.getUnscaledPrice(0));
+        assertEquals(2, second.size());
+        assertEquals(100, first.getUnscaledPrice(0));
+        assertEquals("1", model.getLastEventId());
+    }
+
+    @Test
+    public void startsEmptyWithoutAnId() {
+        QuoteModel model = new QuoteModel();
+        assertEquals(0, model.get().size());
+        assertTrue(model.get().isFrozen());
+        assertNull(model.getLastEventId());
+    }
+
+    /**
+     * One writer moves value between rows, inserts and removes rows, and publishes each change with its id, while
+     * readers check that every version they get adds up to the same total, does not change while they read it, and
+     * comes with its own id.
+     */
+    @Test
+    public void readersSeeConsistentVersions() throws Throwable {
+        final QuoteModel model = new QuoteModel();
+        QuoteStore store = model.edit();
+        // row 0 holds the version number, to check it against the id published with it
+        store.setTitle(store.addRow(), "0");
+        for (int row = 0; row < ROWS; row++) {
+            store.setPrice(store.addRow(), 100, 0);
+        }
+        model.publish("0");
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong versionsRead = new AtomicLong();
+        final CountDownLatch started = new CountDownLatch(READERS);
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        int previous = 0;
+                        while (!done.get()) {
+                            QuoteModel.Version version = model.getVersion();
+                            int number = Integer.parseInt(version.quotes.getTitle(0));
+                            assertEquals(Integer.toString(number), version.lastEventId);
+                            assertTrue(number >= previous);
+                            previous = number;
+                            assertEquals("version " + number, TOTAL, sum(version.quotes));
+                            assertEquals("version " + number, TOTAL, sum(version.quotes));
+                            versionsRead.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        try {
+            started.await();
+            Random random = new Random(42);
+            for (int version = 1; version <= VERSIONS && failure.get() == null; version++) {
+                int from = 1 + random.nextInt(store.size() - 1);
+                int to = 1 + random.nextInt(store.size() - 1);
+                long amount = random.nextInt(10);
+                if (store.getUnscaledPrice(from) >= amount) {
+                    store.setPrice(from, store.getUnscaledPrice(from) - amount, 0);
+                    store.setPrice(to, store.getUnscaledPrice(to) + amount, 0);
+                }
+                if (version % 7 == 0) {
+                    // rows without a price move the rows after them
+                    int row = 1 + random.nextInt(store.size() - 1);
+                    store.insertRow(row);
+                    store.setTitle(row, "empty");
+                } else if (version % 11 == 0) {
+                    int row = 1 + random.nextInt(store.size() - 1);
+                    if (!store.hasPrice(row)) {
+                        store.removeRow(row);
+                    }
+                }
+                store.setTitle(0, Integer.toString(version));
+                model.publish(Integer.toString(version));
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertEquals(TOTAL, sum(model.get()));
+        assertEquals(Integer.toString(VERSIONS), model.getLastEventId());
+        assertTrue(versionsRead.get() > 0);
+    }
+
+    private static long sum(QuoteStore quotes) {
+        long sum = 0;
+        for (int row = 0; row < quotes.size(); row++) {
+            if (quotes.hasPrice(row)) {
+                sum += quotes.getUnscaledPrice(row);
+            }
+        }
+        return sum;
+    }
+}
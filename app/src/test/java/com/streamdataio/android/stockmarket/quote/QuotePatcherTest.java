@@ -0,0 +1,167 @@
+package com.streamdataio.android.stockmarket.quote;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuotePatcherTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String QUOTES = "[{'title':'A','price':1.5,'volume':10},{'title':'B','price':2},"
+            + "{'title':'C','price':3.25}]";
+
+    private final QuoteSnapshotDecoder decoder = new QuoteSnapshotDecoder(MAPPER.getFactory());
+    private final QuotePatcher patcher = new QuotePatcher();
+
+    @Test
+    public void appliesLikeAPatchOfTheSnapshot() throws Exception {
+        String[] patches = {
+                "[{'op':'replace','path':'/1/price','value':20.5}]",
+                "[{'op':'replace','path':'/1/title','value':'X'}]",
+                "[{'op':'replace','path':'/1','value':{'title':'X','price':9}}]",
+                "[{'op':'add','path':'/1','value':{'title':'X','price':9}}]",
+                "[{'op':'add','path':'/-','value':{'title':'Z'}}]",
+                "[{'op':'add','path':'/0/price','value':7}]",
+                "[{'op':'remove','path':'/0'}]",
+                "[{'op':'remove','path':'/2/price'}]",
+                "[{'op':'move','from':'/0','path':'/2'}]",
+                "[{'op':'move','from':'/2','path':'/-'}]",
+                "[{'op':'copy','from':'/2','path':'/0'}]",
+                "[{'op':'move','from':'/0/price','path':'/1/price'}]",
+                "[{'op':'copy','from':'/0/title','path':'/2/title'}]",
+                "[{'op':'test','path':'/0/price','value':1.50},{'op':'replace','path':'/0/price','value':5}]",
+                "[{'op':'test','path':'/1','value':{'title':'B','price':2.0}},{'op':'remove','path':'/1'}]",
+                "[{'op':'replace','path':'','value':[{'title':'Y','price':7}]}]",
+                "[{'op':'add','path':'/0/volume','value':1},{'op':'remove','path':'/0/volume'}]",
+                "[{'op':'remove','path':'/0'},{'op':'remove','path':'/0'},{'op':'add','path':'/0','value':{}}]",
+                "[{'op':'replace','path':'/0/price','value':null}]",
+        };
+        for (String patch : patches) {
+            JsonNode document = json(QUOTES);
+            InPlaceJsonPatch.fromJson(json(patch)).apply(document);
+            QuoteStore expected = decoder.decode(MAPPER.writeValueAsString(document));
+
+            QuoteStore store = decoder.decode(json(QUOTES).toString());
+            patcher.apply(InPlaceJsonPatch.fromJson(json(patch)), store, new RowChanges());
+            assertSameQuotes(patch, expected, store);
+        }
+    }
+
+    @Test
+    public void failedPatchLeavesTheStoreAndChangesUnchanged() throws Exception {
+        String[] patches = {
+                "[{'op':'replace','path':'/0/price','value':10},{'op':'add','path':'/1','value':{'title':'X'}},"
+                        + "{'op':'remove','path':'/3'},{'op':'move','from':'/0','path':'/-'},"
+                        + "{'op':'copy','from':'/0','path':'/0'},{'op':'remove','path':'/9'}]",
+                "[{'op':'remove','path':'/0'},{'op':'replace','path':'','value':[{'title':'Y'}]},"
+                        + "{'op':'add','path':'/0','value':{'title':'Z'}},{'op':'test','path':'/0/title','value':'Q'}]",
+                "[{'op':'replace','path':'/0/title','value':'T'},{'op':'replace','path':'/1','value':3}]",
+                "[{'op':'remove','path':''}]",
+                "[{'op':'move','from':'/0','path':'/0/title'}]",
+                "[{'op':'move','from':'/0/title','path':'/1/price'}]",
+                "[{'op':'replace','path':'','value':{}}]",
+        };
+        for (String patch : patches) {
+            QuoteStore store = decoder.decode(json(QUOTES).toString());
+            RowChanges changes = new RowChanges();
+            changes.changed(7);
+            try {
+                patcher.apply(InPlaceJsonPatch.fromJson(json(patch)), store, changes);
+                fail(patch);
+            } catch (JsonPatchException expected) {
+            }
+            assertSameQuotes(patch, decoder.decode(json(QUOTES).toString()), store);
+            assertEquals(patch, "[~7]", changes.toString());
+        }
+    }
+
+    @Test
+    public void patcherIsReusableAfterAFailure() throws Exception {
+        QuoteStore store = decoder.decode(json(QUOTES).toString());
+        try {
+            patcher.apply(patch("[{'op':'remove','path':'/0'},{'op':'remove','path':'/5'}]"), store,
+                    new RowChanges());
+            fail();
+        } catch (JsonPatchException expected) {
+        }
+        patcher.apply(patch("[{'op':'remove','path':'/0'}]"), store, new RowChanges());
+        assertEquals(2, store.size());
+        assertEquals("B", store.getTitle(0));
+    }
+
+    @Test
+    public void recordsTheRowsChanged() throws Exception {
+        QuoteStore store = decoder.decode(json(QUOTES).toString());
+        RowChanges changes = new RowChanges();
+        patcher.apply(patch("[{'op':'replace','path':'/2/price','value':0},{'op':'replace','path':'/2/title',"
+                + "'value':'D'},{'op':'add','path':'/0/volume','value':1},{'op':'remove','path':'/0'},"
+                + "{'op':'add','path':'/-','value':{}}]"), store, changes);
+        assertEquals("[~2, -0, +2]", changes.toString());
+    }
+
+    @Test
+    public void pricesFollowTheSnapshotRule() throws Exception {
+        String[] prices = {"12.50", "'12.50'", "'-0.5'", "'N/A'", "''", "true", "{'v':1}", "null", "1e30",
+                "'1e30'"};
+        for (String price : prices) {
+            QuoteStore snapshot = decoder.decode(json("[{'title':'A','price':" + price + "}]").toString());
+
+            QuoteStore patched = decoder.decode(json("[{'title':'A','price':1}]").toString());
+            patcher.apply(patch("[{'op':'replace','path':'/0/price','value':" + price + "}]"), patched,
+                    new RowChanges());
+            assertSameQuotes(price, snapshot, patched);
+
+            QuoteStore added = new QuoteStore();
+            patcher.apply(patch("[{'op':'add','path':'/0','value':{'title':'A','price':" + price + "}}]"), added,
+                    new RowChanges());
+            assertSameQuotes(price, snapshot, added);
+        }
+    }
+
+    @Test
+    public void stringPricesAreKept() throws Exception {
+        QuoteStore store = decoder.decode(json("[{'title':'A','price':1}]").toString());
+        patcher.apply(patch("[{'op':'replace','path':'/0/price','value':'12.50'}]"), store, new RowChanges());
+        assertEquals(1250, store.getUnscaledPrice(0));
+        assertEquals(2, store.getPriceScale(0));
+        patcher.apply(patch("[{'op':'test','path':'/0/price','value':'12.5'}]"), store, new RowChanges());
+        patcher.apply(patch("[{'op':'replace','path':'/0/price','value':'N/A'}]"), store, new RowChanges());
+        assertFalse(store.hasPrice(0));
+        patcher.apply(patch("[{'op':'test','path':'/0/price','value':null}]"), store, new RowChanges());
+    }
+
+    static void assertSameQuotes(String message, QuoteStore expected, QuoteStore actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(message + " row " + row, expected.getTitle(row), actual.getTitle(row));
+            assertEquals(message + " row " + row, expected.hasPrice(row), actual.hasPrice(row));
+            if (expected.hasPrice(row)) {
+                BigDecimal expectedPrice = BigDecimal.valueOf(expected.getUnscaledPrice(row),
+                        expected.getPriceScale(row));
+                BigDecimal actualPrice = BigDecimal.valueOf(actual.getUnscaledPrice(row), actual.getPriceScale(row));
+                assertTrue(message + " row " + row + ": " + expectedPrice + " != " + actualPrice,
+                        expectedPrice.compareTo(actualPrice) == 0);
+            }
+        }
+    }
+
+    private static InPlaceJsonPatch patch(String json) throws IOException, JsonPatchException {
+        return InPlaceJsonPatch.fromJson(json(json));
+    }
+
+    private static JsonNode json(String json) throws IOException {
+        return MAPPER.readTree(json.replace('\'', '"'));
+    }
+}
@@ -0,0 +1,97 @@
+package com.streamdataio.android.stockmarket.quote;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class QuoteSnapshotDecoderTest {
+    private final QuoteSnapshotDecoder decoder = new QuoteSnapshotDecoder(new ObjectMapper().getFactory());
+
+    @Test
+    public void decodesTitlesAndPricesAndSkipsOtherFields() throws Exception {
+        QuoteStore store = decoder.decode(json("[{'title':'A','price':12.50,'history':[1,{'price':2}]},"
+                + "{'volume':{'title':'nested'},'price':-3,'title':'B'},{}]"));
+        assertEquals(3, store.size());
+        assertEquals("A", store.getTitle(0));
+        assertEquals("12.50", price(store, 0));
+        assertEquals("B", store.getTitle(1));
+        assertEquals("-3", price(store, 1));
+        assertNull(store.getTitle(2));
+        assertFalse(store.hasPrice(2));
+    }
+
+    @Test
+    public void stringPricesHoldingANumberArePrices() throws Exception {
+        QuoteStore store = decoder.decode(json("[{'title':'A','price':'12.50'},{'title':'B','price':'N/A'},"
+                + "{'title':'C','price':true},{'title':'D','price':null}]"));
+        assertEquals("12.50", price(store, 0));
+        for (int row = 1; row < store.size(); row++) {
+            assertFalse(store.getTitle(row), store.hasPrice(row));
+        }
+    }
+
+    @Test
+    public void pricesOutOfRangeAreDropped() throws Exception {
+        QuoteStore store = decoder.decode(json("[{'title':'A','price':1e30},{'title':'B','price':1.5e2}]"));
+        assertFalse(store.hasPrice(0));
+        assertEquals("150", price(store, 1));
+    }
+
+    @Test
+    public void titlesAreSharedAcrossSnapshots() throws Exception {
+        QuoteStore first = decoder.decode(json("[{'title':'Apple','price':1}]"));
+        QuoteStore second = decoder.decode(json("[{'title':'Apple','price':2}]"));
+        assertSame(first.getTitle(0), second.getTitle(0));
+    }
+
+    @Test
+    public void decodesUtf8Bytes() throws Exception {
+        String snapshot = json("[{'title':'Soci\u00e9t\u00e9 G\u00e9n\u00e9rale','price':42.1}]");
+        QuoteStore store = decoder.decode(snapshot.getBytes(Charset.forName("UTF-8")));
+        assertEquals("Soci\u00e9t\u00e9 G\u00e9n\u00e9rale", store.getTitle(0));
+        assertEquals("42.1", price(store, 0));
+    }
+
+    @Test
+    public void addsToAnExistingStore() throws Exception {
+        QuoteStore store = decoder.decode(json("[{'title':'A'}]"));
+        decoder.decode(json("[{'title':'B'}]"), store);
+        assertEquals(2, store.size());
+        assertEquals("B", store.getTitle(1));
+    }
+
+    @Test
+    public void decodesAnEmptySnapshot() throws Exception {
+        assertEquals(0, decoder.decode("[]").size());
+    }
+
+    @Test
+    public void rejectsWhatIsNotAnArrayOfObjects() {
+        String[] snapshots = {"{}", "[1]", "[{'title':'A'},[]]", "[{'title':'A'}"};
+        for (String snapshot : snapshots) {
+            try {
+                decoder.decode(json(snapshot));
+                fail(snapshot);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static String price(QuoteStore store, int row) {
+        char[] text = new char[QuoteStore.PRICE_TEXT_CAPACITY];
+        return new String(text, 0, store.formatPrice(row, text));
+    }
+
+    private static String json(String json) {
+        return json.replace('\'', '"');
+    }
+}
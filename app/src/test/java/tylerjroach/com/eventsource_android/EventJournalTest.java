@@ -0,0 +1,286 @@
+package tylerjroach.com.eventsource_android;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import tylerjroach.com.eventsource_android.impl.EventStreamParser;
+import tylerjroach.com.eventsource_android.stubs.StubHandler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventJournalTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        append(journal, "1", "patch", "[{\"op\":\"remove\",\"path\":\"/0\"}]", 1000L);
+        append(journal, null, null, "no id, default name", 2000L);
+        append(journal, "", "", "", 3000L);
+        append(journal, "\u00e9", "\u00fc", "\u20ac \ud83d\ude00", 4000L);
+        journal.close();
+        assertEquals(4, journal.getAppendedCount());
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, "1", "patch", "[{\"op\":\"remove\",\"path\":\"/0\"}]", 1000L);
+        assertNext(reader, null, "message", "no id, default name", 2000L);
+        assertNext(reader, "", "", "", 3000L);
+        assertNext(reader, "\u00e9", "\u00fc", "\u20ac \ud83d\ude00", 4000L);
+        assertFalse(reader.next());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void writesOnlyTheGivenLengthOfEachRange() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        // the parser hands over its reused buffers, longer than their content
+        journal.append(bytes("12xx"), 2, bytes("patchxx"), 5, bytes("dataxxxx"), 4, 5L);
+        journal.close();
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, "12", "patch", "data", 5L);
+    }
+
+    @Test
+    public void lengthsThatNeedSeveralVarintBytes() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        String id = repeat('i', 200);
+        String name = repeat('n', 20000);
+        append(journal, id, name, "d", 0L);
+        journal.close();
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, id, name, "d", 0L);
+    }
+
+    @Test
+    public void rollsSegmentsAndKeepsTheNewestOnes() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory, 128, 3);
+        for (int i = 0; i < 20; i++) {
+            append(journal, Integer.toString(i), "patch", "event data " + i, i);
+        }
+        journal.close();
+        assertEquals(3, EventJournal.listSegments(directory).length);
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        int first = -1;
+        int previous = -1;
+        while (reader.next()) {
+            int i = Integer.parseInt(reader.getLastEventId());
+            assertEquals("event data " + i, new String(reader.getData(), UTF_8));
+            if (first == -1) {
+                first = i;
+            } else {
+                assertEquals(previous + 1, i);
+            }
+            previous = i;
+        }
+        assertTrue(first > 0);
+        assertEquals(19, previous);
+    }
+
+    @Test
+    public void eventLargerThanASegmentGetsItsOwnSegment() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory, 64, 4);
+        String large = repeat('x', 1000);
+        append(journal, "1", null, "small", 1L);
+        append(journal, "2", null, large, 2L);
+        append(journal, "3", null, "small", 3L);
+        journal.close();
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, "1", "message", "small", 1L);
+        assertNext(reader, "2", "message", large, 2L);
+        assertNext(reader, "3", "message", "small", 3L);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void reopenedJournalAppendsAfterTheExistingSegments() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        append(journal, "1", null, "before", 1L);
+        journal.close();
+        journal = new EventJournal(directory);
+        append(journal, "2", null, "after", 2L);
+        journal.close();
+
+        assertEquals(2, EventJournal.listSegments(directory).length);
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, "1", "message", "before", 1L);
+        assertNext(reader, "2", "message", "after", 2L);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void closedJournalRejectsAppends() throws Exception {
+        EventJournal journal = new EventJournal(folder.newFolder());
+        journal.close();
+        journal.close();
+        try {
+            append(journal, "1", null, "late", 1L);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void readerIgnoresOtherFilesAndReadsAnEmptyDirectory() throws Exception {
+        File directory = folder.newFolder();
+        assertTrue(new File(directory, "notes.txt").createNewFile());
+        assertTrue(new File(directory, "12.journal").createNewFile());
+        assertFalse(new EventJournalReader(directory).next());
+    }
+
+    @Test
+    public void readerRejectsFilesThatAreNotSegments() throws Exception {
+        File directory = folder.newFolder();
+        writeSegment(directory, 0x12345678, EventJournal.VERSION, 0);
+        assertUnreadable(directory);
+
+        directory = folder.newFolder();
+        writeSegment(directory, EventJournal.MAGIC, EventJournal.VERSION + 1, 0);
+        assertUnreadable(directory);
+    }
+
+    @Test
+    public void readerRejectsTruncatedAndCorruptRecords() throws Exception {
+        File directory = folder.newFolder();
+        // a record longer than the rest of the segment
+        writeSegment(directory, EventJournal.MAGIC, EventJournal.VERSION, 1000);
+        assertUnreadable(directory);
+
+        directory = folder.newFolder();
+        // a record shorter than its fields
+        writeSegment(directory, EventJournal.MAGIC, EventJournal.VERSION, 2, 0, 0);
+        assertUnreadable(directory);
+    }
+
+    @Test
+    public void parserJournalsTheEventsItDispatches() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        EventStreamParser parser = new EventStreamParser("http://origin", new StubHandler(), new NoConnection());
+        parser.setJournal(journal);
+        parser.lines("id: 7\nevent: patch\ndata: a\ndata: b\n\ndata: c\n\n: comment\n\n");
+        journal.close();
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertTrue(reader.next());
+        assertEquals("7", reader.getLastEventId());
+        assertEquals("patch", reader.getEventName());
+        assertArrayEquals(bytes("a\nb"), reader.getData());
+        assertTrue(reader.next());
+        assertEquals("7", reader.getLastEventId());
+        assertEquals("message", reader.getEventName());
+        assertArrayEquals(bytes("c"), reader.getData());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void parserJournalsTheTimeOfTheReadThatCompletesEachEvent() throws Exception {
+        File directory = folder.newFolder();
+        EventJournal journal = new EventJournal(directory);
+        EventStreamParser parser = new EventStreamParser("http://origin", new StubHandler(), new NoConnection());
+        parser.setJournal(journal);
+        parser.setReadMillis(1000L);
+        // each call ends with a line: b is completed by the empty line of the second read
+        parser.lines("data: a\n\ndata: b");
+        parser.setReadMillis(2000L);
+        parser.lines("\ndata: c\n");
+        journal.close();
+
+        EventJournalReader reader = new EventJournalReader(directory);
+        assertNext(reader, null, "message", "a", 1000L);
+        assertNext(reader, null, "message", "b", 2000L);
+        assertNext(reader, null, "message", "c", 2000L);
+        assertFalse(reader.next());
+    }
+
+    private static void append(EventJournal journal, String id, String eventName, String data, long receivedAt)
+            throws IOException {
+        byte[] idBytes = id != null ? bytes(id) : null;
+        byte[] nameBytes = eventName != null ? bytes(eventName) : null;
+        byte[] dataBytes = bytes(data);
+        journal.append(idBytes, idBytes != null ? idBytes.length : 0, nameBytes,
+                nameBytes != null ? nameBytes.length : 0, dataBytes, dataBytes.length, receivedAt);
+    }
+
+    private static void assertNext(EventJournalReader reader, String id, String eventName, String data,
+                                   long receivedAt) throws IOException {
+        assertTrue(reader.next());
+        if (id == null) {
+            assertNull(reader.getLastEventId());
+        } else {
+            assertEquals(id, reader.getLastEventId());
+        }
+        assertEquals(eventName, reader.getEventName());
+        assertEquals(data, new String(reader.getData(), UTF_8));
+        assertEquals(receivedAt, reader.getReceivedAtMillis());
+    }
+
+    private static void assertUnreadable(File directory) {
+        try {
+            new EventJournalReader(directory).next();
+            fail(Arrays.toString(directory.list()));
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void writeSegment(File directory, int magic, int version, int... ints) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "0000000000000000.journal"), "rw");
+        try {
+            file.writeInt(magic);
+            file.writeInt(version);
+            for (int i : ints) {
+                file.writeInt(i);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static class NoConnection implements tylerjroach.com.eventsource_android.impl.ConnectionHandler {
+        @Override
+        public void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+        }
+
+        @Override
+        public void setLastEventId(String lastEventId) {
+        }
+
+        @Override
+        public void setReadable(boolean readable) {
+        }
+    }
+}
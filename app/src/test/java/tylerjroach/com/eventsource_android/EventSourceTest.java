@@ -0,0 +1,66 @@
+package tylerjroach.com.eventsource_android;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventSourceTest {
+    @Test
+    public void closeStopsTheThreadsOfAPrivateTransport() throws Exception {
+        Set<Thread> before = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+        // the callback executor belongs to the caller, who shuts it down
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ServerSocket server = new ServerSocket(0);
+        try {
+            EventSource eventSource = new EventSource(executor, 1000,
+                    new URI("http://127.0.0.1:" + server.getLocalPort() + "/"), new EventSourceHandler() {
+                @Override
+                public void onConnect() {
+                }
+
+                @Override
+                public void onMessage(String event, MessageEvent message) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onClosed(boolean willReconnect) {
+                }
+            }, null);
+            Socket connection = server.accept();
+            eventSource.close();
+            connection.close();
+        } finally {
+            server.close();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<String> started = new ArrayList<String>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!before.contains(thread)) {
+                // a terminated pool may take a moment to let its last thread go
+                thread.join(5000);
+                if (thread.isAlive()) {
+                    started.add(thread.getName());
+                }
+            }
+        }
+        assertEquals(new ArrayList<String>(), started);
+    }
+}
@@ -0,0 +1,70 @@
+package tylerjroach.com.eventsource_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectPolicyTest {
+    @Test
+    public void fixedWaitsTheReconnectionTime() {
+        assertEquals(2000, ReconnectPolicy.FIXED.delayMillis(5, 2000, 2000));
+        assertEquals(0, ReconnectPolicy.FIXED.delayMillis(5, 0, 0));
+    }
+
+    @Test
+    public void exponentialBackoffDoublesUpToTheCap() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(10000, false);
+        assertEquals(1000, policy.delayMillis(1, 0, 1000));
+        assertEquals(2000, policy.delayMillis(2, 1000, 1000));
+        assertEquals(8000, policy.delayMillis(4, 4000, 1000));
+        assertEquals(10000, policy.delayMillis(5, 8000, 1000));
+        assertEquals(10000, policy.delayMillis(100, 10000, 1000));
+    }
+
+    @Test
+    public void exponentialBackoffGrowsFromAReconnectionTimeOf0() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(10000, false);
+        long base = ReconnectPolicy.MIN_BASE_DELAY_MILLIS;
+        assertEquals(base, policy.delayMillis(1, 0, 0));
+        assertEquals(base * 2, policy.delayMillis(2, base, 0));
+        assertEquals(base * 8, policy.delayMillis(4, base * 4, 0));
+        assertEquals(10000, policy.delayMillis(20, 10000, 0));
+    }
+
+    @Test
+    public void exponentialBackoffJitterStaysInTheUpperHalf() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(10000);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long delay = policy.delayMillis(attempt, 0, 0);
+            long max = Math.min(ReconnectPolicy.MIN_BASE_DELAY_MILLIS << (attempt - 1), 10000);
+            assertTrue(delay + " for attempt " + attempt, delay >= max / 2 && delay <= max);
+        }
+    }
+
+    @Test
+    public void decorrelatedJitterGrowsFromAReconnectionTimeOf0UpToTheCap() {
+        ReconnectPolicy policy = new DecorrelatedJitterReconnectPolicy(60000);
+        long previous = 0;
+        long longest = 0;
+        for (int attempt = 1; attempt < 50; attempt++) {
+            long delay = policy.delayMillis(attempt, previous, 0);
+            assertTrue(delay + " after " + previous, delay >= ReconnectPolicy.MIN_BASE_DELAY_MILLIS);
+            assertTrue(delay + " after " + previous, delay <= Math.max(previous * 3, 100) && delay <= 60000);
+            longest = Math.max(longest, delay);
+            previous = delay;
+        }
+        assertTrue(Long.toString(longest), longest > 1000);
+    }
+
+    @Test
+    public void governingIsOptIn() {
+        EventSourceOptions options = new EventSourceOptions();
+        assertNull(options.getReconnectGovernor());
+        assertSame(ReconnectGovernor.getDefault(),
+                options.setReconnectGovernor(ReconnectGovernor.getDefault()).getReconnectGovernor());
+        assertNull(options.setReconnectGovernor(null).getReconnectGovernor());
+    }
+}
@@ -0,0 +1,341 @@
+package tylerjroach.com.eventsource_android.impl;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.BatchEventSourceHandler;
+import tylerjroach.com.eventsource_android.DispatchOverflowPolicy;
+import tylerjroach.com.eventsource_android.MessageBatch;
+import tylerjroach.com.eventsource_android.MessageEvent;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncEventSourceHandlerTest {
+    private final Tasks executor = new Tasks();
+    private final Recorder recorder = new Recorder();
+    private final Windows timer = new Windows();
+
+    @Test
+    public void ringGrowsAndKeepsTheOrder() {
+        AsyncEventSourceHandler handler = handler(AsyncEventSourceHandler.UNBOUNDED, DispatchOverflowPolicy.BLOCK);
+        List<String> expected = new ArrayList<String>();
+        handler.onConnect();
+        expected.add("connect");
+        for (int i = 0; i < 100; i++) {
+            handler.onMessage("a", new MessageEvent(Integer.toString(i)));
+            expected.add("a" + i);
+        }
+        handler.onClosed(true);
+        expected.add("closed");
+        assertEquals(102, handler.getQueueDepth());
+        // one drain task, however many callbacks
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(expected, recorder.log);
+        assertEquals(0, handler.getQueueDepth());
+    }
+
+    @Test
+    public void dropOldestKeepsTheCallbacksQueuedAheadOfTheMessage() {
+        // start the queue at every position of the ring, so that the entries moved wrap around its end
+        for (int start = 0; start < 20; start++) {
+            Recorder recorder = new Recorder();
+            AsyncEventSourceHandler handler = handler(recorder, 3, DispatchOverflowPolicy.DROP_OLDEST);
+            advance(handler, start);
+            recorder.log.clear();
+
+            handler.onConnect();
+            handler.onError(new IllegalStateException("e"));
+            handler.onMessage("a", new MessageEvent("1"));
+            handler.onClosed(true);
+            handler.onMessage("b", new MessageEvent("2"));
+            handler.onMessage("c", new MessageEvent("3"));
+            handler.onMessage("d", new MessageEvent("4"));
+            handler.onMessage("e", new MessageEvent("5"));
+            assertEquals(2, handler.getDroppedCount());
+            executor.runAll();
+
+            assertEquals("start " + start, Arrays.asList("connect", "error e", "closed", "c3", "d4", "e5"),
+                    recorder.log);
+            assertEquals(0, handler.getConflatedCount());
+        }
+    }
+
+    @Test
+    public void conflatedMessageIsQueuedBehindTheMessagesBeforeIt() {
+        AsyncEventSourceHandler handler = handler(2, DispatchOverflowPolicy.CONFLATE_LATEST);
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.onMessage("b", new MessageEvent("2"));
+        handler.onMessage("a", new MessageEvent("3"));
+        executor.runAll();
+
+        assertEquals(Arrays.asList("b2", "a3"), recorder.log);
+        assertEquals(1, handler.getConflatedCount());
+        assertEquals(0, handler.getDroppedCount());
+    }
+
+    @Test
+    public void conflationRemovesTheNewestMessageOfTheName() {
+        for (int start = 0; start < 20; start++) {
+            Recorder recorder = new Recorder();
+            AsyncEventSourceHandler handler = handler(recorder, 4, DispatchOverflowPolicy.CONFLATE_LATEST);
+            advance(handler, start);
+            recorder.log.clear();
+
+            handler.onMessage("a", new MessageEvent("1"));
+            handler.onConnect();
+            handler.onMessage("b", new MessageEvent("2"));
+            handler.onMessage("a", new MessageEvent("3"));
+            handler.onMessage("c", new MessageEvent("4"));
+            handler.onMessage("a", new MessageEvent("5"));
+            handler.onMessage("b", new MessageEvent("6"));
+            executor.runAll();
+
+            assertEquals("start " + start, Arrays.asList("a1", "connect", "c4", "a5", "b6"), recorder.log);
+            assertEquals(2, handler.getConflatedCount());
+            assertEquals(0, handler.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void conflationDropsTheOldestMessageWhenNoneHasTheName() {
+        AsyncEventSourceHandler handler = handler(2, DispatchOverflowPolicy.CONFLATE_LATEST);
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.onMessage("b", new MessageEvent("2"));
+        handler.onMessage("c", new MessageEvent("3"));
+        executor.runAll();
+
+        assertEquals(Arrays.asList("b2", "c3"), recorder.log);
+        assertEquals(0, handler.getConflatedCount());
+        assertEquals(1, handler.getDroppedCount());
+    }
+
+    @Test
+    public void blockPausesReadingAtCapacityAndResumesAtHalf() {
+        AsyncEventSourceHandler handler = handler(4, DispatchOverflowPolicy.BLOCK);
+        for (int i = 1; i <= 6; i++) {
+            handler.onMessage("a", new MessageEvent(Integer.toString(i)));
+        }
+        // the messages decoded after the pause are still queued
+        assertEquals(6, handler.getQueueDepth());
+        executor.runAll();
+
+        assertEquals(Arrays.asList("readable false", "a1", "a2", "a3", "readable true", "a4", "a5", "a6"),
+                recorder.log);
+        assertEquals(0, handler.getDroppedCount());
+        assertEquals(0, handler.getConflatedCount());
+    }
+
+    @Test
+    public void withoutAWindowEachFlushDeliversTheMessagesOfTheRead() {
+        AsyncEventSourceHandler handler = batchingHandler(0, 256);
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.onMessage("b", new MessageEvent("2"));
+        // held until the end of the read
+        assertEquals(0, executor.tasks.size());
+        handler.flush();
+        executor.runAll();
+        handler.onMessage("c", new MessageEvent("3"));
+        assertEquals(0, executor.tasks.size());
+        handler.flush();
+        executor.runAll();
+
+        assertEquals(Arrays.asList("[a1, b2]", "[c3]"), recorder.log);
+        assertEquals(0, timer.tasks.size());
+    }
+
+    @Test
+    public void otherCallbacksEndABatch() {
+        AsyncEventSourceHandler handler = batchingHandler(0, 256);
+        handler.onConnect();
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.onMessage("b", new MessageEvent("2"));
+        handler.onError(new IllegalStateException("e"));
+        handler.onMessage("c", new MessageEvent("3"));
+        handler.onClosed(true);
+        handler.flush();
+        executor.runAll();
+
+        assertEquals(Arrays.asList("connect", "[a1, b2]", "error e", "[c3]", "closed"), recorder.log);
+    }
+
+    @Test
+    public void windowGathersReadsUntilItCloses() {
+        AsyncEventSourceHandler handler = batchingHandler(100, 256);
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.flush();
+        handler.onMessage("b", new MessageEvent("2"));
+        handler.flush();
+        // one window for both reads
+        assertEquals(1, timer.tasks.size());
+        assertEquals(0, executor.tasks.size());
+
+        timer.closeWindows();
+        executor.runAll();
+        assertEquals(Arrays.asList("[a1, b2]"), recorder.log);
+
+        // the next read opens a new window
+        handler.onMessage("c", new MessageEvent("3"));
+        handler.flush();
+        assertEquals(1, timer.tasks.size());
+        timer.closeWindows();
+        executor.runAll();
+        assertEquals(Arrays.asList("[a1, b2]", "[c3]"), recorder.log);
+    }
+
+    @Test
+    public void maxBatchSizeClosesTheWindowEarlyAndSplitsBatches() {
+        AsyncEventSourceHandler handler = batchingHandler(100, 3);
+        handler.onMessage("a", new MessageEvent("1"));
+        handler.onMessage("b", new MessageEvent("2"));
+        handler.flush();
+        assertEquals(0, executor.tasks.size());
+        handler.onMessage("c", new MessageEvent("3"));
+        // a full batch does not wait for the window
+        assertEquals(1, executor.tasks.size());
+        handler.onMessage("d", new MessageEvent("4"));
+        handler.onMessage("e", new MessageEvent("5"));
+        handler.onMessage("f", new MessageEvent("6"));
+        handler.onMessage("g", new MessageEvent("7"));
+        executor.runAll();
+        assertEquals(Arrays.asList("[a1, b2, c3]", "[d4, e5, f6]", "[g7]"), recorder.log);
+
+        // the window opened by the first read closes on an empty queue
+        timer.closeWindows();
+        assertEquals(0, executor.tasks.size());
+    }
+
+    private AsyncEventSourceHandler batchingHandler(long batchWindowMillis, int maxBatchSize) {
+        AsyncEventSourceHandler handler = handler(AsyncEventSourceHandler.UNBOUNDED, DispatchOverflowPolicy.BLOCK);
+        handler.enableBatching(timer, batchWindowMillis, maxBatchSize);
+        return handler;
+    }
+
+    private AsyncEventSourceHandler handler(int capacity, DispatchOverflowPolicy overflowPolicy) {
+        return handler(recorder, capacity, overflowPolicy);
+    }
+
+    private AsyncEventSourceHandler handler(Recorder recorder, int capacity, DispatchOverflowPolicy overflowPolicy) {
+        AsyncEventSourceHandler handler = new AsyncEventSourceHandler(executor, recorder, capacity, overflowPolicy);
+        handler.setConnectionHandler(recorder);
+        return handler;
+    }
+
+    /**
+     * Moves the head of the ring by queuing and delivering messages.
+     */
+    private void advance(AsyncEventSourceHandler handler, int count) {
+        for (int i = 0; i < count; i++) {
+            handler.onMessage("x", new MessageEvent(""));
+            executor.runAll();
+        }
+    }
+
+    /**
+     * An executor that runs its tasks when told to.
+     */
+    static class Tasks implements Executor {
+        final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    /**
+     * A timer whose windows close when told to.
+     */
+    static class Windows implements Timer {
+        final Queue<TimerTask> tasks = new LinkedList<TimerTask>();
+
+        @Override
+        public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+            tasks.add(task);
+            return null;
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return Collections.emptySet();
+        }
+
+        void closeWindows() {
+            while (!tasks.isEmpty()) {
+                try {
+                    tasks.poll().run(null);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the callbacks; only gets batches once batching is enabled.
+     */
+    static class Recorder implements BatchEventSourceHandler, ConnectionHandler {
+        final List<String> log = new ArrayList<String>();
+
+        @Override
+        public void onMessages(MessageBatch batch) {
+            List<String> messages = new ArrayList<String>();
+            for (int i = 0; i < batch.size(); i++) {
+                messages.add(batch.getEvent(i) + batch.getMessage(i).getData());
+            }
+            log.add(messages.toString());
+        }
+
+        @Override
+        public void onConnect() {
+            log.add("connect");
+        }
+
+        @Override
+        public void onMessage(String event, MessageEvent message) {
+            log.add(event + message.getData());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.add("error " + t.getMessage());
+        }
+
+        @Override
+        public void onClosed(boolean willReconnect) {
+            log.add("closed");
+        }
+
+        @Override
+        public void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+        }
+
+        @Override
+        public void setLastEventId(String lastEventId) {
+        }
+
+        @Override
+        public void setReadable(boolean readable) {
+            log.add("readable " + readable);
+        }
+    }
+}
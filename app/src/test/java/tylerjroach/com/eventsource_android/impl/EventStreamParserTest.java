@@ -0,0 +1,243 @@
+package tylerjroach.com.eventsource_android.impl;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.MessageEvent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Recorder recorder = new Recorder();
+    private final EventStreamParser parser = new EventStreamParser("http://origin", recorder, recorder);
+
+    @Test
+    public void dispatchesDataLinesJoinedWithLineFeeds() {
+        parser.lines("data: a\ndata: b\ndata\ndata:c\n\n");
+        recorder.assertEvents("message|a\nb\n\nc|null");
+    }
+
+    @Test
+    public void stripsOnlyOneSpaceAfterTheColon() {
+        parser.lines("data:  two spaces\n\n");
+        recorder.assertEvents("message| two spaces|null");
+    }
+
+    @Test
+    public void ignoresCommentsAndUnknownFields() {
+        parser.lines(": comment\nfoo: bar\ndata: a\n:data: b\n\n");
+        recorder.assertEvents("message|a|null");
+    }
+
+    @Test
+    public void namesEventsAndResetsTheNameAfterEachEvent() {
+        parser.lines("event: patch\ndata: a\n\ndata: b\n\n");
+        recorder.assertEvents("patch|a|null", "message|b|null");
+    }
+
+    @Test
+    public void eventWithoutDataIsNotDispatchedAndDoesNotNameTheNext() {
+        parser.lines("event: patch\n\ndata: a\n\n");
+        recorder.assertEvents("message|a|null");
+    }
+
+    @Test
+    public void lastEventIdCarriesOverUntilChanged() {
+        parser.lines("id: 1\ndata: a\n\ndata: b\n\nid: 2\ndata: c\n\n");
+        recorder.assertEvents("message|a|1", "message|b|1", "message|c|2");
+        assertEquals(Arrays.asList("1", "1", "2"), recorder.connectionIds);
+    }
+
+    @Test
+    public void idOfAnEventWithoutDataIsReportedWithTheNextEvent() {
+        parser.lines("id: 1\n\ndata: a\n\n");
+        recorder.assertEvents("message|a|1");
+    }
+
+    @Test
+    public void resumesWithAStoredId() {
+        parser.setLastEventId("42");
+        parser.lines("data: a\n\nid: 43\ndata: b\n\n");
+        recorder.assertEvents("message|a|42", "message|b|43");
+    }
+
+    @Test
+    public void retryWithDigitsOnlySetsTheReconnectionTime() {
+        parser.lines("retry: 1500\nretry: 15x\nretry:\nretry: 2000\n");
+        assertEquals(Arrays.asList(1500L, 2000L), recorder.retries);
+    }
+
+    @Test
+    public void fieldWithoutColonIsTrimmed() {
+        parser.line(" data ");
+        parser.line("");
+        recorder.assertEvents("message||null");
+    }
+
+    @Test
+    public void whitespaceOnlyLineEndsTheEvent() {
+        parser.lines("data: a\n \t\ndata: b\n\n");
+        recorder.assertEvents("message|a|null", "message|b|null");
+    }
+
+    @Test
+    public void decodesUtf8Data() {
+        parser.lines("event: \u00e9\ndata: \u00e9t\u00e9 \u20ac \ud83d\ude00\n\n");
+        recorder.assertEvents("\u00e9|\u00e9t\u00e9 \u20ac \ud83d\ude00|null");
+    }
+
+    @Test
+    public void interpretsByteRangesWithinALargerArray() {
+        byte[] bytes = "xxdata: abyyzz".getBytes(UTF_8);
+        parser.line(bytes, 2, 8);
+        parser.line(bytes, 12, 0);
+        recorder.assertEvents("message|ab|null");
+    }
+
+    @Test
+    public void growsItsBuffersForLargeFields() {
+        StringBuilder data = new StringBuilder();
+        StringBuilder stream = new StringBuilder("id: ");
+        for (int i = 0; i < 300; i++) {
+            stream.append('i');
+        }
+        stream.append('\n');
+        for (int line = 0; line < 10; line++) {
+            String value = line + "-0123456789012345678901234567890123456789012345678901234567890123456789";
+            data.append(line == 0 ? "" : "\n").append(value);
+            stream.append("data: ").append(value).append('\n');
+        }
+        stream.append('\n');
+        parser.lines(stream.toString());
+        assertEquals(1, recorder.events.size());
+        assertEquals(data.toString(), recorder.messages.get(0).getData());
+        assertEquals(300, recorder.messages.get(0).lastEventId.length());
+    }
+
+    @Test
+    public void byteDataEventsCarryTheUtf8Bytes() {
+        parser.setByteData(true);
+        parser.lines("data: \u00e9\ndata: b\n\n");
+        MessageEvent message = recorder.messages.get(0);
+        assertNull(message.data);
+        assertArrayEquals("\u00e9\nb".getBytes(UTF_8), message.getDataBytes());
+        assertEquals("\u00e9\nb", message.getData());
+    }
+
+    @Test
+    public void dispatchesOnlyTheEventNamesWanted() {
+        parser.setEventNames(new HashSet<String>(Arrays.asList("patch")));
+        parser.lines("id: 1\nevent: patch\ndata: a\n\nid: 2\nevent: other\ndata: b\n\nid: 3\ndata: c\n\n"
+                + "event: patch\ndata: d\n\n");
+        recorder.assertEvents("patch|a|1", "patch|d|3");
+        // the ids of the dropped events are reported with the next event dispatched
+        assertEquals(Arrays.asList("1", "3"), recorder.connectionIds);
+    }
+
+    @Test
+    public void lastNameOfAnEventWithDataBeforeItsNameDecides() {
+        parser.setEventNames(new HashSet<String>(Arrays.asList("patch")));
+        parser.lines("data:a\nevent:unwanted\ndata:b\nevent:patch\n\n");
+        parser.lines("data:c\nevent:patch\ndata:d\nevent:unwanted\n\n");
+        parser.lines("event:unwanted\nevent:patch\ndata:e\n\n");
+        recorder.assertEvents("patch|a\nb|null", "patch|e|null");
+    }
+
+    @Test
+    public void wantedNameAfterAnUnwantedOneKeepsAllTheData() {
+        parser.setEventNames(new HashSet<String>(Arrays.asList("patch")));
+        parser.lines("event:unwanted\ndata:a\nevent:patch\ndata:b\n\ndata: c\nevent: patch\n\n");
+        // the name comes after every data line
+        parser.lines("event: unwanted\ndata: d\ndata: e\nevent: patch\n\n");
+        recorder.assertEvents("patch|a\nb|null", "patch|c|null", "patch|d\ne|null");
+    }
+
+    @Test
+    public void defaultNameIsWantedOnlyWhenListed() {
+        parser.setEventNames(new HashSet<String>(Arrays.asList("message")));
+        parser.lines("data: a\n\nevent: patch\ndata: b\n\n");
+        parser.setEventNames(null);
+        parser.lines("event: patch\ndata: c\n\n");
+        recorder.assertEvents("message|a|null", "patch|c|null");
+    }
+
+    @Test
+    public void resetDropsThePartialEventButKeepsTheId() {
+        parser.lines("id: 1\ndata: a\n");
+        // lines() ends with a line of its own, so the partial event is fed line by line
+        parser.line("event: patch");
+        parser.line("data: partial");
+        parser.reset();
+        parser.lines("data: b\n\n");
+        recorder.assertEvents("message|a|1", "message|b|1");
+    }
+
+    @Test
+    public void handlerFailureIsReportedAndParsingGoesOn() {
+        recorder.failOn = "boom";
+        parser.lines("data: boom\n\ndata: ok\n\n");
+        recorder.assertEvents("message|boom|null", "message|ok|null");
+        assertEquals(1, recorder.errors.size());
+        assertTrue(recorder.errors.get(0) instanceof IllegalStateException);
+    }
+
+    static class Recorder implements EventSourceHandler, ConnectionHandler {
+        final List<String> events = new ArrayList<String>();
+        final List<MessageEvent> messages = new ArrayList<MessageEvent>();
+        final List<String> connectionIds = new ArrayList<String>();
+        final List<Long> retries = new ArrayList<Long>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        String failOn;
+
+        void assertEvents(String... expected) {
+            assertEquals(Arrays.asList(expected), events);
+        }
+
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onMessage(String event, MessageEvent message) {
+            events.add(event + "|" + message.getData() + "|" + message.lastEventId);
+            messages.add(message);
+            if (message.getData().equals(failOn)) {
+                throw new IllegalStateException(failOn);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.add(t);
+        }
+
+        @Override
+        public void onClosed(boolean willReconnect) {
+        }
+
+        @Override
+        public void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+            retries.add(reconnectionTimeMillis);
+        }
+
+        @Override
+        public void setLastEventId(String lastEventId) {
+            connectionIds.add(lastEventId);
+        }
+
+        @Override
+        public void setReadable(boolean readable) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EventStreamFramerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final EventStreamFramer framer = new EventStreamFramer();
+    private final Lines lines = new Lines();
+
+    @Test
+    public void splitsOnLfCrAndCrLf() throws Exception {
+        decode("a\nb\rc\r\nd");
+        assertEquals(Arrays.asList("a", "b", "c"), lines.lines);
+    }
+
+    @Test
+    public void keepsEmptyLines() throws Exception {
+        decode("a\n\nb\r\n\r\nc\r\r");
+        assertEquals(Arrays.asList("a", "", "b", "", "c", ""), lines.lines);
+    }
+
+    @Test
+    public void crLfCutAcrossReadsIsOneTerminator() throws Exception {
+        decode("a\r");
+        decode("\nb\n");
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+    }
+
+    @Test
+    public void crAtEndOfReadThenCrIsAnEmptyLine() throws Exception {
+        decode("a\r");
+        decode("\rb\n");
+        assertEquals(Arrays.asList("a", "", "b"), lines.lines);
+    }
+
+    @Test
+    public void crAtEndOfReadThenTextStartsANewLine() throws Exception {
+        decode("a\r");
+        decode("b\n");
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+    }
+
+    @Test
+    public void linesCutAtEveryPositionAreDeliveredOnceAndIntact() throws Exception {
+        String stream = "id: 1\r\nevent: patch\rdata: \u00e9t\u00e9 \u20ac \ud83d\ude00\n\r\ndata: x\n\n";
+        byte[] bytes = stream.getBytes(UTF_8);
+        List<String> expected = Arrays.asList("id: 1", "event: patch", "data: \u00e9t\u00e9 \u20ac \ud83d\ude00", "",
+                "data: x", "");
+        for (int cut = 0; cut <= bytes.length; cut++) {
+            EventStreamFramer framer = new EventStreamFramer();
+            Lines lines = new Lines();
+            framer.decode(ChannelBuffers.wrappedBuffer(bytes, 0, cut), lines);
+            framer.decode(ChannelBuffers.wrappedBuffer(bytes, cut, bytes.length - cut), lines);
+            assertEquals("cut at " + cut, expected, lines.lines);
+        }
+    }
+
+    @Test
+    public void framesOneByteReads() throws Exception {
+        for (byte b : "data: a\r\n\r\ndata: b\r\r".getBytes(UTF_8)) {
+            framer.decode(ChannelBuffers.wrappedBuffer(new byte[]{b}), lines);
+        }
+        assertEquals(Arrays.asList("data: a", "", "data: b", ""), lines.lines);
+    }
+
+    @Test
+    public void framesLinesLongerThanTheInitialCapacity() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        String line = longLine.toString();
+        decode(line.substring(0, 300));
+        decode(line.substring(300, 700));
+        decode(line.substring(700) + "\n");
+        assertEquals(Arrays.asList(line), lines.lines);
+    }
+
+    @Test
+    public void lineOfTheMaximumLengthIsFramed() throws Exception {
+        framer.setMaxLineLength(10);
+        decode("0123");
+        decode("456789\n0123456789\n");
+        assertEquals(Arrays.asList("0123456789", "0123456789"), lines.lines);
+    }
+
+    @Test
+    public void partialLineGrowingPastTheMaximumFailsAndIsDropped() throws Exception {
+        framer.setMaxLineLength(10);
+        decode("a\n01234");
+        try {
+            decode("56789x");
+            fail();
+        } catch (EventSourceException expected) {
+        }
+        // the next connection starts from a clean framer
+        decode("b\n");
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+    }
+
+    @Test
+    public void lineLongerThanTheMaximumFailsWithinOneRead() throws Exception {
+        framer.setMaxLineLength(10);
+        try {
+            decode("a\n0123456789x\nb\n");
+            fail();
+        } catch (EventSourceException expected) {
+        }
+        assertEquals(Arrays.asList("a"), lines.lines);
+    }
+
+    @Test
+    public void defaultMaximumIsTheLengthOfAnHttpLine() throws Exception {
+        char[] line = new char[EventStreamFramer.DEFAULT_MAX_LINE_LENGTH + 1];
+        Arrays.fill(line, 'x');
+        String longLine = new String(line);
+        decode(longLine.substring(1) + "\n");
+        assertEquals(1, lines.lines.size());
+        try {
+            decode(longLine.substring(0, 4096));
+            decode(longLine.substring(4096));
+            fail();
+        } catch (EventSourceException expected) {
+        }
+    }
+
+    @Test
+    public void resetDropsThePartialLineAndPendingCr() throws Exception {
+        decode("a\rpartial");
+        framer.reset();
+        decode("b\n");
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+
+        decode("c\r");
+        framer.reset();
+        decode("\nd\n");
+        assertEquals(Arrays.asList("a", "b", "c", "", "d"), lines.lines);
+    }
+
+    @Test
+    public void framesTheReadableBytesOfASlice() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer("xxa\nb\nyy".getBytes(UTF_8)).slice(2, 4);
+        framer.decode(buffer, lines);
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+        assertEquals(buffer.writerIndex(), buffer.readerIndex());
+    }
+
+    @Test
+    public void framesDirectBuffers() throws Exception {
+        byte[] bytes = "a\r\nb".getBytes(UTF_8);
+        ChannelBuffer buffer = ChannelBuffers.directBuffer(bytes.length);
+        buffer.writeBytes(bytes);
+        framer.decode(buffer, lines);
+        decode("\n");
+        assertEquals(Arrays.asList("a", "b"), lines.lines);
+        assertEquals(buffer.writerIndex(), buffer.readerIndex());
+    }
+
+    private void decode(String read) throws Exception {
+        framer.decode(ChannelBuffers.wrappedBuffer(read.getBytes(UTF_8)), lines);
+    }
+
+    private static class Lines implements EventStreamFramer.LineHandler {
+        final List<String> lines = new ArrayList<String>();
+
+        @Override
+        public void line(byte[] buffer, int offset, int length) {
+            lines.add(new String(buffer, offset, length, UTF_8));
+        }
+    }
+}
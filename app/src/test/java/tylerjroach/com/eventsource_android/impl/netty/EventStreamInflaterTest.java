@@ -0,0 +1,213 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamInflaterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String STREAM = "id: 1\nevent: patch\ndata: \u00e9t\u00e9 \u20ac\n\n";
+
+    @Test
+    public void gzipHeaderWithItsOptionalFieldsCutAtEveryPosition() {
+        byte[] body = gzip(STREAM, true);
+        for (int cut = 0; cut <= body.length; cut++) {
+            Body inflated = new Body();
+            DecoderEmbedder<Object> inflater = inflater("gzip", inflated);
+            inflater.offer(ChannelBuffers.wrappedBuffer(body, 0, cut));
+            inflater.offer(ChannelBuffers.wrappedBuffer(body, cut, body.length - cut));
+            assertEquals("cut at " + cut, STREAM, inflated.text());
+            assertEquals("cut at " + cut, 0, inflated.errors.size());
+        }
+    }
+
+    @Test
+    public void deflateBodyIsZlibWrappedOrRaw() {
+        for (boolean raw : new boolean[]{false, true}) {
+            Body inflated = new Body();
+            inflater("deflate", inflated).offer(ChannelBuffers.wrappedBuffer(deflate(STREAM, raw)));
+            assertEquals("raw " + raw, STREAM, inflated.text());
+            assertEquals("raw " + raw, 0, inflated.errors.size());
+        }
+    }
+
+    @Test
+    public void inflatesOneByteReads() {
+        List<byte[]> bodies = Arrays.asList(gzip(STREAM, true), deflate(STREAM, false), deflate(STREAM, true));
+        List<String> encodings = Arrays.asList("gzip", "deflate", "deflate");
+        for (int i = 0; i < bodies.size(); i++) {
+            Body inflated = new Body();
+            DecoderEmbedder<Object> inflater = inflater(encodings.get(i), inflated);
+            for (byte b : bodies.get(i)) {
+                inflater.offer(ChannelBuffers.wrappedBuffer(new byte[]{b}));
+            }
+            assertEquals("body " + i, STREAM, inflated.text());
+            assertEquals("body " + i, 0, inflated.errors.size());
+        }
+    }
+
+    @Test
+    public void eachFlushedEventIsSentUpstreamBeforeTheNextArrives() {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        Body inflated = new Body();
+        DecoderEmbedder<Object> inflater = inflater("deflate", inflated);
+        inflater.offer(ChannelBuffers.wrappedBuffer(syncFlush(deflater, "data: a\n\n")));
+        assertEquals("data: a\n\n", inflated.text());
+        inflater.offer(ChannelBuffers.wrappedBuffer(syncFlush(deflater, "data: b\n\n")));
+        assertEquals("data: a\n\ndata: b\n\n", inflated.text());
+        deflater.end();
+    }
+
+    @Test
+    public void truncatedStreamDeliversWhatWasFlushedWithoutAnError() {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] flushed = syncFlush(deflater, "data: a\n\n");
+        byte[] rest = syncFlush(deflater, "data: b\n\n");
+        deflater.end();
+        Body inflated = new Body();
+        DecoderEmbedder<Object> inflater = inflater("deflate", inflated);
+        inflater.offer(ChannelBuffers.wrappedBuffer(flushed));
+        // the connection is cut in the middle of the next block
+        inflater.offer(ChannelBuffers.wrappedBuffer(rest, 0, rest.length / 2));
+        assertEquals(0, inflated.errors.size());
+        assertTrue(inflated.text(), inflated.text().startsWith("data: a\n\n"));
+    }
+
+    @Test
+    public void corruptStreamIsReportedAndTheRestIgnored() {
+        byte[] notGzip = deflate(STREAM, false);
+        byte[] corruptDeflate = deflate(STREAM, true);
+        // a block type of 3 is reserved
+        corruptDeflate[0] |= 0x06;
+        byte[][] bodies = {notGzip, corruptDeflate};
+        String[] encodings = {"gzip", "deflate"};
+        for (int i = 0; i < bodies.length; i++) {
+            Body inflated = new Body();
+            DecoderEmbedder<Object> inflater = inflater(encodings[i], inflated);
+            inflater.offer(ChannelBuffers.wrappedBuffer(bodies[i]));
+            inflater.offer(ChannelBuffers.wrappedBuffer(gzip(STREAM, false)));
+            assertEquals(encodings[i], 1, inflated.errors.size());
+            assertTrue(encodings[i], inflated.errors.get(0) instanceof EventSourceException);
+            assertEquals(encodings[i], "", inflated.text());
+        }
+    }
+
+    @Test
+    public void unsupportedEncodingIsReported() {
+        Body inflated = new Body();
+        DecoderEmbedder<Object> inflater = inflater("br", inflated);
+        inflater.offer(ChannelBuffers.wrappedBuffer(STREAM.getBytes(UTF_8)));
+        assertEquals(1, inflated.errors.size());
+        assertEquals(null, inflated.response);
+        assertEquals("", inflated.text());
+    }
+
+    private static DecoderEmbedder<Object> inflater(String contentEncoding, Body body) {
+        DecoderEmbedder<Object> inflater = new DecoderEmbedder<Object>(new EventStreamInflater(), body);
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.setHeader("Content-Encoding", contentEncoding);
+        inflater.offer(response);
+        return inflater;
+    }
+
+    private static byte[] deflate(String text, boolean raw) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        byte[] deflated = syncFlush(deflater, text);
+        deflater.end();
+        return deflated;
+    }
+
+    /**
+     * @return a gzip body, with every optional field of the header if asked, and no trailer as the stream is cut
+     * before its end
+     */
+    private static byte[] gzip(String text, boolean optionalFields) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x1f);
+        body.write(0x8b);
+        body.write(8);
+        // FHCRC | FEXTRA | FNAME | FCOMMENT
+        body.write(optionalFields ? 0x1e : 0);
+        // mtime, extra flags, OS
+        body.write(new byte[6], 0, 6);
+        if (optionalFields) {
+            byte[] extra = {'E', 'X', 3, 0, 1, 2, 3};
+            body.write(extra.length);
+            body.write(0);
+            body.write(extra, 0, extra.length);
+            byte[] name = "stream.txt\0".getBytes(UTF_8);
+            body.write(name, 0, name.length);
+            byte[] comment = "comment\0".getBytes(UTF_8);
+            body.write(comment, 0, comment.length);
+            // the header check value is not verified
+            body.write(0x12);
+            body.write(0x34);
+        }
+        byte[] deflated = deflate(text, true);
+        body.write(deflated, 0, deflated.length);
+        return body.toByteArray();
+    }
+
+    private static byte[] syncFlush(Deflater deflater, String text) {
+        deflater.setInput(text.getBytes(UTF_8));
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] block = new byte[256];
+        int length;
+        while ((length = deflater.deflate(block, 0, block.length, Deflater.SYNC_FLUSH)) > 0) {
+            deflated.write(block, 0, length);
+        }
+        return deflated.toByteArray();
+    }
+
+    /**
+     * Above the inflater: records the response, the inflated body and the errors it sends upstream.
+     */
+    private static class Body extends SimpleChannelHandler {
+        HttpResponse response;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            if (e.getMessage() instanceof HttpResponse) {
+                response = (HttpResponse) e.getMessage();
+            } else {
+                // the inflater reuses its buffer: copy now
+                ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+                byte[] bytes = new byte[buffer.readableBytes()];
+                buffer.readBytes(bytes);
+                body.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            errors.add(e.getCause());
+        }
+
+        String text() {
+            return new String(body.toByteArray(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package tylerjroach.com.eventsource_android.impl.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tylerjroach.com.eventsource_android.EventSourceException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamResponseDecoderTest {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final Connection connection = new Connection();
+    private final Body body = new Body();
+    private final DecoderEmbedder<Object> decoder = new DecoderEmbedder<Object>(connection,
+            new EventStreamResponseDecoder(), body);
+
+    @Test
+    public void chunkedBodyIsDechunkedAndItsEndClosesTheChannel() {
+        offer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\ndata:\r\n", "3;ext=1\r\n a\n\r\n");
+        assertEquals(200, body.response.getStatus().getCode());
+        assertEquals("data: a\n", body.text());
+        assertFalse(connection.closed);
+
+        offer("0\r\nTrailer: x\r\n\r\n");
+        assertTrue(connection.closed);
+        assertEquals(0, body.errors.size());
+    }
+
+    @Test
+    public void contentLengthBodyIsCutAndItsEndClosesTheChannel() {
+        offer("HTTP/1.1 200 OK\r\nContent-Length: 8\r\n\r\ndata:", " a\nignored");
+        assertEquals("data: a\n", body.text());
+        assertTrue(connection.closed);
+        assertEquals(0, body.errors.size());
+    }
+
+    @Test
+    public void emptyBodyClosesTheChannel() {
+        offer("HTTP/1.1 204 No Content\r\nContent-Length: 0\r\n\r\n");
+        assertEquals(204, body.response.getStatus().getCode());
+        assertTrue(connection.closed);
+    }
+
+    @Test
+    public void bodyWithoutLengthIsPassedThroughUntilTheServerCloses() {
+        offer("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n\r\ndata: a\n", "\ndata: b\n\n");
+        assertEquals("text/event-stream", body.response.getHeader("Content-Type"));
+        assertEquals("data: a\n\ndata: b\n\n", body.text());
+        assertFalse(connection.closed);
+    }
+
+    @Test
+    public void headersSplitAcrossReadsAndBareLineFeeds() {
+        offer("HTTP/1.1 2", "00 OK\nContent-Le", "ngth: 2\n", "\nok");
+        assertEquals("2", body.response.getHeader("Content-Length"));
+        assertEquals("ok", body.text());
+        assertTrue(connection.closed);
+    }
+
+    @Test
+    public void malformedInputIsReportedAndTheRestIgnored() {
+        String[] responses = {
+                "SSH-2.0\r\n\r\n",
+                "HTTP/1.1 2000 OK\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nno colon\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n1\r\nab\r\n",
+        };
+        for (String response : responses) {
+            Body body = new Body();
+            DecoderEmbedder<Object> decoder = new DecoderEmbedder<Object>(new EventStreamResponseDecoder(), body);
+            decoder.offer(buffer(response));
+            decoder.offer(buffer("more\r\n\r\n"));
+            assertEquals(response, 1, body.errors.size());
+            assertTrue(response, body.errors.get(0) instanceof EventSourceException);
+        }
+    }
+
+    @Test
+    public void overLongLineIsReportedWithoutThrowing() {
+        char[] name = new char[10000];
+        Arrays.fill(name, 'x');
+        offer("HTTP/1.1 200 OK\r\n" + new String(name) + ": y\r\n\r\ndata: a\n");
+        assertEquals(1, body.errors.size());
+        assertTrue(body.errors.get(0) instanceof EventSourceException);
+        assertEquals(null, body.response);
+        assertEquals("", body.text());
+    }
+
+    private void offer(String... reads) {
+        for (String read : reads) {
+            decoder.offer(buffer(read));
+        }
+    }
+
+    private static ChannelBuffer buffer(String s) {
+        return ChannelBuffers.wrappedBuffer(s.getBytes(US_ASCII));
+    }
+
+    /**
+     * Below the decoder: sees what it asks of the connection.
+     */
+    private static class Connection extends SimpleChannelHandler {
+        boolean closed;
+
+        @Override
+        public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            closed = true;
+            super.closeRequested(ctx, e);
+        }
+    }
+
+    /**
+     * Above the decoder: records the response, the body and the errors it sends upstream.
+     */
+    private static class Body extends SimpleChannelHandler {
+        HttpResponse response;
+        final StringBuilder body = new StringBuilder();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            if (e.getMessage() instanceof HttpResponse) {
+                response = (HttpResponse) e.getMessage();
+            } else {
+                body.append(((ChannelBuffer) e.getMessage()).toString(US_ASCII));
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            errors.add(e.getCause());
+        }
+
+        String text() {
+            return body.toString();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatch;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.PatchPointer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A one-price patch applied in place by {@link InPlaceJsonPatch} against json-patch's {@link JsonPatch#apply},
+ * which copies the document, as the size of the quote list grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InPlaceJsonPatchBenchmark {
+    private static final int PATCHES = 256;
+
+    @Param({"10", "100", "500", "2000"})
+    int rows;
+
+    private JsonNode document;
+    private final InPlaceJsonPatch[] inPlacePatches = new InPlaceJsonPatch[PATCHES];
+    private final JsonPatch[] copyingPatches = new JsonPatch[PATCHES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException, JsonPatchException {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder snapshot = new StringBuilder("[");
+        for (int row = 0; row < rows; row++) {
+            snapshot.append(row > 0 ? "," : "").append("{\"title\":\"Company ").append(row)
+                    .append("\",\"price\":").append(100 + row).append(".25}");
+        }
+        document = mapper.readTree(snapshot.append(']').toString());
+        Random random = new Random(42);
+        for (int i = 0; i < PATCHES; i++) {
+            JsonNode patch = mapper.readTree("[{\"op\":\"replace\",\"path\":\"/" + random.nextInt(rows)
+                    + "/price\",\"value\":" + random.nextInt(10000) + ".5}]");
+            inPlacePatches[i] = InPlaceJsonPatch.fromJson(patch);
+            copyingPatches[i] = JsonPatch.fromJson(patch);
+        }
+    }
+
+    private int nextPatch() {
+        next = next == PATCHES - 1 ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public List<PatchPointer> inPlace() throws JsonPatchException {
+        return inPlacePatches[nextPatch()].apply(document);
+    }
+
+    @Benchmark
+    public JsonNode copying() throws JsonPatchException {
+        // the patched copy is dropped: every patch applies to the same document, as the display would
+        return copyingPatches[nextPatch()].apply(document);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.streamdataio.android.stockmarket.patch.InPlaceJsonPatch;
+import com.streamdataio.android.stockmarket.patch.PatchPointer;
+import com.streamdataio.android.stockmarket.patch.PatchPointerCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling the paths of a patch against looking them up in a {@link PatchPointerCache}, alone and as part of
+ * reading a patch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatchPointerCacheBenchmark {
+    private static final int ROWS = 50;
+
+    private final String[] paths = new String[ROWS];
+    private final JsonNode[] patches = new JsonNode[ROWS];
+    private final PatchPointerCache cache = new PatchPointerCache();
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        for (int row = 0; row < ROWS; row++) {
+            paths[row] = "/" + row + "/price";
+            patches[row] = mapper.readTree("[{\"op\":\"replace\",\"path\":\"" + paths[row] + "\",\"value\":" + row + ".5}]");
+        }
+    }
+
+    private int nextRow() {
+        next = next == ROWS - 1 ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public PatchPointer compile() throws JsonPatchException {
+        return PatchPointer.compile(paths[nextRow()]);
+    }
+
+    @Benchmark
+    public PatchPointer cached() throws JsonPatchException {
+        return cache.get(paths[nextRow()]);
+    }
+
+    @Benchmark
+    public InPlaceJsonPatch patchCompiled() throws JsonPatchException {
+        return InPlaceJsonPatch.fromJson(patches[nextRow()]);
+    }
+
+    @Benchmark
+    public InPlaceJsonPatch patchCached() throws JsonPatchException {
+        return InPlaceJsonPatch.fromJson(patches[nextRow()], cache);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.benchmark;
+
+import com.streamdataio.android.stockmarket.patch.RowChanges;
+import com.streamdataio.android.stockmarket.quote.QuoteModel;
+import com.streamdataio.android.stockmarket.quote.QuoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot brought into the published quotes: diffed row by row by {@link QuoteStore#replaceWith}, which records
+ * the {@link RowChanges} to refresh, against replacing every row and refreshing the whole list. Two snapshots that
+ * differ in {@code changedRows} rows take turns, and each one is published as a new version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RowChangesBenchmark {
+    @Param({"50", "500"})
+    int rows;
+
+    @Param({"0", "1", "10"})
+    int changedRows;
+
+    private final QuoteStore[] snapshots = {new QuoteStore(), new QuoteStore()};
+    private final QuoteModel model = new QuoteModel();
+    private final RowChanges changes = new RowChanges();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int row = 0; row < rows; row++) {
+            for (QuoteStore snapshot : snapshots) {
+                snapshot.setTitle(snapshot.addRow(), "Company " + row);
+                snapshot.setPrice(row, 10000 + row, 2);
+            }
+        }
+        // spread the differences over the list
+        for (int i = 0; i < changedRows; i++) {
+            int row = (int) ((long) i * rows / changedRows);
+            snapshots[1].setPrice(row, snapshots[1].getUnscaledPrice(row) + 1, 2);
+        }
+        model.edit().replaceWith(snapshots[0], new RowChanges());
+        model.publish();
+    }
+
+    private QuoteStore nextSnapshot() {
+        next ^= 1;
+        return snapshots[next];
+    }
+
+    @Benchmark
+    public RowChanges diff() {
+        changes.clear();
+        model.edit().replaceWith(nextSnapshot(), changes);
+        model.publish();
+        return changes;
+    }
+
+    @Benchmark
+    public RowChanges replaceAll() {
+        changes.clear();
+        QuoteStore snapshot = nextSnapshot();
+        QuoteStore store = model.edit();
+        store.clear();
+        for (int row = 0; row < snapshot.size(); row++) {
+            store.copyRow(snapshot, row, store.addRow());
+        }
+        changes.replacedAll();
+        model.publish();
+        return changes;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Streamdata.io
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package com.streamdataio.android.stockmarket.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.streamdataio.android.stockmarket.quote.QuoteSnapshotDecoder;
+import com.streamdataio.android.stockmarket.quote.QuoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot decoded from its UTF-8 bytes by the streaming {@link QuoteSnapshotDecoder}, against reading it into a
+ * Jackson tree, which the list used to hold, and against reading the tree into a {@link QuoteStore}. The decoder is
+ * kept from one snapshot to the next, as the app keeps it, so titles seen before are not allocated again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotDecodeBenchmark {
+    @Param({"50", "500"})
+    int rows;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final QuoteSnapshotDecoder decoder = new QuoteSnapshotDecoder(mapper.getFactory());
+    private byte[] snapshot;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("[");
+        for (int row = 0; row < rows; row++) {
+            json.append(row > 0 ? "," : "").append("{\"title\":\"Company ").append(row)
+                    .append("\",\"price\":").append(100 + row).append('.').append(row % 100).append('}');
+        }
+        snapshot = json.append(']').toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public QuoteStore streaming() throws IOException {
+        return decoder.decode(snapshot);
+    }
+
+    @Benchmark
+    public JsonNode tree() throws IOException {
+        return mapper.readTree(snapshot);
+    }
+
+    @Benchmark
+    public QuoteStore treeToStore() throws IOException {
+        QuoteStore store = new QuoteStore();
+        for (JsonNode quote : mapper.readTree(snapshot)) {
+            int row = store.addRow();
+            store.setTitle(row, quote.path(QuoteSnapshotDecoder.TITLE).asText());
+            JsonNode price = quote.path(QuoteSnapshotDecoder.PRICE);
+            if (price.isNumber()) {
+                store.setPrice(row, price.decimalValue());
+            }
+        }
+        return store;
+    }
+}
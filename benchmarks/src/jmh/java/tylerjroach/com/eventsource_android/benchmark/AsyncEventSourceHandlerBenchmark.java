@@ -0,0 +1,110 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tylerjroach.com.eventsource_android.BatchEventSourceHandler;
+import tylerjroach.com.eventsource_android.DispatchOverflowPolicy;
+import tylerjroach.com.eventsource_android.MessageBatch;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.impl.AsyncEventSourceHandler;
+
+/**
+ * {@link AsyncEventSourceHandler}: the messages of a read are queued, flushed, and the benchmark waits until the
+ * handler has received them. The {@code direct} executor measures the queue alone, {@code thread} adds the hand-off
+ * to a callback thread. Scores are per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AsyncEventSourceHandlerBenchmark {
+    static final int MESSAGES_PER_READ = 16;
+
+    @Param({"direct", "thread"})
+    String executor;
+
+    @Param({"false", "true"})
+    boolean batching;
+
+    private ExecutorService callbackThread;
+    private AsyncEventSourceHandler asyncHandler;
+    private final AtomicLong handled = new AtomicLong();
+    private long sent;
+    private final MessageEvent message = new MessageEvent("[{\"op\":\"replace\",\"path\":\"/12/price\",\"value\":123.45}]", "42", "http://localhost/");
+
+    @Setup
+    public void setUp() {
+        Executor callbackExecutor;
+        if (executor.equals("thread")) {
+            callbackThread = Executors.newSingleThreadExecutor();
+            callbackExecutor = callbackThread;
+        } else {
+            callbackExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }
+        asyncHandler = new AsyncEventSourceHandler(callbackExecutor, new BatchEventSourceHandler() {
+            @Override
+            public void onMessages(MessageBatch batch) {
+                handled.addAndGet(batch.size());
+            }
+
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String event, MessageEvent message) {
+                handled.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        }, AsyncEventSourceHandler.UNBOUNDED, DispatchOverflowPolicy.BLOCK);
+        if (batching) {
+            asyncHandler.enableBatching(null, 0, MESSAGES_PER_READ);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (callbackThread != null) {
+            callbackThread.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_READ)
+    public void dispatch() {
+        for (int i = 0; i < MESSAGES_PER_READ; i++) {
+            asyncHandler.onMessage("patch", message);
+        }
+        asyncHandler.flush();
+        sent += MESSAGES_PER_READ;
+        while (handled.get() < sent) {
+            Thread.yield();
+        }
+    }
+}
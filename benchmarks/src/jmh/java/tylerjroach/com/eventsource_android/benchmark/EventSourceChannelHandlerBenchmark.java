@@ -0,0 +1,126 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.impl.netty.EventSourceChannelHandler;
+
+/**
+ * {@link EventSourceChannelHandler#messageReceived} with de-chunked body buffers, as the response decoder sends
+ * them: framing and parsing, with lines cut across reads. Scores are per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventSourceChannelHandlerBenchmark {
+    static final int EVENTS = 100;
+
+    @Param({"64", "1024", "16384"})
+    int dataSize;
+
+    @Param({"1", "8"})
+    int dataLines;
+
+    @Param({"false", "true"})
+    boolean crlf;
+
+    /**
+     * Bytes per read: small reads cut most lines in two.
+     */
+    @Param({"100", "1460", "8192"})
+    int readSize;
+
+    private EventSourceChannelHandler channelHandler;
+    private ChannelBuffer[] reads;
+    private final Received received = new Received();
+
+    @Setup
+    public void setUp(final Blackhole blackhole) throws Exception {
+        SyntheticEventStream stream = new SyntheticEventStream(EVENTS, dataSize, dataLines, crlf);
+        reads = stream.reads(readSize);
+        channelHandler = new EventSourceChannelHandler(new EventSourceHandler() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String event, tylerjroach.com.eventsource_android.MessageEvent message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        }, 0, null, null, new URI("http://localhost/"), null, null);
+        // single-line events of the largest data size are longer than the default limit
+        channelHandler.setMaxLineLength(Integer.MAX_VALUE);
+
+        DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/event-stream");
+        received.message = response;
+        channelHandler.messageReceived(null, received);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void messageReceived() throws Exception {
+        for (ChannelBuffer read : reads) {
+            read.readerIndex(0);
+            received.message = read;
+            channelHandler.messageReceived(null, received);
+        }
+    }
+
+    /**
+     * A reusable upstream message event, without a channel.
+     */
+    private static final class Received implements MessageEvent {
+        Object message;
+
+        @Override
+        public Object getMessage() {
+            return message;
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public Channel getChannel() {
+            return null;
+        }
+
+        @Override
+        public ChannelFuture getFuture() {
+            return null;
+        }
+    }
+}
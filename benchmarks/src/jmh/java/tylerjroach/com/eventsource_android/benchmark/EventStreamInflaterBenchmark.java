@@ -0,0 +1,95 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.impl.netty.EventSourceChannelHandler;
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamInflater;
+import tylerjroach.com.eventsource_android.impl.netty.EventStreamResponseDecoder;
+
+/**
+ * The CPU cost of a compressed stream: a whole response body, inflated if it is compressed, then framed and
+ * parsed. Each invocation is a new connection, since a compressed stream cannot be replayed from the middle.
+ * Scores are per event; the setup prints the bytes on the wire per event, to weigh the cost against the bandwidth
+ * saved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventStreamInflaterBenchmark {
+    static final int EVENTS = 1000;
+
+    @Param({"identity", "gzip", "deflate"})
+    String encoding;
+
+    @Param({"64", "1024"})
+    int dataSize;
+
+    @Param({"1460"})
+    int readSize;
+
+    private ChannelBuffer responseHead;
+    private ChannelBuffer[] reads;
+    private EventSourceHandler handler;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        SyntheticEventStream stream = new SyntheticEventStream(EVENTS, dataSize, 1, false);
+        byte[] body = encoding.equals("identity") ? stream.getBody() : stream.compress(encoding);
+        reads = SyntheticEventStream.reads(body, readSize);
+        responseHead = ChannelBuffers.wrappedBuffer(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+                + "Content-Encoding: " + encoding + "\r\n\r\n").getBytes(SyntheticEventStream.UTF_8));
+        System.out.println(encoding + ": " + body.length / EVENTS + " bytes per event on the wire, "
+                + stream.getBody().length / EVENTS + " inflated");
+        handler = new EventSourceHandler() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String event, MessageEvent message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void inflateAndParse() {
+        EventSourceChannelHandler channelHandler = new EventSourceChannelHandler(handler, 0, null, null,
+                URI.create("http://localhost/"), null, null);
+        DecoderEmbedder<Object> connection = new DecoderEmbedder<Object>(new EventStreamResponseDecoder(),
+                new EventStreamInflater(), channelHandler);
+        responseHead.readerIndex(0);
+        connection.offer(responseHead);
+        for (ChannelBuffer read : reads) {
+            read.readerIndex(0);
+            connection.offer(read);
+        }
+    }
+}
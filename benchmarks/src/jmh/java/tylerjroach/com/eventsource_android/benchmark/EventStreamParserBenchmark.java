@@ -0,0 +1,93 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.impl.ConnectionHandler;
+import tylerjroach.com.eventsource_android.impl.EventStreamParser;
+
+/**
+ * {@link EventStreamParser} alone: lines already framed, as handed over by the channel handler, and whole bodies
+ * given as Strings. Scores are per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventStreamParserBenchmark {
+    static final int EVENTS = 100;
+
+    @Param({"64", "1024", "16384"})
+    int dataSize;
+
+    @Param({"1", "8"})
+    int dataLines;
+
+    private SyntheticEventStream stream;
+    private String bodyString;
+    private EventStreamParser parser;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        stream = new SyntheticEventStream(EVENTS, dataSize, dataLines, false);
+        bodyString = stream.getBodyString();
+        parser = new EventStreamParser("http://localhost/", new EventSourceHandler() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String event, MessageEvent message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        }, new ConnectionHandler() {
+            @Override
+            public void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+            }
+
+            @Override
+            public void setLastEventId(String lastEventId) {
+                blackhole.consume(lastEventId);
+            }
+
+            @Override
+            public void setReadable(boolean readable) {
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void line() {
+        byte[] body = stream.getBody();
+        for (int i = 0; i < stream.getLineCount(); i++) {
+            parser.line(body, stream.getLineStart(i), stream.getLineLength(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void lines() {
+        parser.lines(bodyString);
+    }
+}
@@ -0,0 +1,90 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.impl.ConnectionHandler;
+import tylerjroach.com.eventsource_android.impl.EventStreamParser;
+
+/**
+ * What the app does with each event: the parser dispatches it and the handler reads its data as a JSON tree, from
+ * a String or, with {@code byteData}, straight from the UTF-8 bytes. Scores are per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageDataBenchmark {
+    static final int EVENTS = 100;
+
+    @Param({"64", "1024", "16384"})
+    int dataSize;
+
+    @Param({"false", "true"})
+    boolean byteData;
+
+    private SyntheticEventStream stream;
+    private EventStreamParser parser;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        stream = new SyntheticEventStream(EVENTS, dataSize, 1, false);
+        final ObjectMapper mapper = new ObjectMapper();
+        parser = new EventStreamParser("http://localhost/", new EventSourceHandler() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String event, MessageEvent message) throws IOException {
+                blackhole.consume(byteData ? mapper.readTree(message.getDataBytes()) : mapper.readTree(message.data));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        }, new ConnectionHandler() {
+            @Override
+            public void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+            }
+
+            @Override
+            public void setLastEventId(String lastEventId) {
+                blackhole.consume(lastEventId);
+            }
+
+            @Override
+            public void setReadable(boolean readable) {
+            }
+        });
+        parser.setByteData(byteData);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void dispatchAndReadTree() {
+        byte[] body = stream.getBody();
+        for (int i = 0; i < stream.getLineCount(); i++) {
+            parser.line(body, stream.getLineStart(i), stream.getLineLength(i));
+        }
+    }
+}
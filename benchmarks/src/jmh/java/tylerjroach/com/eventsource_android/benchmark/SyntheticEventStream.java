@@ -0,0 +1,171 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Event stream bodies shaped like the patches of a stock market feed, with an id, an event name and data of a
+ * given size split over a number of lines.
+ */
+final class SyntheticEventStream {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] body;
+    private final int eventCount;
+    private int[] lineStarts = new int[64];
+    private int[] lineLengths = new int[64];
+    private int lineCount;
+    private final int[] eventEnds;
+
+    /**
+     * @param dataSize  bytes of data per event, line feeds between data lines excluded
+     * @param dataLines number of {@code data} lines per event
+     * @param crlf      whether lines end with CRLF rather than LF
+     */
+    SyntheticEventStream(int eventCount, int dataSize, int dataLines, boolean crlf) {
+        this.eventCount = eventCount;
+        this.eventEnds = new int[eventCount];
+        byte[] eol = (crlf ? "\r\n" : "\n").getBytes(UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < eventCount; i++) {
+            line(out, "id: " + i, eol);
+            line(out, "event: patch", eol);
+            String data = data(i, dataSize);
+            int perLine = (dataSize + dataLines - 1) / dataLines;
+            for (int start = 0; start < data.length(); start += perLine) {
+                line(out, "data: " + data.substring(start, Math.min(data.length(), start + perLine)), eol);
+            }
+            line(out, "", eol);
+            eventEnds[i] = out.size();
+        }
+        body = out.toByteArray();
+    }
+
+    /**
+     * @return a valid JSON patch replacing prices, padded with blanks to the size
+     */
+    private static String data(int i, int size) {
+        StringBuilder data = new StringBuilder(size);
+        StringBuilder operation = new StringBuilder();
+        int row = 0;
+        while (true) {
+            operation.setLength(0);
+            operation.append(data.length() == 0 ? '[' : ',');
+            operation.append("{\"op\":\"replace\",\"path\":\"/").append((i + row++) % 50).append("/price\",\"value\":")
+                    .append(100 + i % 900).append('.').append(i % 100).append('}');
+            if (data.length() + operation.length() >= size) {
+                break;
+            }
+            data.append(operation);
+        }
+        while (data.length() < size - 1) {
+            data.append(' ');
+        }
+        return data.append(']').toString();
+    }
+
+    private void line(ByteArrayOutputStream out, String line, byte[] eol) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount << 1);
+            lineLengths = Arrays.copyOf(lineLengths, lineCount << 1);
+        }
+        byte[] bytes = line.getBytes(UTF_8);
+        lineStarts[lineCount] = out.size();
+        lineLengths[lineCount] = bytes.length;
+        lineCount++;
+        out.write(bytes, 0, bytes.length);
+        out.write(eol, 0, eol.length);
+    }
+
+    int getEventCount() {
+        return eventCount;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    String getBodyString() {
+        return new String(body, UTF_8);
+    }
+
+    int getLineCount() {
+        return lineCount;
+    }
+
+    int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    int getLineLength(int line) {
+        return lineLengths[line];
+    }
+
+    /**
+     * @param encoding {@code gzip}, or {@code deflate} for the zlib format
+     * @return the body compressed the way a streaming server does it, with a sync flush after each event so that
+     * every event can be inflated as soon as it is received
+     */
+    byte[] compress(String encoding) {
+        boolean gzip = encoding.equals("gzip");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (gzip) {
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}, 0, 10);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        byte[] buffer = new byte[8192];
+        int eventStart = 0;
+        for (int eventEnd : eventEnds) {
+            deflater.setInput(body, eventStart, eventEnd - eventStart);
+            int length;
+            while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            eventStart = eventEnd;
+        }
+        deflater.finish();
+        int length;
+        while ((length = deflater.deflate(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        deflater.end();
+        if (gzip) {
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, body.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (i * 8));
+        }
+    }
+
+    /**
+     * @return the body cut into buffers of the size of a network read, regardless of line boundaries
+     */
+    ChannelBuffer[] reads(int readSize) {
+        return reads(body, readSize);
+    }
+
+    /**
+     * @return the bytes cut into buffers of the size of a network read
+     */
+    static ChannelBuffer[] reads(byte[] bytes, int readSize) {
+        ChannelBuffer[] reads = new ChannelBuffer[(bytes.length + readSize - 1) / readSize];
+        for (int i = 0; i < reads.length; i++) {
+            int start = i * readSize;
+            reads[i] = ChannelBuffers.wrappedBuffer(bytes, start, Math.min(readSize, bytes.length - start));
+        }
+        return reads;
+    }
+}
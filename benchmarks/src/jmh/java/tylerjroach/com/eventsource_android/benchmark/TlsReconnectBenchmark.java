@@ -0,0 +1,140 @@
+package tylerjroach.com.eventsource_android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import tylerjroach.com.eventsource_android.EventSource;
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.EventSourceOptions;
+import tylerjroach.com.eventsource_android.EventSourceTransport;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.SSLEngineFactory;
+import tylerjroach.com.eventsource_android.loadtest.SseTestServer;
+
+/**
+ * Reconnects of an https {@link EventSource} to the local {@link SseTestServer}: the server drops the connection and
+ * the benchmark waits until the event source is connected again. With {@code resume}, the client keeps its TLS
+ * sessions and each reconnect should resume the first session with an abbreviated handshake; without it, the client
+ * forgets its sessions before each reconnect, which costs a full handshake. The tear down fails the run if the
+ * server did not see the same session on every connection with {@code resume}, or saw one twice without it.
+ * Scores include the 100 ms tick of the reconnect timer; the handshake is the difference between the two.
+ * <p/>
+ * The server certificate is the self-signed one of {@code test-server.jks}, made with:
+ * <pre>
+ * keytool -genkeypair -alias sse-test-server -keyalg RSA -keysize 2048 -dname "CN=127.0.0.1" \
+ *     -ext san=ip:127.0.0.1 -validity 36500 -storetype JKS -keystore test-server.jks \
+ *     -storepass changeit -keypass changeit
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TlsReconnectBenchmark {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @Param({"true", "false"})
+    boolean resume;
+
+    private SseTestServer server;
+    private EventSourceTransport transport;
+    private EventSource eventSource;
+    private SSLSessionContext clientSessions;
+    private final Semaphore connected = new Semaphore(0);
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = TlsReconnectBenchmark.class.getResourceAsStream("test-server.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        // a TLS 1.2 session keeps its id when resumed, which is what the tear down checks; TLS 1.3 resumes with a
+        // ticket under a new id
+        SSLContext clientContext = SSLContext.getInstance("TLSv1.2");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+        clientSessions = clientContext.getClientSessionContext();
+
+        server = new SseTestServer().setSslContext(serverContext).setEventsPerSecond(10).start();
+        transport = new EventSourceTransport(1);
+        eventSource = new EventSource(server.getUri(), server.getUri(), new EventSourceHandler() {
+            @Override
+            public void onConnect() {
+                connected.release();
+            }
+
+            @Override
+            public void onMessage(String event, MessageEvent message) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onClosed(boolean willReconnect) {
+            }
+        }, null, new EventSourceOptions()
+                .setTransport(transport)
+                .setSslEngineFactory(new SSLEngineFactory(clientContext))
+                .setReconnectionTimeMillis(0));
+        connected.acquire();
+    }
+
+    @Benchmark
+    public void reconnect() throws InterruptedException {
+        if (!resume) {
+            forgetSessions();
+        }
+        server.disconnectAll();
+        connected.acquire();
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventSource.close();
+        transport.release();
+        server.stop();
+
+        List<String> sessionIds = server.getTlsSessionIds();
+        int distinct = new HashSet<String>(sessionIds).size();
+        if (resume ? distinct != 1 : distinct != sessionIds.size()) {
+            throw new IllegalStateException(sessionIds.size() + " connections with " + distinct
+                    + " TLS sessions, resume " + resume);
+        }
+    }
+
+    private void forgetSessions() {
+        Enumeration<byte[]> ids = clientSessions.getIds();
+        while (ids.hasMoreElements()) {
+            clientSessions.getSession(ids.nextElement()).invalidate();
+        }
+    }
+}
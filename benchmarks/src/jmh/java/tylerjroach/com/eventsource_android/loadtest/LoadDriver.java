@@ -0,0 +1,217 @@
+package tylerjroach.com.eventsource_android.loadtest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tylerjroach.com.eventsource_android.EventSource;
+import tylerjroach.com.eventsource_android.EventSourceHandler;
+import tylerjroach.com.eventsource_android.EventSourceOptions;
+import tylerjroach.com.eventsource_android.EventSourceTransport;
+import tylerjroach.com.eventsource_android.EventTracer;
+import tylerjroach.com.eventsource_android.MessageEvent;
+import tylerjroach.com.eventsource_android.StreamMetrics;
+
+/**
+ * Runs many {@link EventSource} clients against a local {@link SseTestServer} and reports what a user would see:
+ * events received per second, the delay between a patch being sent and a client receiving it, and how long clients
+ * take to get back on the stream when the server drops all the connections.
+ * <p/>
+ * Settings are {@code key=value} arguments:
+ * <ul>
+ * <li>{@code clients}: number of event sources, 20</li>
+ * <li>{@code seconds}: length of the measurement, 10</li>
+ * <li>{@code warmupSeconds}: run before measuring, 2</li>
+ * <li>{@code rate}: patches sent per second, 200</li>
+ * <li>{@code rows}: quotes of the snapshot, 50</li>
+ * <li>{@code ops}: operations per patch, 1</li>
+ * <li>{@code chunk}: largest HTTP chunk, in bytes, 8192</li>
+ * <li>{@code workers}: NIO worker threads of the clients, 2</li>
+ * <li>{@code disconnectEverySeconds}: the server drops all the connections this often, 0 for never, 3</li>
+ * <li>{@code reconnectMillis}: reconnection time of the clients, 100</li>
+ * <li>{@code traceEvery}: one event out of this many is traced from read to handler, 10</li>
+ * </ul>
+ * All the clients share one {@link EventSourceTransport}, as the clients of an app would, and one
+ * {@link StreamMetrics} and {@link EventTracer}, printed at the end of the run.
+ */
+public class LoadDriver {
+    private final Map<String, String> settings;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final LongSamples latencies = new LongSamples();
+    private final LongSamples reconnects = new LongSamples();
+    private volatile boolean measuring;
+
+    LoadDriver(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadDriver(settings).run();
+    }
+
+    void run() throws InterruptedException {
+        int clientCount = setting("clients", 20);
+        int seconds = setting("seconds", 10);
+        int warmupSeconds = setting("warmupSeconds", 2);
+        int disconnectEverySeconds = setting("disconnectEverySeconds", 3);
+
+        final SseTestServer server = new SseTestServer()
+                .setEventsPerSecond(setting("rate", 200))
+                .setRowCount(setting("rows", 50))
+                .setOperationsPerPatch(setting("ops", 1))
+                .setChunkSize(setting("chunk", 8192))
+                .start();
+        URI uri = server.getUri();
+        EventSourceTransport transport = new EventSourceTransport(setting("workers", 2));
+        StreamMetrics metrics = new StreamMetrics();
+        EventTracer tracer = new EventTracer(setting("traceEvery", 10));
+        List<EventSource> clients = new ArrayList<EventSource>();
+        for (int i = 0; i < clientCount; i++) {
+            EventSourceOptions options = new EventSourceOptions()
+                    .setTransport(transport)
+                    .setReconnectionTimeMillis(setting("reconnectMillis", 100))
+                    .setSnapshotEventName("data")
+                    // the snapshot is one data line, as long as the rows make it
+                    .setMaxLineLength(1 << 20)
+                    .setMetrics(metrics)
+                    .setTracer(tracer);
+            clients.add(new EventSource(uri, uri, new Client(server), null, options));
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        long eventsBefore = server.getEventCount();
+        long connectionsBefore = server.getConnectionCount();
+        measuring = true;
+        long start = System.nanoTime();
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(1000);
+            if (disconnectEverySeconds > 0 && second % disconnectEverySeconds == 0 && second < seconds) {
+                server.disconnectAll();
+            }
+        }
+        measuring = false;
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long resumed = 0;
+        long restarted = 0;
+        for (EventSource client : clients) {
+            resumed += client.getResumedReconnectCount();
+            restarted += client.getSnapshotReconnectCount();
+            client.close();
+        }
+        transport.release();
+        server.stop();
+
+        System.out.println(String.format(Locale.US, "%d clients, %.1f s, %d patches sent, %d connections",
+                clientCount, elapsedSeconds, server.getEventCount() - eventsBefore,
+                server.getConnectionCount() - connectionsBefore));
+        System.out.println(String.format(Locale.US, "received: %.0f events/s, %d snapshots",
+                received.get() / elapsedSeconds, snapshots.get()));
+        System.out.println("patch latency: " + latencies.summary(TimeUnit.MICROSECONDS, "us"));
+        System.out.println("reconnect time: " + reconnects.summary(TimeUnit.MILLISECONDS, "ms")
+                + ", resumed " + resumed + ", from a snapshot " + restarted);
+        System.out.println(metrics.snapshot());
+        System.out.println(tracer);
+    }
+
+    private int setting(String key, int defaultValue) {
+        String value = settings.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Times the patches and the reconnects of one event source. Callbacks of all the clients run on the callback
+     * thread of the transport.
+     */
+    private class Client implements EventSourceHandler {
+        private final SseTestServer server;
+        private long disconnectedAt = -1;
+
+        Client(SseTestServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public void onConnect() {
+            if (disconnectedAt >= 0 && measuring) {
+                reconnects.add(System.nanoTime() - disconnectedAt);
+            }
+            disconnectedAt = -1;
+        }
+
+        @Override
+        public void onMessage(String event, MessageEvent message) {
+            long now = System.nanoTime();
+            if (!measuring) {
+                return;
+            }
+            received.incrementAndGet();
+            if ("data".equals(event)) {
+                snapshots.incrementAndGet();
+            } else if (message.lastEventId != null) {
+                long sentAt = server.getSentNanos(Long.parseLong(message.lastEventId));
+                if (sentAt >= 0) {
+                    latencies.add(now - sentAt);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onClosed(boolean willReconnect) {
+            if (willReconnect && disconnectedAt < 0) {
+                disconnectedAt = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Nanosecond samples, sorted to report percentiles.
+     */
+    static final class LongSamples {
+        private long[] samples = new long[1024];
+        private int size;
+
+        synchronized void add(long sample) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = sample;
+        }
+
+        synchronized String summary(TimeUnit unit, String suffix) {
+            if (size == 0) {
+                return "no samples";
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return String.format(Locale.US, "p50 %d%s, p99 %d%s, max %d%s (%d samples)",
+                    unit.convert(percentile(sorted, 0.50), TimeUnit.NANOSECONDS), suffix,
+                    unit.convert(percentile(sorted, 0.99), TimeUnit.NANOSECONDS), suffix,
+                    unit.convert(sorted[sorted.length - 1], TimeUnit.NANOSECONDS), suffix, size);
+        }
+
+        private static long percentile(long[] sorted, double quantile) {
+            return sorted[Math.min(sorted.length - 1, (int) (quantile * sorted.length))];
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package tylerjroach.com.eventsource_android.loadtest;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+/**
+ * A local stand-in for the streaming proxy: serves a stock market event stream, a {@code data} snapshot followed by
+ * {@code patch} events, to every connection.
+ * <p/>
+ * Patches are generated at a fixed rate and sent to all the connections at once. Each event gets the next id, and
+ * the server keeps the last ones, with the {@link System#nanoTime()} they were sent at: a client reconnecting with
+ * a {@code Last-Event-ID} still in that history is resumed with the events it missed, any other client gets a new
+ * snapshot first. The body is sent with the chunked transfer encoding, in chunks of at most a configured size, so
+ * events are cut across chunks.
+ * <pre>
+ * SseTestServer server = new SseTestServer().setEventsPerSecond(1000).setRowCount(200).start();
+ * ...
+ * server.stop();
+ * </pre>
+ * Settings must be made before {@link #start()}.
+ */
+public class SseTestServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] RESPONSE_HEAD = ("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\nTransfer-Encoding: chunked\r\n\r\n").getBytes(UTF_8);
+
+    private int rowCount = 50;
+    private double eventsPerSecond = 100;
+    private int operationsPerPatch = 1;
+    private int chunkSize = 8192;
+    private boolean crlf;
+    private boolean ids = true;
+    private long retryMillis = -1;
+    private int disconnectAfterEvents;
+    private int historySize = 10000;
+    private SSLContext sslContext;
+
+    private ServerBootstrap bootstrap;
+    private Channel serverChannel;
+    private ScheduledExecutorService generator;
+    private final Random random = new Random(42);
+
+    // guarded by this
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private long[] prices;
+    private long lastId;
+    private long[] historySentNanos;
+    private ChannelBuffer[] historyEvents;
+    private long connectionCount;
+    private final List<String> tlsSessionIds = new ArrayList<String>();
+
+    /**
+     * @param rowCount number of quotes of the snapshots
+     */
+    public SseTestServer setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+        return this;
+    }
+
+    public SseTestServer setEventsPerSecond(double eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param operationsPerPatch number of prices replaced by each patch
+     */
+    public SseTestServer setOperationsPerPatch(int operationsPerPatch) {
+        this.operationsPerPatch = operationsPerPatch;
+        return this;
+    }
+
+    /**
+     * @param chunkSize maximum number of bytes of an HTTP chunk
+     */
+    public SseTestServer setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param crlf whether lines end with CRLF rather than LF
+     */
+    public SseTestServer setCrlf(boolean crlf) {
+        this.crlf = crlf;
+        return this;
+    }
+
+    /**
+     * @param ids whether events carry an {@code id} field; without ids, every connection starts with a snapshot
+     */
+    public SseTestServer setIds(boolean ids) {
+        this.ids = ids;
+        return this;
+    }
+
+    /**
+     * @param retryMillis value of the {@code retry} field sent at the start of each stream, -1 for none
+     */
+    public SseTestServer setRetryMillis(long retryMillis) {
+        this.retryMillis = retryMillis;
+        return this;
+    }
+
+    /**
+     * @param disconnectAfterEvents number of events after which each connection is closed, 0 to keep connections
+     */
+    public SseTestServer setDisconnectAfterEvents(int disconnectAfterEvents) {
+        this.disconnectAfterEvents = disconnectAfterEvents;
+        return this;
+    }
+
+    /**
+     * @param historySize number of events kept to resume streams
+     */
+    public SseTestServer setHistorySize(int historySize) {
+        this.historySize = historySize;
+        return this;
+    }
+
+    /**
+     * @param sslContext serves https with this context, null for http
+     */
+    public SseTestServer setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Listens on an ephemeral port of the loopback interface and starts generating patches.
+     */
+    public synchronized SseTestServer start() {
+        prices = new long[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            prices[row] = 1000 + random.nextInt(100000);
+        }
+        historySentNanos = new long[historySize];
+        historyEvents = new ChannelBuffer[historySize];
+
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                ChannelPipeline pipeline = Channels.pipeline();
+                if (sslContext != null) {
+                    SSLEngine engine = sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    pipeline.addLast("ssl", new SslHandler(engine));
+                }
+                pipeline.addLast("decoder", new HttpRequestDecoder());
+                pipeline.addLast("stream", new Connection());
+                return pipeline;
+            }
+        });
+        serverChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        generator = Executors.newSingleThreadScheduledExecutor();
+        generator.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sendPatch();
+            }
+        }, 0, (long) (TimeUnit.SECONDS.toNanos(1) / eventsPerSecond), TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    /**
+     * @return the URI of the stream
+     */
+    public URI getUri() {
+        int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        return URI.create((sslContext != null ? "https" : "http") + "://127.0.0.1:" + port + "/prices");
+    }
+
+    /**
+     * @return when the event with the id was sent, or -1 if it is no longer in the history
+     */
+    public synchronized long getSentNanos(long id) {
+        if (id <= 0 || id > lastId || id <= lastId - historySize) {
+            return -1;
+        }
+        return historySentNanos[(int) (id % historySize)];
+    }
+
+    /**
+     * @return the number of patches generated
+     */
+    public synchronized long getEventCount() {
+        return lastId;
+    }
+
+    /**
+     * @return the number of streams served
+     */
+    public synchronized long getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return the id of the TLS session of each https stream served, in hex, in the order the streams were opened;
+     * a connection that resumed a session has the id of the first connection of that session
+     */
+    public synchronized List<String> getTlsSessionIds() {
+        return new ArrayList<String>(tlsSessionIds);
+    }
+
+    /**
+     * Closes all the connections, as a proxy restart would.
+     */
+    public void disconnectAll() {
+        List<Connection> closed;
+        synchronized (this) {
+            closed = new ArrayList<Connection>(connections);
+        }
+        for (Connection connection : closed) {
+            connection.channel.close();
+        }
+    }
+
+    public void stop() {
+        generator.shutdownNow();
+        disconnectAll();
+        serverChannel.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+    }
+
+    private void sendPatch() {
+        StringBuilder data = new StringBuilder("[");
+        synchronized (this) {
+            for (int i = 0; i < operationsPerPatch; i++) {
+                int row = random.nextInt(rowCount);
+                prices[row] = Math.max(1, prices[row] + random.nextInt(201) - 100);
+                data.append(i > 0 ? "," : "").append("{\"op\":\"replace\",\"path\":\"/").append(row)
+                        .append("/price\",\"value\":").append(price(prices[row])).append('}');
+            }
+            data.append(']');
+            long id = ++lastId;
+            ChannelBuffer event = chunked(event(ids ? id : -1, "patch", data));
+            int slot = (int) (id % historySize);
+            historyEvents[slot] = event;
+            historySentNanos[slot] = System.nanoTime();
+            for (int i = connections.size() - 1; i >= 0; i--) {
+                connections.get(i).send(event);
+            }
+        }
+    }
+
+    /**
+     * Starts the stream of a connection, resuming it from the id if the events after it are still known.
+     */
+    private synchronized void open(Connection connection, String lastEventId, SslHandler sslHandler) {
+        connectionCount++;
+        if (sslHandler != null) {
+            // the handshake is over once the request has been decrypted
+            StringBuilder id = new StringBuilder();
+            for (byte b : sslHandler.getEngine().getSession().getId()) {
+                id.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            tlsSessionIds.add(id.toString());
+        }
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(RESPONSE_HEAD, 0, RESPONSE_HEAD.length);
+        connection.channel.write(ChannelBuffers.wrappedBuffer(head.toByteArray()));
+        if (retryMillis >= 0) {
+            connection.channel.write(chunked(("retry: " + retryMillis + eol() + eol()).getBytes(UTF_8)));
+        }
+        long resumeFrom = parseId(lastEventId);
+        if (ids && resumeFrom >= 0 && resumeFrom <= lastId && resumeFrom >= lastId - historySize) {
+            for (long id = resumeFrom + 1; id <= lastId; id++) {
+                connection.send(historyEvents[(int) (id % historySize)]);
+            }
+        } else {
+            StringBuilder snapshot = new StringBuilder("[");
+            for (int row = 0; row < rowCount; row++) {
+                snapshot.append(row > 0 ? "," : "").append("{\"title\":\"Company ").append(row)
+                        .append("\",\"price\":").append(price(prices[row])).append('}');
+            }
+            connection.send(chunked(event(ids ? lastId : -1, "data", snapshot.append(']'))));
+        }
+        connections.add(connection);
+    }
+
+    private synchronized void closed(Connection connection) {
+        connections.remove(connection);
+    }
+
+    private byte[] event(long id, String name, CharSequence data) {
+        String eol = eol();
+        StringBuilder event = new StringBuilder();
+        if (id >= 0) {
+            event.append("id: ").append(id).append(eol);
+        }
+        event.append("event: ").append(name).append(eol);
+        event.append("data: ").append(data).append(eol).append(eol);
+        return event.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return the bytes as HTTP chunks of at most the chunk size
+     */
+    private ChannelBuffer chunked(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 16);
+        for (int start = 0; start < bytes.length; start += chunkSize) {
+            int length = Math.min(chunkSize, bytes.length - start);
+            byte[] size = (Integer.toHexString(length) + "\r\n").getBytes(UTF_8);
+            out.write(size, 0, size.length);
+            out.write(bytes, start, length);
+            out.write('\r');
+            out.write('\n');
+        }
+        return ChannelBuffers.wrappedBuffer(out.toByteArray());
+    }
+
+    private String eol() {
+        return crlf ? "\r\n" : "\n";
+    }
+
+    private static String price(long cents) {
+        return cents / 100 + "." + (cents % 100 < 10 ? "0" : "") + cents % 100;
+    }
+
+    private static long parseId(String id) {
+        if (id == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The stream of one connection.
+     */
+    private class Connection extends SimpleChannelUpstreamHandler {
+        private volatile Channel channel;
+        private int sentCount;
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            if (e.getMessage() instanceof HttpRequest && channel == null) {
+                channel = e.getChannel();
+                open(this, ((HttpRequest) e.getMessage()).getHeader("Last-Event-ID"),
+                        ctx.getPipeline().get(SslHandler.class));
+            }
+        }
+
+        /**
+         * Called with the lock of the server held.
+         */
+        void send(ChannelBuffer event) {
+            channel.write(event.duplicate());
+            if (disconnectAfterEvents > 0 && ++sentCount >= disconnectAfterEvents) {
+                channel.close();
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            closed(this);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            e.getChannel().close();
+        }
+    }
+}